@@ -0,0 +1,11 @@
+package com.nikodoko.packagetest;
+
+/** The archive formats that projects can be exported to, see {@link Export#toArchive}. */
+public enum ArchiveFormat {
+  /** A ZIP archive. */
+  ZIP,
+  /** A JAR archive, which is a ZIP archive starting with a manifest. */
+  JAR,
+  /** An uncompressed (ustar) TAR archive. */
+  TAR;
+}
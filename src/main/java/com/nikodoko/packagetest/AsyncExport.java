@@ -0,0 +1,371 @@
+package com.nikodoko.packagetest;
+
+import com.nikodoko.packagetest.internal.Exporter;
+import com.nikodoko.packagetest.internal.Sink;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+
+/**
+ * An export running in the background, returned by {@link com.nikodoko.packagetest.Export#ofAsync}
+ * and {@link com.nikodoko.packagetest.Export#ofPublisher}.
+ *
+ * <p>This future completes once all files are written. Meanwhile, {@link #file} and {@link #module}
+ * tell when a given file or module is available. Cancelling it stops the export before the next
+ * file is written, and removes all the files already written.
+ */
+public class AsyncExport extends CompletableFuture<Exported> {
+  private final Map<String, CompletableFuture<Path>> files = new ConcurrentHashMap<>();
+  private final Map<String, CompletableFuture<Void>> modules = new ConcurrentHashMap<>();
+  private volatile boolean cancelled = false;
+  private volatile Runnable onCancel = () -> {};
+
+  AsyncExport() {}
+
+  /**
+   * Returns a future completing with the path of the file of {@code module} designated by {@code
+   * fragment} once it is entirely written.
+   *
+   * <p>If the file is not part of the export, the future fails with a {@link
+   * NoSuchElementException} once the export is done. If the export fails, so does the future.
+   */
+  public CompletableFuture<Path> file(String module, String fragment) {
+    CompletableFuture<Path> file = files.computeIfAbsent(key(module, fragment), k -> newFuture());
+    if (isDone()) {
+      resolve(file, module, fragment);
+    }
+
+    return file;
+  }
+
+  /**
+   * Returns a future completing once all the files of {@code module} are written.
+   *
+   * <p>Files that do not belong to any module (MODULE.bazel...) are part of the module named {@code
+   * ""}. If the export fails, so does the future.
+   */
+  public CompletableFuture<Void> module(String module) {
+    CompletableFuture<Void> m = modules.computeIfAbsent(module, k -> newFuture());
+    if (isDone()) {
+      resolve(m);
+    }
+
+    return m;
+  }
+
+  /**
+   * Cancels this export.
+   *
+   * <p>The export stops before writing its next file, and all files written so far are deleted.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    cancelled = true;
+    boolean result = super.cancel(mayInterruptIfRunning);
+    if (result) {
+      onCancel.run();
+    }
+
+    return result;
+  }
+
+  // Derived futures (thenApply...) are plain futures, unrelated to the export
+  @Override
+  public <U> CompletableFuture<U> newIncompleteFuture() {
+    return new CompletableFuture<>();
+  }
+
+  interface Task {
+    Exported export(Sink sink) throws IOException;
+  }
+
+  void run(Task task, Sink sink, boolean temporaryRoot) {
+    TrackingSink tracking = new TrackingSink(sink, temporaryRoot);
+    try {
+      succeed(task.export(tracking));
+    } catch (Throwable t) {
+      fail(t, tracking);
+    }
+  }
+
+  // Runs task in the calling thread, removing the files it wrote if it fails
+  static Exported runNow(Task task, Sink sink, boolean temporaryRoot) throws IOException {
+    AsyncExport export = new AsyncExport();
+    export.run(task, sink, temporaryRoot);
+    try {
+      return export.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+
+      throw e;
+    }
+  }
+
+  interface Start {
+    Exporter.Session begin(Sink sink) throws IOException;
+  }
+
+  /** Returns a subscriber exporting modules one at a time, as they are published. */
+  Flow.Subscriber<Module> subscriber(Start start, Sink sink, boolean temporaryRoot) {
+    return new ModuleSubscriber(start, new TrackingSink(sink, temporaryRoot));
+  }
+
+  private void succeed(Exported exported) throws IOException {
+    if (!complete(exported)) {
+      // Cancelled after the last file was written
+      exported.cleanup();
+    }
+
+    resolveAll();
+  }
+
+  private void fail(Throwable t, TrackingSink tracking) {
+    try {
+      tracking.deleteWritten();
+    } catch (IOException e) {
+      t.addSuppressed(e);
+    }
+
+    completeExceptionally(t);
+    resolveAll();
+  }
+
+  private void resolveAll() {
+    files.forEach((k, f) -> resolve(f, moduleOf(k), fragmentOf(k)));
+    modules.values().forEach(this::resolve);
+  }
+
+  private static <T> CompletableFuture<T> newFuture() {
+    return new CompletableFuture<>();
+  }
+
+  // Module names cannot contain slashes
+  private static String key(String module, String fragment) {
+    return module + "/" + fragment;
+  }
+
+  private static String moduleOf(String key) {
+    return key.substring(0, key.indexOf('/'));
+  }
+
+  private static String fragmentOf(String key) {
+    return key.substring(key.indexOf('/') + 1);
+  }
+
+  // Only called once this export is done
+  private void resolve(CompletableFuture<Path> file, String module, String fragment) {
+    if (isCompletedExceptionally()) {
+      file.completeExceptionally(failure());
+      return;
+    }
+
+    Exported exported = join();
+    exported
+        .file(module, fragment)
+        .ifPresentOrElse(
+            file::complete,
+            () ->
+                file.completeExceptionally(
+                    new NoSuchElementException(fragment + " not written for module " + module)));
+  }
+
+  private void resolve(CompletableFuture<Void> module) {
+    if (isCompletedExceptionally()) {
+      module.completeExceptionally(failure());
+    } else {
+      module.complete(null);
+    }
+  }
+
+  private Throwable failure() {
+    try {
+      join();
+      throw new IllegalStateException("export did not fail");
+    } catch (CancellationException e) {
+      return e;
+    } catch (RuntimeException e) {
+      return e.getCause() == null ? e : e.getCause();
+    }
+  }
+
+  // Requests modules one by one, so that only the module being written is held by the export.
+  // Signals are serialized by the publisher, and only need to be synchronized with cancellation.
+  private class ModuleSubscriber implements Flow.Subscriber<Module> {
+    private final Start start;
+    private final TrackingSink sink;
+    private Flow.Subscription subscription;
+    private Exporter.Session session;
+
+    ModuleSubscriber(Start start, TrackingSink sink) {
+      this.start = start;
+      this.sink = sink;
+    }
+
+    @Override
+    public synchronized void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      try {
+        session = start.begin(sink);
+      } catch (Throwable t) {
+        stop(t);
+        return;
+      }
+
+      onCancel = this::cancelled;
+      if (isDone()) {
+        // Cancelled before anything was written
+        stop(new CancellationException("export cancelled"));
+        return;
+      }
+
+      subscription.request(1);
+    }
+
+    @Override
+    public synchronized void onNext(Module module) {
+      if (isDone()) {
+        return;
+      }
+
+      try {
+        session.add(module);
+      } catch (Throwable t) {
+        stop(t);
+        return;
+      }
+
+      subscription.request(1);
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+      if (!isDone()) {
+        fail(t, sink);
+      }
+    }
+
+    @Override
+    public synchronized void onComplete() {
+      if (isDone()) {
+        return;
+      }
+
+      try {
+        succeed(session.finish());
+      } catch (Throwable t) {
+        fail(t, sink);
+      }
+    }
+
+    private synchronized void cancelled() {
+      stop(new CancellationException("export cancelled"));
+    }
+
+    private void stop(Throwable t) {
+      subscription.cancel();
+      fail(t, sink);
+    }
+  }
+
+  // Completes file and module futures as soon as possible, and keeps track of what to delete
+  private class TrackingSink implements Sink {
+    private final Sink sink;
+    private final boolean temporaryRoot;
+    private final List<Path> written = new ArrayList<>();
+
+    TrackingSink(Sink sink, boolean temporaryRoot) {
+      this.sink = sink;
+      this.temporaryRoot = temporaryRoot;
+    }
+
+    @Override
+    public Path root() {
+      return sink.root();
+    }
+
+    @Override
+    public OutputStream newOutputStream(Path relative) throws IOException {
+      checkCancelled();
+      written.add(root().resolve(relative));
+      return sink.newOutputStream(relative);
+    }
+
+    @Override
+    public void writeSource(String module, String fragment, Path relative, byte[] contents)
+        throws IOException {
+      checkCancelled();
+      written.add(root().resolve(relative));
+      sink.writeSource(module, fragment, relative, contents);
+    }
+
+    @Override
+    public void written(String module, String fragment, Path path) {
+      files.computeIfAbsent(key(module, fragment), k -> newFuture()).complete(path);
+    }
+
+    @Override
+    public void moduleWritten(String module) {
+      modules.computeIfAbsent(module, k -> newFuture()).complete(null);
+    }
+
+    @Override
+    public void close() throws IOException {
+      sink.close();
+    }
+
+    private void checkCancelled() {
+      if (cancelled) {
+        throw new CancellationException("export cancelled");
+      }
+    }
+
+    // Removes written files, and the directories that only contained them
+    void deleteWritten() throws IOException {
+      Path root = root();
+      for (Path p : written) {
+        Files.deleteIfExists(p);
+        Path dir = p.getParent();
+        while (!dir.equals(root) && dir.startsWith(root) && deleteIfEmpty(dir)) {
+          dir = dir.getParent();
+        }
+      }
+
+      written.clear();
+
+      if (temporaryRoot) {
+        deleteIfEmpty(root);
+      }
+    }
+
+    private boolean deleteIfEmpty(Path dir) throws IOException {
+      try {
+        Files.deleteIfExists(dir);
+        return true;
+      } catch (DirectoryNotEmptyException e) {
+        return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package com.nikodoko.packagetest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Describes the caches shared by builds of exported projects, see {@link
+ * Export.Options.Builder#withBuildCache}.
+ *
+ * <p>All caches live in subdirectories of a same directory, which can be shared by all exported
+ * projects and all processes, so that builds of a same fixture hit the cache instead of starting
+ * cold:
+ *
+ * <ul>
+ *   <li>{@code bazel-disk-cache} and {@code bazel-repository-cache}, used by Bazel;
+ *   <li>{@code maven-repository} (the local repository) and {@code maven-build-cache}, used by
+ *       Maven and its build cache extension.
+ * </ul>
+ *
+ * <p>Build caches are immutable: methods changing a setting return a new instance, so that a cache
+ * given to {@link Export.Options} cannot change afterwards.
+ */
+public class BuildCache {
+  private final Path directory;
+  private final int jobs;
+  private final boolean offline;
+
+  private BuildCache(Path directory, int jobs, boolean offline) {
+    this.directory = directory;
+    this.jobs = jobs;
+    this.offline = offline;
+  }
+
+  /** Returns caches stored in {@code directory}, which is created by the build tools if needed. */
+  public static BuildCache in(Path directory) {
+    return new BuildCache(
+        directory.toAbsolutePath().normalize(), Runtime.getRuntime().availableProcessors(), false);
+  }
+
+  /** Returns caches stored in a {@code packagetest-build-cache} directory of the temporary one. */
+  public static BuildCache inTemporaryDirectory() {
+    return in(Paths.get(System.getProperty("java.io.tmpdir"), "packagetest-build-cache"));
+  }
+
+  /**
+   * Returns a copy of these caches with {@code jobs} parallel jobs of builds (defaults to the
+   * number of processors).
+   *
+   * @throws IllegalArgumentException if {@code jobs} is not positive
+   */
+  public BuildCache jobs(int jobs) {
+    if (jobs < 1) {
+      throw new IllegalArgumentException("invalid number of jobs: " + jobs);
+    }
+
+    return new BuildCache(directory, jobs, offline);
+  }
+
+  /**
+   * Returns a copy of these caches making builds work offline, only using what is already cached.
+   *
+   * <p>Only used by {@link BuildSystem#MAVEN}, Bazel falling back to its repository cache on its
+   * own.
+   */
+  public BuildCache offline() {
+    return new BuildCache(directory, jobs, true);
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  public int jobs() {
+    return jobs;
+  }
+
+  public boolean isOffline() {
+    return offline;
+  }
+}
@@ -0,0 +1,64 @@
+package com.nikodoko.packagetest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/** Contains the result of {@link com.nikodoko.packagetest.Exported#compile}. */
+public class Compilation {
+  /** The outcome of the compilation of a module. */
+  public enum Status {
+    SUCCEEDED,
+    FAILED,
+    // One of the modules it depends on did not compile
+    SKIPPED
+  }
+
+  private final Map<String, Status> statuses;
+  private final Map<String, List<Diagnostic<? extends JavaFileObject>>> diagnostics;
+
+  public Compilation(
+      Map<String, Status> statuses,
+      Map<String, List<Diagnostic<? extends JavaFileObject>>> diagnostics) {
+    this.statuses = statuses;
+    this.diagnostics = diagnostics;
+  }
+
+  /** Returns true if all modules compiled successfully. */
+  public boolean succeeded() {
+    return statuses.values().stream().allMatch(s -> s == Status.SUCCEEDED);
+  }
+
+  /** Returns the names of all compiled modules. */
+  public Set<String> modules() {
+    return statuses.keySet();
+  }
+
+  /**
+   * Returns the outcome of the compilation of a module.
+   *
+   * @param module a module name
+   * @throws IllegalArgumentException if {@code module} was not compiled
+   */
+  public Status status(String module) {
+    Status status = statuses.get(module);
+    if (status == null) {
+      throw new IllegalArgumentException("unknown module: " + module);
+    }
+
+    return status;
+  }
+
+  /**
+   * Returns the diagnostics (errors, warnings and notes) reported by the compiler for a module.
+   *
+   * @param module a module name
+   * @throws IllegalArgumentException if {@code module} was not compiled
+   */
+  public List<Diagnostic<? extends JavaFileObject>> diagnostics(String module) {
+    status(module);
+    return diagnostics.getOrDefault(module, List.of());
+  }
+}
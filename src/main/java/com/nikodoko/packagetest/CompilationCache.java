@@ -0,0 +1,60 @@
+package com.nikodoko.packagetest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Describes where the classes compiled by {@link com.nikodoko.packagetest.Exported#compile} are
+ * cached.
+ *
+ * <p>Compiled classes are cached per module, keyed by a hash of the module's sources and of the
+ * classes of the modules it depends on, so that identical modules are not compiled again by other
+ * tests or other processes. A same directory can be shared by several processes.
+ *
+ * <p>Compilation caches are immutable: {@link #maxSize(long)} returns a new instance. Classes
+ * recently read or written are also kept in memory, for as long as the instance they were compiled
+ * with is reachable.
+ */
+public class CompilationCache {
+  private static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+  private final Path directory;
+  private final long maxSize;
+
+  private CompilationCache(Path directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /** Returns a cache stored in {@code directory}, which is created if needed. */
+  public static CompilationCache in(Path directory) {
+    return new CompilationCache(directory.toAbsolutePath().normalize(), DEFAULT_MAX_SIZE);
+  }
+
+  /** Returns a cache stored in a {@code packagetest-cache} directory of the temporary directory. */
+  public static CompilationCache inTemporaryDirectory() {
+    return in(Paths.get(System.getProperty("java.io.tmpdir"), "packagetest-cache"));
+  }
+
+  /**
+   * Returns a copy of this cache bounded to {@code bytes}, the least recently used entries being
+   * evicted first (defaults to 256MB).
+   *
+   * @throws IllegalArgumentException if {@code bytes} is negative
+   */
+  public CompilationCache maxSize(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("invalid cache size: " + bytes);
+    }
+
+    return new CompilationCache(directory, bytes);
+  }
+
+  public Path directory() {
+    return directory;
+  }
+
+  public long maxSize() {
+    return maxSize;
+  }
+}
@@ -2,12 +2,32 @@ package com.nikodoko.packagetest;
 
 import com.nikodoko.packagetest.internal.Exporter;
 import com.nikodoko.packagetest.internal.ExporterFactory;
+import com.nikodoko.packagetest.internal.SharedSources;
+import com.nikodoko.packagetest.internal.Sink;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 /**
  * Creates temporary projects on disk to test tools on.
@@ -44,22 +64,196 @@ import java.util.Optional;
  */
 public class Export {
   private static final String PREFIX = "packagetest";
+  // Usual locations of RAM-backed file systems
+  private static final List<String> MEMORY_DIRECTORIES = List.of("/dev/shm", "/run/shm");
+  private static final Set<String> MEMORY_FILE_STORES = Set.of("tmpfs", "ramfs");
 
   private Export() {}
 
   /** Options for the export of temporary projects. */
   public static class Options {
-    private final Path root;
+    /** How to handle modules depending on different versions of a same artifact. */
+    public enum ConflictResolution {
+      /** Use the highest version, according to Maven's version ordering. */
+      HIGHEST_VERSION,
+      /** Fail the export. */
+      FAIL;
+    }
+
+    private final Optional<Path> configuredRoot;
+    private Path root;
+    private final boolean packageTargets;
+    private final boolean testTargets;
+    private final int testShardCount;
+    private final String testSize;
+    private final ConflictResolution conflictResolution;
+    private final boolean pinnedDependencies;
+    private final boolean localRepository;
+    private final boolean parentPom;
+    private final boolean explicitSources;
+    private final Optional<Instant> fixedModificationTime;
+    private final Optional<BuildCache> buildCache;
+    private final Optional<Long> memoryStorageSize;
+    private final boolean throwawayProjects;
+    private final FileSystem fileSystem;
 
-    private Options(Path root) {
-      this.root = root;
+    private Options(Builder builder) {
+      this.configuredRoot = builder.root;
+      this.packageTargets = builder.packageTargets;
+      this.testTargets = builder.testTargets;
+      this.testShardCount = builder.testShardCount;
+      this.testSize = builder.testSize;
+      this.conflictResolution = builder.conflictResolution;
+      this.pinnedDependencies = builder.pinnedDependencies;
+      this.localRepository = builder.localRepository;
+      this.parentPom = builder.parentPom;
+      this.explicitSources = builder.explicitSources;
+      this.fixedModificationTime = builder.fixedModificationTime;
+      this.buildCache = builder.buildCache;
+      this.memoryStorageSize = builder.memoryStorageSize;
+      this.throwawayProjects = builder.throwawayProjects;
+      this.fileSystem = builder.fileSystem;
     }
 
-    /** The directory in which projects will be created. */
-    public Path root() {
+    /**
+     * The directory in which projects will be created.
+     *
+     * <p>If no directory was set, a temporary directory is created the first time this is called,
+     * in RAM-backed storage if {@link Builder#preferringMemoryStorage} was used and it has enough
+     * space.
+     */
+    public synchronized Path root() {
+      if (root == null) {
+        try {
+          root =
+              configuredRoot.isPresent()
+                  ? onFileSystem(configuredRoot.get())
+                  : Files.createTempDirectory(temporaryDirectory(), PREFIX);
+        } catch (IOException e) {
+          throw new RuntimeException("Cannot create temporary directory", e);
+        }
+      }
+
       return root;
     }
 
+    private Path onFileSystem(Path path) {
+      if (path.getFileSystem() == fileSystem) {
+        return path;
+      }
+
+      return fileSystem.getPath(path.toString());
+    }
+
+    private Path temporaryDirectory() throws IOException {
+      if (memoryStorageSize.isPresent()) {
+        Optional<Path> memory = memoryDirectory(memoryStorageSize.get());
+        if (memory.isPresent()) {
+          return memory.get();
+        }
+      }
+
+      return fileSystem.getPath(System.getProperty("java.io.tmpdir"));
+    }
+
+    // The first RAM-backed directory we can write to with at least size bytes available
+    private Optional<Path> memoryDirectory(long size) throws IOException {
+      for (String candidate : MEMORY_DIRECTORIES) {
+        Path directory = fileSystem.getPath(candidate);
+        if (!Files.isDirectory(directory) || !Files.isWritable(directory)) {
+          continue;
+        }
+
+        FileStore store = Files.getFileStore(directory);
+        if (MEMORY_FILE_STORES.contains(store.type()) && store.getUsableSpace() >= size) {
+          return Optional.of(directory);
+        }
+      }
+
+      return Optional.empty();
+    }
+
+    // Whether the root is a temporary directory created for the export
+    boolean temporaryRoot() {
+      return !configuredRoot.isPresent();
+    }
+
+    /** Whether one target is generated per Java package rather than per module. */
+    public boolean packageTargets() {
+      return packageTargets;
+    }
+
+    /** Whether test targets are generated for test files. */
+    public boolean testTargets() {
+      return testTargets;
+    }
+
+    /** The number of shards of each generated test target. */
+    public int testShardCount() {
+      return testShardCount;
+    }
+
+    /** The size of each generated test target. */
+    public String testSize() {
+      return testSize;
+    }
+
+    /** How conflicting versions of a same dependency are handled. */
+    public ConflictResolution conflictResolution() {
+      return conflictResolution;
+    }
+
+    /** Whether resolved dependencies are pinned in a lock file. */
+    public boolean pinnedDependencies() {
+      return pinnedDependencies;
+    }
+
+    /** Whether stub dependencies are served from a repository generated with the project. */
+    public boolean localRepository() {
+      return localRepository;
+    }
+
+    /** Whether module poms inherit their dependency versions from the root pom. */
+    public boolean parentPom() {
+      return parentPom;
+    }
+
+    /** Whether BUILD files list their sources instead of globbing them. */
+    public boolean explicitSources() {
+      return explicitSources;
+    }
+
+    /**
+     * The modification time given to all exported files, if output is reproducible (see {@link
+     * Builder#withReproducibleOutput}).
+     */
+    public Optional<Instant> fixedModificationTime() {
+      return fixedModificationTime;
+    }
+
+    /** The caches that builds of exported projects are configured to use, if any. */
+    public Optional<BuildCache> buildCache() {
+      return buildCache;
+    }
+
+    /**
+     * The expected size of projects, if temporary roots should preferably be created in RAM-backed
+     * storage.
+     */
+    public Optional<Long> memoryStorageSize() {
+      return memoryStorageSize;
+    }
+
+    /** Whether projects are written as throwaway files. */
+    public boolean throwawayProjects() {
+      return throwawayProjects;
+    }
+
+    /** The file system projects are created on. */
+    public FileSystem fileSystem() {
+      return fileSystem;
+    }
+
     public static Builder builder() {
       return new Builder();
     }
@@ -69,7 +263,24 @@ public class Export {
     }
 
     public static class Builder {
+      private static final Instant DEFAULT_MODIFICATION_TIME =
+          Instant.parse("1980-02-01T00:00:00Z");
+
       private Optional<Path> root = Optional.empty();
+      private boolean packageTargets = false;
+      private boolean testTargets = false;
+      private int testShardCount = 1;
+      private String testSize = "small";
+      private ConflictResolution conflictResolution = ConflictResolution.HIGHEST_VERSION;
+      private boolean pinnedDependencies = false;
+      private boolean localRepository = false;
+      private boolean parentPom = false;
+      private boolean explicitSources = false;
+      private Optional<Instant> fixedModificationTime = Optional.empty();
+      private Optional<BuildCache> buildCache = Optional.empty();
+      private Optional<Long> memoryStorageSize = Optional.empty();
+      private boolean throwawayProjects = false;
+      private FileSystem fileSystem = FileSystems.getDefault();
 
       /**
        * Sets the directory to use for creating projects.
@@ -81,12 +292,217 @@ public class Export {
         return this;
       }
 
-      public Options build() {
-        try {
-          return new Options(root.orElse(Files.createTempDirectory(PREFIX)));
-        } catch (IOException e) {
-          throw new RuntimeException("Cannot create temporary directory", e);
+      /**
+       * Generates one target per Java package directory instead of one per module.
+       *
+       * <p>Only used by {@link BuildSystem#BAZEL}, which then writes a {@code BUILD.bazel} file in
+       * each package directory. Dependencies between targets are taken from the module graph, and
+       * from imports between packages of a same module.
+       */
+      public Builder withPackageTargets() {
+        this.packageTargets = true;
+        return this;
+      }
+
+      /**
+       * Generates one test target per test file.
+       *
+       * <p>Only used by {@link BuildSystem#BAZEL}, which then writes a {@code java_test} per test
+       * class in the module {@code BUILD.bazel}, as well as a {@code test_suite} named {@code
+       * tests} grouping them. Test targets depend on the module sources and dependencies, so any
+       * test framework used must be declared as a {@link Module.Dependency}.
+       */
+      public Builder withTestTargets() {
+        this.testTargets = true;
+        return this;
+      }
+
+      /**
+       * Sets the number of shards of each test target (1 by default).
+       *
+       * @throws IllegalArgumentException if {@code shardCount} is not positive
+       */
+      public Builder testShardCount(int shardCount) {
+        if (shardCount < 1) {
+          throw new IllegalArgumentException("invalid shard count: " + shardCount);
         }
+
+        this.testShardCount = shardCount;
+        return this;
+      }
+
+      /**
+       * Sets the size of each test target ({@code "small"} by default).
+       *
+       * @throws IllegalArgumentException if {@code size} is not one of {@code "small"}, {@code
+       *     "medium"}, {@code "large"} or {@code "enormous"}
+       */
+      public Builder testSize(String size) {
+        if (!List.of("small", "medium", "large", "enormous").contains(size)) {
+          throw new IllegalArgumentException("invalid test size: " + size);
+        }
+
+        this.testSize = size;
+        return this;
+      }
+
+      /**
+       * Sets how to handle modules depending on different versions of a same artifact.
+       *
+       * <p>By default, the highest version is used. Only applies where a single version is
+       * emitted: Bazel exports, and Maven exports with {@link #withParentPom}, as each Maven
+       * module otherwise declares its own versions.
+       */
+      public Builder resolvingConflicts(ConflictResolution conflictResolution) {
+        this.conflictResolution = conflictResolution;
+        return this;
+      }
+
+      /**
+       * Pins the resolved dependencies of the project in a lock file.
+       *
+       * <p>Only used by {@link BuildSystem#BAZEL}, which then writes a {@code maven_install.json}
+       * lock file at the root and uses it in {@code MODULE.bazel}, so that dependencies are not
+       * resolved again on every build.
+       */
+      public Builder withPinnedDependencies() {
+        this.pinnedDependencies = true;
+        return this;
+      }
+
+      /**
+       * Generates a Maven repository containing stub artifacts for all versioned dependencies.
+       *
+       * <p>The repository is written in a {@code local-repository} directory at the root, and
+       * every artifact comes with an empty jar, an empty sources jar, a minimal pom and their
+       * checksums. It is used in addition to the given repositories, so that the exported project
+       * can resolve its dependencies without network access, which is useful to build fixtures
+       * that only need dependencies to exist. Maven exports without {@link #withParentPom} get
+       * every version declared by a module. When dependencies are pinned, the lock file contains
+       * the checksums of the stub jars.
+       *
+       * <p>The repository is referenced by a {@code file://} URL, so it cannot be used when
+       * exporting to an archive.
+       */
+      public Builder withLocalRepository() {
+        this.localRepository = true;
+        return this;
+      }
+
+      /**
+       * Makes the root pom the parent of all module poms, and the only one declaring versions.
+       *
+       * <p>Only used by {@link BuildSystem#MAVEN}. The root pom then holds the {@code
+       * dependencyManagement} section, version properties and repositories of the whole project,
+       * with a single version per artifact chosen according to {@link #resolvingConflicts}, and
+       * module poms only list their dependencies.
+       */
+      public Builder withParentPom() {
+        this.parentPom = true;
+        return this;
+      }
+
+      /**
+       * Makes BUILD files list the sources of their library targets instead of using a {@code
+       * glob}.
+       *
+       * <p>Only used by {@link BuildSystem#BAZEL}, and only changes module targets, package targets
+       * and test targets always listing their sources. Sources are sorted, so that the same module
+       * always gives the same BUILD file, and Bazel does not have to expand globs when loading
+       * packages.
+       */
+      public Builder withExplicitSources() {
+        this.explicitSources = true;
+        return this;
+      }
+
+      /**
+       * Makes exporting the same modules twice give identical files, down to their modification
+       * times.
+       *
+       * <p>Same as {@link #withReproducibleOutput(Instant)} with the modification time used for
+       * archive entries, 1980-02-01T00:00:00Z.
+       */
+      public Builder withReproducibleOutput() {
+        return withReproducibleOutput(DEFAULT_MODIFICATION_TIME);
+      }
+
+      /**
+       * Makes exporting the same modules twice give identical files, down to their modification
+       * times.
+       *
+       * <p>Dependencies, modules and targets are sorted in all generated files instead of being
+       * listed in declaration order, and all files and directories are given {@code
+       * modificationTime}, so that tools and build caches relying on contents or timestamps see an
+       * unchanged project. Archives are always reproducible, and ignore {@code modificationTime}.
+       */
+      public Builder withReproducibleOutput(Instant modificationTime) {
+        this.fixedModificationTime = Optional.of(modificationTime);
+        return this;
+      }
+
+      /**
+       * Configures builds of exported projects to use shared caches, so that repeated builds of a
+       * same project are not cold.
+       *
+       * <p>{@link BuildSystem#BAZEL} writes a {@code .bazelrc} setting the disk cache, repository
+       * cache and number of jobs. {@link BuildSystem#MAVEN} writes a {@code .mvn} directory:
+       * {@code maven.config} sets the number of threads, the local repository, the build cache
+       * location and offline mode, {@code jvm.config} tunes the JVM for short builds, and {@code
+       * extensions.xml} enables the Maven build cache extension.
+       */
+      public Builder withBuildCache(BuildCache buildCache) {
+        this.buildCache = Optional.of(buildCache);
+        return this;
+      }
+
+      /**
+       * Creates temporary roots in RAM-backed storage, such as {@code /dev/shm}, when it has at
+       * least {@code expectedSize} bytes available.
+       *
+       * <p>Exporting and cleaning up projects then runs at memory speed rather than at the speed of
+       * the disk holding the temporary directory, which is used when no such storage is available.
+       * Sources, generated files and anything written by tools run on the project count towards
+       * {@code expectedSize}. This has no effect when a root is set with {@link #usingRoot}.
+       *
+       * @throws IllegalArgumentException if {@code expectedSize} is negative
+       */
+      public Builder preferringMemoryStorage(long expectedSize) {
+        if (expectedSize < 0) {
+          throw new IllegalArgumentException("invalid expected size: " + expectedSize);
+        }
+
+        this.memoryStorageSize = Optional.of(expectedSize);
+        return this;
+      }
+
+      /**
+       * Writes projects as throwaway files, skipping what only matters for projects kept around.
+       *
+       * <p>The exporter assumes that nothing else modifies the root during the export, so that
+       * directories are created once instead of being checked for every file, and writes no
+       * manifest, so that the project cannot be reattached to with {@link Exported#attach}.
+       * Archives are not affected.
+       */
+      public Builder withThrowawayProjects() {
+        this.throwawayProjects = true;
+        return this;
+      }
+
+      /**
+       * Creates projects on {@code fileSystem} rather than on the default file system.
+       *
+       * <p>The root, whether set or temporary, is then a path of {@code fileSystem}. This is
+       * mostly useful with a {@link com.nikodoko.packagetest.fs.ShapedFileSystem}, to run tools on
+       * projects stored on slow or unreliable storage.
+       */
+      public Builder usingFileSystem(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        return this;
+      }
+
+      public Options build() {
+        return new Options(this);
       }
     }
   }
@@ -128,7 +544,8 @@ public class Export {
    * Writes a test directory given a build system and system agnostic module descriptions.
    *
    * <p>Returns an {@link Exported} object containing the results of the export. {@link
-   * Exported#cleanup} must be called on the result to remove all created files and folders.
+   * Exported#cleanup} must be called on the result to remove all created files and folders. If the
+   * export fails, the files already written are removed.
    *
    * @param buildSystem the build system to use
    * @param modules an array of modules to export
@@ -141,6 +558,328 @@ public class Export {
       BuildSystem buildSystem, List<Repository> repositories, List<Module> modules, Options options)
       throws IOException {
     Exporter exporter = ExporterFactory.create(buildSystem);
-    return exporter.export(repositories, modules, options);
+    return AsyncExport.runNow(
+        sink -> exporter.export(repositories, modules, options, sink),
+        Sink.directory(options.root(), options),
+        options.temporaryRoot());
+  }
+
+  /**
+   * Writes a test directory given a build system and a stream of system agnostic module
+   * descriptions.
+   *
+   * <p>Each module is written as soon as it is taken from {@code modules}, and neither modules nor
+   * file contents are kept once written, so that projects whose sources are too large to be
+   * described in memory can be exported from a lazy stream. The path of every written file (and
+   * its digest when a manifest is written) is still kept until the end, as the returned {@link
+   * Exported} lists them. {@code modules} is not closed.
+   *
+   * <p>Returns an {@link Exported} object containing the results of the export. {@link
+   * Exported#cleanup} must be called on the result to remove all created files and folders. If the
+   * export fails, including when {@code modules} throws, the files already written are removed.
+   *
+   * @param buildSystem the build system to use
+   * @param repositories a list of repositories containing external dependencies for the modules
+   * @param modules a stream of modules to export
+   * @param options options to use for creating projects
+   * @return information about the successful export
+   * @throws IOException if an I/O error occurs
+   */
+  public static Exported of(
+      BuildSystem buildSystem,
+      List<Repository> repositories,
+      Stream<Module> modules,
+      Options options)
+      throws IOException {
+    Exporter exporter = ExporterFactory.create(buildSystem);
+    return AsyncExport.runNow(
+        sink -> {
+          Exporter.Session session = exporter.begin(repositories, options, sink);
+          Iterator<Module> it = modules.iterator();
+          while (it.hasNext()) {
+            session.add(it.next());
+          }
+
+          return session.finish();
+        },
+        Sink.directory(options.root(), options),
+        options.temporaryRoot());
+  }
+
+  /**
+   * Writes a test directory given a build system and system agnostic module descriptions
+   * published by {@code modules}, in the background.
+   *
+   * <p>Modules are requested one at a time, the next one only once the previous one is written,
+   * and are not kept once written; as with {@link #of(BuildSystem, List, Stream, Options)}, the
+   * paths of written files are kept until the end. The export runs in the threads the publisher
+   * signals its subscribers in, and the returned future behaves as the one returned by {@link
+   * #ofAsync}. If the publisher fails, so does the export; if the export fails or is cancelled, so
+   * is the subscription.
+   *
+   * @param buildSystem the build system to use
+   * @param repositories a list of repositories containing external dependencies for the modules
+   * @param modules a publisher of the modules to export
+   * @param options options to use for creating projects
+   * @return the export in progress
+   */
+  public static AsyncExport ofPublisher(
+      BuildSystem buildSystem,
+      List<Repository> repositories,
+      Flow.Publisher<Module> modules,
+      Options options) {
+    Exporter exporter = ExporterFactory.create(buildSystem);
+    AsyncExport export = new AsyncExport();
+    modules.subscribe(
+        export.subscriber(
+            sink -> exporter.begin(repositories, options, sink),
+            Sink.directory(options.root(), options),
+            options.temporaryRoot()));
+    return export;
+  }
+
+  /**
+   * Writes a test directory given a build system and system agnostic module descriptions, in the
+   * background.
+   *
+   * <p>See {@link #ofAsync(BuildSystem, List, List, Options, Executor)}, the export running in
+   * {@link ForkJoinPool#commonPool}.
+   *
+   * @param buildSystem the build system to use
+   * @param repositories a list of repositories containing external dependencies for the modules
+   * @param modules a list of modules to export
+   * @param options options to use for creating projects
+   * @return the export in progress
+   */
+  public static AsyncExport ofAsync(
+      BuildSystem buildSystem,
+      List<Repository> repositories,
+      List<Module> modules,
+      Options options) {
+    return ofAsync(buildSystem, repositories, modules, options, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Writes a test directory given a build system and system agnostic module descriptions, in the
+   * background.
+   *
+   * <p>The returned future completes with the same {@link Exported} as {@link #of} once all files
+   * are written, but each file and module can also be waited for on its own. Cancelling the future
+   * stops the export before the next file and removes everything already written.
+   *
+   * @param buildSystem the build system to use
+   * @param repositories a list of repositories containing external dependencies for the modules
+   * @param modules a list of modules to export
+   * @param options options to use for creating projects
+   * @param executor the executor to run the export with
+   * @return the export in progress
+   */
+  public static AsyncExport ofAsync(
+      BuildSystem buildSystem,
+      List<Repository> repositories,
+      List<Module> modules,
+      Options options,
+      Executor executor) {
+    Exporter exporter = ExporterFactory.create(buildSystem);
+    AsyncExport export = new AsyncExport();
+    executor.execute(
+        () ->
+            export.run(
+                sink -> exporter.export(repositories, modules, options, sink),
+                Sink.directory(options.root(), options),
+                options.temporaryRoot()));
+    return export;
+  }
+
+  /**
+   * Writes one test directory per build system given system agnostic module descriptions.
+   *
+   * <p>Each build system gets its own directory under the root, named after it (for instance
+   * {@code maven} or {@code bazel}). Source files are only written once, the other directories
+   * containing hard links to them, while build files are generated for each build system.
+   *
+   * <p>{@link Exported#cleanup} must be called on each result to remove all created files and
+   * folders, the temporary directory containing them being removed with the last one.
+   *
+   * @param buildSystems the build systems to use
+   * @param repositories a list of repositories containing external dependencies for the modules
+   * @param modules a list of modules to export
+   * @return information about the successful export, for each build system
+   * @throws IOException if an I/O error occurs
+   */
+  public static Map<BuildSystem, Exported> ofAll(
+      EnumSet<BuildSystem> buildSystems, List<Repository> repositories, List<Module> modules)
+      throws IOException {
+    return ofAll(buildSystems, repositories, modules, Options.defaults());
+  }
+
+  /**
+   * Writes one test directory per build system given system agnostic module descriptions.
+   *
+   * <p>Each build system gets its own directory under the root, named after it (for instance
+   * {@code maven} or {@code bazel}). Source files are only written once, the other directories
+   * containing hard links to them, while build files are generated for each build system.
+   *
+   * <p>{@link Exported#cleanup} must be called on each result to remove all created files and
+   * folders, the temporary directory containing them, if any, being removed with the last one. If
+   * the export fails for any build system, the files already written for all of them are removed.
+   *
+   * @param buildSystems the build systems to use
+   * @param repositories a list of repositories containing external dependencies for the modules
+   * @param modules a list of modules to export
+   * @param options options to use for creating projects
+   * @return information about the successful export, for each build system
+   * @throws IOException if an I/O error occurs
+   * @throws IllegalArgumentException if {@code buildSystems} is empty
+   */
+  public static Map<BuildSystem, Exported> ofAll(
+      EnumSet<BuildSystem> buildSystems,
+      List<Repository> repositories,
+      List<Module> modules,
+      Options options)
+      throws IOException {
+    // Before the temporary root is created
+    if (buildSystems.isEmpty()) {
+      throw new IllegalArgumentException("no build system to export to");
+    }
+
+    Path parent = options.root();
+    SharedSources sources = new SharedSources();
+    Map<BuildSystem, Exported> exported = new EnumMap<>(BuildSystem.class);
+    try {
+      for (BuildSystem buildSystem : buildSystems) {
+        Path root = parent.resolve(buildSystem.name().toLowerCase(Locale.ROOT));
+        Exporter exporter = ExporterFactory.create(buildSystem);
+        try (Sink sink = sources.directory(root, options)) {
+          Exported e =
+              AsyncExport.runNow(
+                  s -> exporter.export(repositories, modules, options, s),
+                  sink,
+                  options.temporaryRoot());
+          if (options.temporaryRoot()) {
+            e.withTemporaryParent(parent);
+          }
+
+          exported.put(buildSystem, e);
+        }
+      }
+    } catch (IOException | RuntimeException failure) {
+      for (Exported e : exported.values()) {
+        try {
+          e.cleanup();
+        } catch (IOException suppressed) {
+          failure.addSuppressed(suppressed);
+        }
+      }
+
+      if (options.temporaryRoot()) {
+        try {
+          Files.deleteIfExists(parent);
+        } catch (IOException suppressed) {
+          // Not empty, or already removed with the last result
+          if (!(suppressed instanceof DirectoryNotEmptyException)) {
+            failure.addSuppressed(suppressed);
+          }
+        }
+      }
+
+      throw failure;
+    }
+
+    return exported;
+  }
+
+  /**
+   * Writes a project given a build system and system agnostic module descriptions as an archive.
+   *
+   * <p>Every file of the project is streamed directly to an entry of the archive, in a
+   * deterministic order, and nothing is written to disk. The paths of the returned {@link Exported}
+   * are the names of the archive entries, and {@link Exported#cleanup} does nothing. {@code out} is
+   * not closed.
+   *
+   * @param buildSystem the build system to use
+   * @param repositories a list of repositories containing external dependencies for the modules
+   * @param modules a list of modules to export
+   * @param format the format of the archive
+   * @param out the stream to write the archive to
+   * @return information about the successful export
+   * @throws IOException if an I/O error occurs
+   */
+  public static Exported toArchive(
+      BuildSystem buildSystem,
+      List<Repository> repositories,
+      List<Module> modules,
+      ArchiveFormat format,
+      OutputStream out)
+      throws IOException {
+    return toArchive(buildSystem, repositories, modules, Options.defaults(), format, out);
+  }
+
+  /**
+   * Writes a project given a build system and system agnostic module descriptions as an archive.
+   *
+   * <p>Every file of the project is streamed directly to an entry of the archive, in a
+   * deterministic order, and nothing is written to disk. The paths of the returned {@link Exported}
+   * are the names of the archive entries, and {@link Exported#cleanup} does nothing. {@code out} is
+   * not closed.
+   *
+   * @param buildSystem the build system to use
+   * @param repositories a list of repositories containing external dependencies for the modules
+   * @param modules a list of modules to export
+   * @param format the format of the archive
+   * @param out the channel to write the archive to
+   * @return information about the successful export
+   * @throws IOException if an I/O error occurs
+   */
+  public static Exported toArchive(
+      BuildSystem buildSystem,
+      List<Repository> repositories,
+      List<Module> modules,
+      ArchiveFormat format,
+      WritableByteChannel out)
+      throws IOException {
+    return toArchive(
+        buildSystem,
+        repositories,
+        modules,
+        Options.defaults(),
+        format,
+        Channels.newOutputStream(out));
+  }
+
+  /**
+   * Writes a project given a build system and system agnostic module descriptions as an archive.
+   *
+   * <p>Every file of the project is streamed directly to an entry of the archive, in a
+   * deterministic order, and nothing is written to disk. The paths of the returned {@link Exported}
+   * are the names of the archive entries, and {@link Exported#cleanup} does nothing. {@code out} is
+   * not closed.
+   *
+   * @param buildSystem the build system to use
+   * @param repositories a list of repositories containing external dependencies for the modules
+   * @param modules a list of modules to export
+   * @param options options to use for creating projects, the root being ignored
+   * @param format the format of the archive
+   * @param out the stream to write the archive to
+   * @return information about the successful export
+   * @throws IOException if an I/O error occurs
+   * @throws IllegalArgumentException if {@code options} require a local repository
+   */
+  public static Exported toArchive(
+      BuildSystem buildSystem,
+      List<Repository> repositories,
+      List<Module> modules,
+      Options options,
+      ArchiveFormat format,
+      OutputStream out)
+      throws IOException {
+    if (options.localRepository()) {
+      throw new IllegalArgumentException("local repositories cannot be exported to an archive");
+    }
+
+    Exporter exporter = ExporterFactory.create(buildSystem);
+    try (Sink sink = Sink.archive(format, out)) {
+      return exporter.export(repositories, modules, options, sink);
+    }
   }
 }
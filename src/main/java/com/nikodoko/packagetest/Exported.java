@@ -1,26 +1,87 @@
 package com.nikodoko.packagetest;
 
-import java.io.File;
+import com.nikodoko.packagetest.internal.Manifest;
+import com.nikodoko.packagetest.internal.ModuleCompiler;
 import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /** Contains the result of {@link com.nikodoko.packagetest.Export#of}. */
 public class Exported {
-  // Denotes that cleanup has been already done
+  // Denotes that cleanup has been already done, or that nothing was written to disk
   private static final Path EMPTY = Paths.get("");
 
   private Path root;
   private Map<String, Map<String, Path>> written;
+  private Map<String, List<String>> dependencies;
+  // A temporary directory containing root, removed with the last project it contains
+  private Optional<Path> temporaryParent = Optional.empty();
 
   public Exported(Path root, Map<String, Map<String, Path>> written) {
+    this(root, written, Map.of());
+  }
+
+  public Exported(
+      Path root,
+      Map<String, Map<String, Path>> written,
+      Map<String, List<String>> dependencies) {
     this.root = root;
     this.written = written;
+    this.dependencies = dependencies;
+  }
+
+  /**
+   * Attaches to a project exported to {@code root}, possibly by another process, without exporting
+   * it again.
+   *
+   * <p>Exports to a directory write a manifest at their root, listing all files with their size,
+   * modification time and hash. Attaching reads it and checks every file against the disk, only
+   * reading the files whose size or modification time changed, so that fixtures exported once can
+   * be shared by several JVMs.
+   *
+   * @param root the root of an exported project
+   * @return the exported project, or an empty optional if {@code root} contains no manifest or any
+   *     of its files is missing or changed
+   * @throws IOException if an I/O error occurs
+   */
+  public static Optional<Exported> attach(Path root) throws IOException {
+    Optional<Manifest> manifest = Manifest.read(root);
+    if (manifest.isEmpty()) {
+      return Optional.empty();
+    }
+
+    return manifest.get().attach(root);
+  }
+
+  /**
+   * Attaches to a project exported to {@code root}, provided it was exported with {@code
+   * buildSystem} and {@code options}.
+   *
+   * <p>See {@link #attach(Path)}. The root set in {@code options} is ignored.
+   *
+   * @param root the root of an exported project
+   * @param buildSystem the build system the project must have been exported with
+   * @param options the options the project must have been exported with
+   * @return the exported project, or an empty optional if {@code root} contains no manifest, was
+   *     exported differently, or any of its files is missing or changed
+   * @throws IOException if an I/O error occurs
+   */
+  public static Optional<Exported> attach(
+      Path root, BuildSystem buildSystem, Export.Options options) throws IOException {
+    Optional<Manifest> manifest = Manifest.read(root);
+    if (manifest.isEmpty() || !manifest.get().matches(buildSystem, options)) {
+      return Optional.empty();
+    }
+
+    return manifest.get().attach(root);
   }
 
   /** Returns the directory at the root of this {@code Exported} data. */
@@ -43,6 +104,56 @@ public class Exported {
     return Optional.ofNullable(moduleFiles.get(fragment));
   }
 
+  /**
+   * Compiles the main sources of every exported module in process, without invoking the build
+   * system.
+   *
+   * <p>Modules are compiled in dependency order, independent modules in parallel, and compiled
+   * classes are only kept in memory. Only the JDK is on the classpath, see {@link #compile(List)}
+   * to compile against external dependencies.
+   *
+   * @return the outcome and diagnostics of the compilation of each module
+   * @throws IOException if an I/O error occurs
+   * @throws IllegalStateException if no Java compiler is available
+   */
+  public Compilation compile() throws IOException {
+    return compile(List.of());
+  }
+
+  /**
+   * Compiles the main sources of every exported module in process, against {@code classpath}.
+   *
+   * @param classpath jars or directories containing the external dependencies of the modules
+   * @return the outcome and diagnostics of the compilation of each module
+   * @throws IOException if an I/O error occurs
+   * @throws IllegalStateException if no Java compiler is available
+   */
+  public Compilation compile(List<Path> classpath) throws IOException {
+    return ModuleCompiler.compile(written, dependencies, classpath, Optional.empty());
+  }
+
+  /**
+   * Compiles the main sources of every exported module in process, against {@code classpath},
+   * reusing the classes cached for modules that did not change.
+   *
+   * <p>Modules found in the cache report no diagnostics.
+   *
+   * @param classpath jars or directories containing the external dependencies of the modules
+   * @param cache where to cache compiled classes
+   * @return the outcome and diagnostics of the compilation of each module
+   * @throws IOException if an I/O error occurs
+   * @throws IllegalStateException if no Java compiler is available
+   */
+  public Compilation compile(List<Path> classpath, CompilationCache cache) throws IOException {
+    return ModuleCompiler.compile(written, dependencies, classpath, Optional.of(cache));
+  }
+
+  // Makes cleanup remove parent as well, once it is empty
+  Exported withTemporaryParent(Path parent) {
+    this.temporaryParent = Optional.of(parent);
+    return this;
+  }
+
   /**
    * Removes the directory at the root of this {@code Exported} and all its contents.
    *
@@ -51,13 +162,28 @@ public class Exported {
    * @throws IOException if an I/O error occurs
    */
   public void cleanup() throws IOException {
-    if (root == EMPTY) {
+    if (root.equals(EMPTY)) {
       return;
     }
 
-    Files.walk(root).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    // Paths of other file systems cannot be turned into files
+    try (Stream<Path> files = Files.walk(root)) {
+      for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(p);
+      }
+    }
+
+    if (temporaryParent.isPresent()) {
+      try {
+        Files.deleteIfExists(temporaryParent.get());
+      } catch (DirectoryNotEmptyException e) {
+        // Other projects still live there
+      }
+    }
 
     root = EMPTY;
+    temporaryParent = Optional.empty();
     written = new HashMap<>();
+    dependencies = Map.of();
   }
 }
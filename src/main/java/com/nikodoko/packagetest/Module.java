@@ -1,8 +1,8 @@
 package com.nikodoko.packagetest;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import com.nikodoko.packagetest.internal.PersistentSortedMap;
+import java.util.Objects;
+import java.util.Optional;
 
 /**
  * A system agnostic description of a java module.
@@ -25,38 +25,93 @@ import java.util.List;
  * This can be described as a {@code Module} of name {@code "com.package.name"} and containing two
  * {@link File} designated by their path fragment ({@code "A.java"} for one and {@code
  * "util/B.java"}) for the other.
+ *
+ * <p>Modules are immutable: methods modifying a module return a new one, which shares most of its
+ * structure with the original. Deriving a variant of a module with many files is therefore cheap,
+ * and modules can safely be shared between tests running in parallel.
  */
 public class Module {
   private final String name;
-  private File[] files = new File[] {};
-  private Dependency[] dependencies = new Dependency[] {};
-  private List<Module> moduleDependencies = new ArrayList<>();
-
-  private Module(String name) {
+  // Files by fragment
+  private final PersistentSortedMap<String, File> files;
+  // Dependencies by position, to keep them in declaration order
+  private final PersistentSortedMap<Integer, Dependency> dependencies;
+  private final PersistentSortedMap<Integer, Module> moduleDependencies;
+
+  private Module(
+      String name,
+      PersistentSortedMap<String, File> files,
+      PersistentSortedMap<Integer, Dependency> dependencies,
+      PersistentSortedMap<Integer, Module> moduleDependencies) {
     this.name = name;
+    this.files = files;
+    this.dependencies = dependencies;
+    this.moduleDependencies = moduleDependencies;
   }
 
   /** Returns a {@code Module} named {@code name} and containing no files. */
   public static Module named(String name) {
-    return new Module(name);
+    return new Module(
+        name,
+        PersistentSortedMap.empty(),
+        PersistentSortedMap.empty(),
+        PersistentSortedMap.empty());
   }
 
-  /** Replaces files contained in this {@code Module} by {@code files}. */
+  /** Returns a copy of this {@code Module} containing {@code files} instead of its own. */
   public Module containing(File... files) {
-    this.files = files;
-    return this;
+    PersistentSortedMap<String, File> replaced = PersistentSortedMap.empty();
+    for (File f : files) {
+      replaced = replaced.put(f.fragment(), f);
+    }
+
+    return new Module(name, replaced, dependencies, moduleDependencies);
+  }
+
+  /**
+   * Returns a copy of this {@code Module} also containing {@code file}, which replaces any file
+   * with the same fragment.
+   */
+  public Module withFile(File file) {
+    return new Module(name, files.put(file.fragment(), file), dependencies, moduleDependencies);
+  }
+
+  /** Returns a copy of this {@code Module} without the file designated by {@code fragment}. */
+  public Module withoutFile(String fragment) {
+    PersistentSortedMap<String, File> removed = files.remove(fragment);
+    return removed == files ? this : new Module(name, removed, dependencies, moduleDependencies);
   }
 
-  /** Replaces dependencies of this {@code Module} by {@code dependencies}. */
+  /** Returns a copy of this {@code Module} depending on {@code dependencies} instead. */
   public Module dependingOn(Dependency... dependencies) {
-    this.dependencies = dependencies;
-    return this;
+    PersistentSortedMap<Integer, Dependency> replaced = PersistentSortedMap.empty();
+    for (Dependency d : dependencies) {
+      replaced = replaced.put(replaced.size(), d);
+    }
+
+    return new Module(name, files, replaced, moduleDependencies);
   }
 
-  /** Adds {@code dependencies} to the dependencies of this {@code Module}. */
+  /** Returns a copy of this {@code Module} also depending on {@code dependency}. */
+  public Module withDependency(Dependency dependency) {
+    return new Module(
+        name, files, dependencies.put(dependencies.size(), dependency), moduleDependencies);
+  }
+
+  /** Returns a copy of this {@code Module} also depending on {@code dependencies}. */
   public Module dependingOn(Module... dependencies) {
-    this.moduleDependencies.addAll(Arrays.asList(dependencies));
-    return this;
+    Module m = this;
+    for (Module d : dependencies) {
+      m = m.withDependency(d);
+    }
+
+    return m;
+  }
+
+  /** Returns a copy of this {@code Module} also depending on {@code module}. */
+  public Module withDependency(Module module) {
+    return new Module(
+        name, files, dependencies, moduleDependencies.put(moduleDependencies.size(), module));
   }
 
   /**
@@ -69,6 +124,8 @@ public class Module {
 
   /**
    * Return a dependency with the given {@code groupdId}, {@code artifactId} and {@code version}.
+   *
+   * <p>Dependencies are values, compared by their coordinates.
    */
   public static Dependency dependency(String groupId, String artifactId, String version) {
     return new Dependency(groupId, artifactId, version);
@@ -76,7 +133,7 @@ public class Module {
 
   /** Return a dependency with the given {@code groupdId}, {@code artifactId} and no version. */
   public static Dependency dependency(String groupId, String artifactId) {
-    return new Dependency(groupId, artifactId, "");
+    return dependency(groupId, artifactId, "");
   }
 
   /** The name of this {@code Module}. */
@@ -84,19 +141,24 @@ public class Module {
     return name;
   }
 
-  /** Returns an iterable view of all the files contained in this module. */
+  /** Returns an iterable view of all the files contained in this module, sorted by fragment. */
   public Iterable<File> files() {
-    return Arrays.asList(files);
+    return files.values();
+  }
+
+  /** Returns the file of this module designated by {@code fragment}, if any. */
+  public Optional<File> file(String fragment) {
+    return files.get(fragment);
   }
 
   /** Returns an iterable view of all the dependencies of this module. */
   public Iterable<Dependency> dependencies() {
-    return Arrays.asList(dependencies);
+    return dependencies.values();
   }
 
   /** Returns an iterable view of all the module dependencies of this module. */
   public Iterable<Module> moduleDependencies() {
-    return moduleDependencies;
+    return moduleDependencies.values();
   }
 
   /** A system agnostic description of a dependency. */
@@ -121,9 +183,35 @@ public class Module {
     }
 
     private Dependency(String groupId, String artifactId, String version) {
-      this.groupId = groupId;
-      this.artifactId = artifactId;
-      this.version = version;
+      this.groupId = Objects.requireNonNull(groupId);
+      this.artifactId = Objects.requireNonNull(artifactId);
+      this.version = Objects.requireNonNull(version);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (!(o instanceof Dependency)) {
+        return false;
+      }
+
+      Dependency that = (Dependency) o;
+      return groupId.equals(that.groupId)
+          && artifactId.equals(that.artifactId)
+          && version.equals(that.version);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(groupId, artifactId, version);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s:%s:%s", groupId, artifactId, version);
     }
   }
 
@@ -0,0 +1,429 @@
+package com.nikodoko.packagetest.bazel;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlScanner;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlSyntaxError;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Changes the dependencies of targets and the artifacts of a Bazel workspace in place, without
+ * generating its files again.
+ *
+ * <p>Changes are recorded first, then {@link #apply} reads each file concerned once, finds the
+ * {@code deps} list of the targets (or the {@code artifacts} list of {@code maven.install}) and
+ * only rewrites the bytes of those lists, the rest of the file being left as is. Added labels are
+ * appended to the lists, following the layout of their last element, and labels already present
+ * are not added again. Adding another version of a listed artifact replaces it in place.
+ *
+ * <p><b>Example</b>:
+ *
+ * <pre>
+ * Patch.of(project)
+ *     .addDeps("//myfirstmodule", "@maven//:com_google_guava_guava")
+ *     .addArtifacts("com.google.guava:guava:33.0.0-jre")
+ *     .apply();
+ * </pre>
+ */
+public class Patch {
+  private static final String MODULE_FILE = "MODULE.bazel";
+  private static final String MAVEN_INSTALL = "maven.install";
+  private static final List<String> BUILD_FILES = List.of("BUILD.bazel", "BUILD");
+
+  private final Path root;
+  // Changes to the deps of each target, by package and target name
+  private final Map<String, Map<String, Changes>> deps = new LinkedHashMap<>();
+  private final Changes artifacts = new Changes();
+
+  private Patch(Path root) {
+    this.root = root;
+  }
+
+  /** Returns an empty patch of the workspace of {@code exported}. */
+  public static Patch of(Exported exported) {
+    return at(exported.root());
+  }
+
+  /** Returns an empty patch of the workspace at {@code root}. */
+  public static Patch at(Path root) {
+    return new Patch(root);
+  }
+
+  /** Makes {@code target} depend on {@code labels}. */
+  public Patch addDeps(String target, String... labels) {
+    changes(target).add(labels);
+    return this;
+  }
+
+  /** Makes {@code target} no longer depend on {@code labels}. */
+  public Patch removeDeps(String target, String... labels) {
+    changes(target).remove(labels);
+    return this;
+  }
+
+  /**
+   * Adds {@code coordinates}, such as {@code group:artifact:version}, to the artifacts, replacing
+   * other versions of the same artifacts.
+   */
+  public Patch addArtifacts(String... coordinates) {
+    artifacts.add(coordinates);
+    return this;
+  }
+
+  /** Removes {@code coordinates} from the artifacts of the workspace. */
+  public Patch removeArtifacts(String... coordinates) {
+    artifacts.remove(coordinates);
+    return this;
+  }
+
+  private Changes changes(String target) {
+    String label = TargetGraph.canonical("", target);
+    if (!label.startsWith("//")) {
+      throw new IllegalArgumentException("not a target of the workspace: " + target);
+    }
+
+    int colon = label.indexOf(':');
+    return deps.computeIfAbsent(label.substring(2, colon), k -> new LinkedHashMap<>())
+        .computeIfAbsent(label.substring(colon + 1), k -> new Changes());
+  }
+
+  /**
+   * Writes all changes to the files of the workspace.
+   *
+   * @return the number of files that changed
+   * @throws IllegalArgumentException if a target, or {@code maven.install}, cannot be found
+   * @throws IOException if an I/O error occurs, or a file cannot be parsed
+   */
+  public int apply() throws IOException {
+    int changed = 0;
+    for (Map.Entry<String, Map<String, Changes>> pkg : deps.entrySet()) {
+      String name = pkg.getKey();
+      UnaryOperator<String> label = l -> TargetGraph.canonical(name, l);
+      if (patch(buildFile(name), pkg.getValue(), false, "deps", label, false)) {
+        changed++;
+      }
+    }
+
+    // Artifacts are identified by group and artifact, another version replacing the listed one
+    UnaryOperator<String> artifact = a -> a.replaceFirst("^([^:]*:[^:]*).*$", "$1");
+    Path moduleFile = root.resolve(MODULE_FILE);
+    if (!artifacts.isEmpty()
+        && patch(moduleFile, Map.of(MAVEN_INSTALL, artifacts), true, "artifacts", artifact, true)) {
+      changed++;
+    }
+
+    deps.clear();
+    artifacts.clear();
+    return changed;
+  }
+
+  private Path buildFile(String pkg) {
+    Path directory = pkg.isEmpty() ? root : root.resolve(pkg);
+    for (String name : BUILD_FILES) {
+      if (Files.exists(directory.resolve(name))) {
+        return directory.resolve(name);
+      }
+    }
+
+    throw new IllegalArgumentException("no BUILD file in package //" + pkg);
+  }
+
+  // Calls are designated by their name attribute, or by their function
+  private static boolean patch(
+      Path file,
+      Map<String, Changes> calls,
+      boolean byFunction,
+      String attribute,
+      UnaryOperator<String> key,
+      boolean replacing)
+      throws IOException {
+    byte[] code = Files.readAllBytes(file);
+    List<BzlScanner.Call> scanned;
+    try {
+      scanned = BzlScanner.scan(code);
+    } catch (BzlSyntaxError e) {
+      throw new IOException("cannot parse " + file, e);
+    }
+
+    List<Edit> edits = new ArrayList<>();
+    for (Map.Entry<String, Changes> c : calls.entrySet()) {
+      BzlScanner.Call call = find(scanned, c.getKey(), byFunction);
+      edits.addAll(edits(code, call, attribute, c.getValue(), key, replacing));
+    }
+
+    if (edits.isEmpty()) {
+      return false;
+    }
+
+    write(file, code, edits);
+    return true;
+  }
+
+  private static BzlScanner.Call find(List<BzlScanner.Call> calls, String key, boolean byFunction) {
+    for (BzlScanner.Call call : calls) {
+      String name = byFunction ? call.function() : call.string("name").orElse("");
+      if (name.equals(key)) {
+        return call;
+      }
+    }
+
+    throw new IllegalArgumentException("cannot find " + key);
+  }
+
+  // Added elements with the same key as a listed one replace it if replacing, and are skipped
+  // otherwise
+  private static List<Edit> edits(
+      byte[] code,
+      BzlScanner.Call call,
+      String attribute,
+      Changes changes,
+      UnaryOperator<String> key,
+      boolean replacing) {
+    Optional<BzlScanner.Value> list = call.keyword(attribute);
+    if (list.isEmpty()) {
+      if (changes.added.isEmpty()) {
+        return List.of();
+      }
+
+      return List.of(newAttribute(code, call, attribute, changes.added));
+    }
+
+    if (list.get().elements().isEmpty()) {
+      throw new IllegalArgumentException(
+          String.format("%s of %s is not a list", attribute, call.function()));
+    }
+
+    Set<String> removed = new HashSet<>();
+    changes.removed.forEach(r -> removed.add(key.apply(r)));
+    List<BzlScanner.Value> elements = list.get().elements().get();
+    boolean[] removing = new boolean[elements.size()];
+    // The index of each listed element by key, -1 once it cannot be replaced anymore
+    Map<String, Integer> present = new HashMap<>();
+    for (int i = 0; i < elements.size(); i++) {
+      Optional<String> element = elements.get(i).string().map(key);
+      if (element.isPresent() && removed.contains(element.get())) {
+        removing[i] = true;
+      } else if (element.isPresent()) {
+        present.putIfAbsent(element.get(), i);
+      }
+    }
+
+    List<Edit> edits = removals(list.get(), removing);
+    Set<String> added = new LinkedHashSet<>();
+    for (String a : changes.added) {
+      Integer listed = present.put(key.apply(a), -1);
+      if (listed == null) {
+        added.add(a);
+        continue;
+      }
+
+      if (replacing && listed >= 0 && !elements.get(listed).string().get().equals(a)) {
+        BzlScanner.Value element = elements.get(listed);
+        edits.add(new Edit(element.start(), element.end(), '"' + a + '"'));
+      }
+    }
+
+    if (!added.isEmpty()) {
+      edits.add(insertion(code, list.get(), removing, added));
+    }
+
+    return edits;
+  }
+
+  // Each run of consecutive elements is removed along with the separator preceding it, or up to the
+  // next element if the run starts the list, so that the remaining layout is unchanged
+  private static List<Edit> removals(BzlScanner.Value list, boolean[] removing) {
+    List<BzlScanner.Value> elements = list.elements().get();
+    List<Edit> edits = new ArrayList<>();
+    int i = 0;
+    while (i < elements.size()) {
+      if (!removing[i]) {
+        i++;
+        continue;
+      }
+
+      int j = i;
+      while (j + 1 < elements.size() && removing[j + 1]) {
+        j++;
+      }
+
+      if (i > 0) {
+        edits.add(new Edit(elements.get(i - 1).end(), elements.get(j).end(), ""));
+      } else if (j + 1 < elements.size()) {
+        edits.add(new Edit(elements.get(0).start(), elements.get(j + 1).start(), ""));
+      } else {
+        edits.add(new Edit(list.start() + 1, list.end() - 1, ""));
+      }
+
+      i = j + 1;
+    }
+
+    return edits;
+  }
+
+  // Appends after the last element, reusing the whitespace preceding it
+  private static Edit insertion(
+      byte[] code, BzlScanner.Value list, boolean[] removing, Set<String> added) {
+    List<BzlScanner.Value> elements = list.elements().get();
+    boolean allRemoved = true;
+    for (boolean r : removing) {
+      allRemoved &= r;
+    }
+
+    // The contents of the list are then removed
+    if (allRemoved) {
+      return new Edit(list.end() - 1, list.end() - 1, String.join(", ", quoted(added)));
+    }
+
+    BzlScanner.Value last = elements.get(elements.size() - 1);
+    int position = afterSeparator(code, last.end());
+    boolean trailingComma = position != last.end();
+    String indent = whitespaceBefore(code, last.start());
+    StringBuilder text = new StringBuilder(trailingComma ? "" : ",");
+    String separator = "";
+    for (String a : added) {
+      text.append(separator).append(indent).append('"').append(a).append('"');
+      separator = ",";
+    }
+
+    return new Edit(position, position, text.append(trailingComma ? "," : "").toString());
+  }
+
+  // Adds the attribute as the last argument of the call
+  private static Edit newAttribute(
+      byte[] code, BzlScanner.Call call, String attribute, Set<String> added) {
+    int closing = call.end() - 1;
+    int position = closing;
+    while (position > call.start() && Character.isWhitespace(code[position - 1])) {
+      position--;
+    }
+
+    byte previous = code[position - 1];
+    boolean multiline = false;
+    for (int i = call.start(); i < closing; i++) {
+      multiline |= code[i] == '\n';
+    }
+
+    String text =
+        (previous == ',' || previous == '(' ? "" : ",")
+            + (multiline ? "\n    " : previous == '(' ? "" : " ")
+            + attribute
+            + " = ["
+            + String.join(", ", quoted(added))
+            + "]"
+            + (multiline ? "," : "");
+    return new Edit(position, position, text);
+  }
+
+  private static List<String> quoted(Iterable<String> labels) {
+    List<String> quoted = new ArrayList<>();
+    for (String l : labels) {
+      quoted.add('"' + l + '"');
+    }
+
+    return quoted;
+  }
+
+  // The position following the comma after position, if any, or position itself
+  private static int afterSeparator(byte[] code, int position) {
+    int next = position;
+    while (next < code.length && Character.isWhitespace(code[next])) {
+      next++;
+    }
+
+    return next < code.length && code[next] == ',' ? next + 1 : position;
+  }
+
+  private static String whitespaceBefore(byte[] code, int position) {
+    int start = position;
+    while (start > 0 && Character.isWhitespace(code[start - 1])) {
+      start--;
+    }
+
+    return new String(code, start, position - start, UTF_8);
+  }
+
+  // Only the bytes from the first edit on are written again, through a byte channel as file
+  // channels are not supported by every file system
+  private static void write(Path file, byte[] code, List<Edit> edits) throws IOException {
+    edits.sort(Comparator.comparingInt(e -> e.start));
+    int first = edits.get(0).start;
+    ByteArrayOutputStream tail = new ByteArrayOutputStream();
+    int position = first;
+    for (Edit e : edits) {
+      tail.write(code, position, e.start - position);
+      tail.write(e.replacement);
+      position = e.end;
+    }
+
+    tail.write(code, position, code.length - position);
+    try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.wrap(tail.toByteArray());
+      channel.position(first);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+
+      channel.truncate(channel.position());
+    }
+  }
+
+  // Replaces the bytes from start to end
+  private static class Edit {
+    final int start;
+    final int end;
+    final byte[] replacement;
+
+    Edit(int start, int end, String replacement) {
+      this.start = start;
+      this.end = end;
+      this.replacement = replacement.getBytes(UTF_8);
+    }
+  }
+
+  private static class Changes {
+    final Set<String> added = new LinkedHashSet<>();
+    final Set<String> removed = new LinkedHashSet<>();
+
+    void add(String... labels) {
+      for (String l : labels) {
+        removed.remove(l);
+        added.add(l);
+      }
+    }
+
+    void remove(String... labels) {
+      for (String l : labels) {
+        added.remove(l);
+        removed.add(l);
+      }
+    }
+
+    boolean isEmpty() {
+      return added.isEmpty() && removed.isEmpty();
+    }
+
+    void clear() {
+      added.clear();
+      removed.clear();
+    }
+  }
+}
@@ -0,0 +1,360 @@
+package com.nikodoko.packagetest.bazel;
+
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.internal.bazel.ModuleFile;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlScanner;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlSyntaxError;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The graph of the targets of a Bazel workspace, answering the usual {@code bazel query}
+ * functions in process.
+ *
+ * <p>The graph is built once by reading the BUILD files of the workspace back, so that it reflects
+ * any change made after the export, and the artifacts of its {@code MODULE.bazel}. Edges are the
+ * labels listed in the {@code deps}, {@code runtime_deps}, {@code exports} and {@code tests}
+ * attributes of every rule; source files are not part of the graph. Labels referenced but not
+ * defined in the workspace, such as {@code @maven//:...} targets, are nodes without dependencies.
+ *
+ * <p>Targets are numbered and both directions of the graph are stored as flat arrays of target
+ * numbers, so queries are plain traversals that do not allocate per edge. Queries take absolute
+ * labels, {@code //a/b} standing for {@code //a/b:b} as in Bazel, and throw {@link
+ * IllegalArgumentException} for unknown targets.
+ */
+public class TargetGraph {
+  private static final Set<String> BUILD_FILES = Set.of("BUILD.bazel", "BUILD");
+  private static final List<String> EDGE_ATTRIBUTES =
+      List.of("deps", "runtime_deps", "exports", "tests");
+
+  private final String[] labels;
+  private final Map<String, Integer> ids;
+  // Dependencies of target i are deps[depsStart[i]] to deps[depsStart[i + 1] - 1]
+  private final int[] depsStart;
+  private final int[] deps;
+  private final int[] rdepsStart;
+  private final int[] rdeps;
+
+  private TargetGraph(Builder builder) {
+    int size = builder.labels.size();
+    this.labels = builder.labels.toArray(new String[0]);
+    this.ids = builder.ids;
+    this.depsStart = new int[size + 1];
+    this.rdepsStart = new int[size + 1];
+    List<int[]> edges = builder.edges;
+    for (int[] e : edges) {
+      depsStart[e[0] + 1]++;
+      rdepsStart[e[1] + 1]++;
+    }
+
+    for (int i = 0; i < size; i++) {
+      depsStart[i + 1] += depsStart[i];
+      rdepsStart[i + 1] += rdepsStart[i];
+    }
+
+    this.deps = new int[edges.size()];
+    this.rdeps = new int[edges.size()];
+    int[] depsNext = Arrays.copyOf(depsStart, size);
+    int[] rdepsNext = Arrays.copyOf(rdepsStart, size);
+    for (int[] e : edges) {
+      deps[depsNext[e[0]]++] = e[1];
+      rdeps[rdepsNext[e[1]]++] = e[0];
+    }
+  }
+
+  /**
+   * Builds the graph of the workspace of {@code exported}.
+   *
+   * @throws IOException if an I/O error occurs, or a BUILD file cannot be parsed
+   */
+  public static TargetGraph of(Exported exported) throws IOException {
+    return of(exported.root());
+  }
+
+  /**
+   * Builds the graph of the workspace at {@code root}.
+   *
+   * @throws IOException if an I/O error occurs, or a BUILD file cannot be parsed
+   */
+  public static TargetGraph of(Path root) throws IOException {
+    Builder builder = new Builder();
+    List<Path> buildFiles;
+    try (Stream<Path> paths = Files.walk(root)) {
+      buildFiles =
+          paths
+              .filter(p -> BUILD_FILES.contains(String.valueOf(p.getFileName())))
+              .sorted()
+              .toList();
+    }
+
+    for (Path buildFile : buildFiles) {
+      String pkg = packageOf(root, buildFile);
+      for (BzlScanner.Call rule : scan(buildFile)) {
+        if (rule.string("name").isEmpty()) {
+          continue;
+        }
+
+        int target = builder.id("//" + pkg + ":" + rule.string("name").get());
+        for (String attribute : EDGE_ATTRIBUTES) {
+          for (String dep : rule.strings(attribute)) {
+            builder.edge(target, builder.id(canonical(pkg, dep)));
+          }
+        }
+      }
+    }
+
+    Path moduleFile = root.resolve("MODULE.bazel");
+    if (Files.exists(moduleFile)) {
+      for (BzlScanner.Call call : scan(moduleFile)) {
+        if (!call.function().equals("maven.install")) {
+          continue;
+        }
+
+        for (String artifact : call.strings("artifacts")) {
+          String[] coordinates = artifact.split(":");
+          if (coordinates.length >= 2) {
+            builder.id(ModuleFile.mavenLabel(coordinates[0], coordinates[1]));
+          }
+        }
+      }
+    }
+
+    return new TargetGraph(builder);
+  }
+
+  private static List<BzlScanner.Call> scan(Path file) throws IOException {
+    try {
+      return BzlScanner.scan(Files.readAllBytes(file));
+    } catch (BzlSyntaxError e) {
+      throw new IOException("cannot parse " + file, e);
+    }
+  }
+
+  // The package of a BUILD file, using forward slashes whatever the platform
+  private static String packageOf(Path root, Path buildFile) {
+    Path directory = root.relativize(buildFile).getParent();
+    if (directory == null) {
+      return "";
+    }
+
+    return directory.toString().replace(directory.getFileSystem().getSeparator(), "/");
+  }
+
+  // Resolves labels relative to pkg, and expands //pkg into //pkg:last and @repo into @repo//:repo
+  static String canonical(String pkg, String label) {
+    if (label.startsWith(":")) {
+      return "//" + pkg + label;
+    }
+
+    if (!label.startsWith("//") && !label.startsWith("@")) {
+      return "//" + pkg + ":" + label;
+    }
+
+    if (label.indexOf(':') >= 0) {
+      return label;
+    }
+
+    if (!label.contains("//")) {
+      return label + "//:" + label.substring(label.lastIndexOf('@') + 1);
+    }
+
+    int slash = label.lastIndexOf('/');
+    return label + ":" + label.substring(slash + 1);
+  }
+
+  /** The number of targets in this graph. */
+  public int size() {
+    return labels.length;
+  }
+
+  /** Whether {@code label} is a target of this graph. */
+  public boolean contains(String label) {
+    return ids.containsKey(canonical("", label));
+  }
+
+  /** All targets of this graph. */
+  public Set<String> targets() {
+    return new LinkedHashSet<>(Arrays.asList(labels));
+  }
+
+  /**
+   * The targets {@code label} depends on, directly or not, including itself, like {@code deps}.
+   *
+   * <p>Targets are ordered by distance from {@code label}.
+   */
+  public Set<String> deps(String label) {
+    return deps(label, Integer.MAX_VALUE);
+  }
+
+  /** The targets {@code label} depends on, at most {@code depth} edges away, including itself. */
+  public Set<String> deps(String label, int depth) {
+    return labels(reachable(id(label), depth, depsStart, deps));
+  }
+
+  /**
+   * The targets depending on {@code label}, directly or not, including itself, like {@code rdeps}
+   * over the whole workspace.
+   *
+   * <p>Targets are ordered by distance from {@code label}.
+   */
+  public Set<String> rdeps(String label) {
+    return rdeps(label, Integer.MAX_VALUE);
+  }
+
+  /** The targets depending on {@code label}, at most {@code depth} edges away, including itself. */
+  public Set<String> rdeps(String label, int depth) {
+    return labels(reachable(id(label), depth, rdepsStart, rdeps));
+  }
+
+  /**
+   * A shortest dependency path from {@code from} to {@code to}, both included, like {@code
+   * somepath}.
+   *
+   * @return the path, or an empty list if {@code from} does not depend on {@code to}
+   */
+  public List<String> somepath(String from, String to) {
+    int source = id(from);
+    int target = id(to);
+    int[] parents = new int[labels.length];
+    Arrays.fill(parents, -1);
+    parents[source] = source;
+    int[] queue = new int[labels.length];
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = source;
+    while (head < tail && parents[target] < 0) {
+      int current = queue[head++];
+      for (int i = depsStart[current]; i < depsStart[current + 1]; i++) {
+        if (parents[deps[i]] < 0) {
+          parents[deps[i]] = current;
+          queue[tail++] = deps[i];
+        }
+      }
+    }
+
+    if (parents[target] < 0) {
+      return List.of();
+    }
+
+    List<String> path = new ArrayList<>();
+    for (int current = target; current != source; current = parents[current]) {
+      path.add(labels[current]);
+    }
+
+    path.add(labels[source]);
+    Collections.reverse(path);
+    return path;
+  }
+
+  /**
+   * The targets on any dependency path from {@code from} to {@code to}, both included, like {@code
+   * allpaths}.
+   *
+   * @return the targets, or an empty set if {@code from} does not depend on {@code to}
+   */
+  public Set<String> allpaths(String from, String to) {
+    BitSet forward = visited(reachable(id(from), Integer.MAX_VALUE, depsStart, deps));
+    int[] backward = reachable(id(to), Integer.MAX_VALUE, rdepsStart, rdeps);
+    Set<String> onPath = new LinkedHashSet<>();
+    for (int t : backward) {
+      if (forward.get(t)) {
+        onPath.add(labels[t]);
+      }
+    }
+
+    return onPath.contains(labels[id(from)]) ? onPath : Set.of();
+  }
+
+  // Breadth first traversal, returning the targets reached in order
+  private int[] reachable(int start, int depth, int[] starts, int[] edges) {
+    int[] queue = new int[labels.length];
+    int[] distance = new int[labels.length];
+    BitSet seen = new BitSet(labels.length);
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = start;
+    seen.set(start);
+    while (head < tail) {
+      int current = queue[head++];
+      if (distance[current] >= depth) {
+        continue;
+      }
+
+      for (int i = starts[current]; i < starts[current + 1]; i++) {
+        int next = edges[i];
+        if (!seen.get(next)) {
+          seen.set(next);
+          distance[next] = distance[current] + 1;
+          queue[tail++] = next;
+        }
+      }
+    }
+
+    return Arrays.copyOf(queue, tail);
+  }
+
+  private BitSet visited(int[] targets) {
+    BitSet visited = new BitSet(labels.length);
+    for (int t : targets) {
+      visited.set(t);
+    }
+
+    return visited;
+  }
+
+  private Set<String> labels(int[] targets) {
+    Set<String> result = new LinkedHashSet<>();
+    for (int t : targets) {
+      result.add(labels[t]);
+    }
+
+    return result;
+  }
+
+  private int id(String label) {
+    Integer id = ids.get(canonical("", label));
+    if (id == null) {
+      throw new IllegalArgumentException("unknown target: " + label);
+    }
+
+    return id;
+  }
+
+  // Numbers targets as they are found, and collects edges as pairs of numbers
+  private static class Builder {
+    private final List<String> labels = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<int[]> edges = new ArrayList<>();
+    private final Set<Long> seen = new HashSet<>();
+
+    int id(String label) {
+      Integer id = ids.get(label);
+      if (id == null) {
+        id = labels.size();
+        ids.put(label, id);
+        labels.add(label);
+      }
+
+      return id;
+    }
+
+    void edge(int from, int to) {
+      // Labels listed in several attributes only make one edge
+      if (seen.add(((long) from << 32) | to)) {
+        edges.add(new int[] {from, to});
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.nikodoko.packagetest.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/** An open file of a {@link ShapedFileSystem}. */
+class ShapedChannel implements SeekableByteChannel {
+  private final SeekableByteChannel delegate;
+  private final Shaper shaper;
+
+  ShapedChannel(SeekableByteChannel delegate, Shaper shaper) {
+    this.delegate = delegate;
+    this.shaper = shaper;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.READ);
+    int read = delegate.read(dst);
+    if (read > 0) {
+      shaper.read(read);
+    }
+
+    return read;
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.WRITE);
+    shaper.write(src.remaining());
+    return delegate.write(src);
+  }
+
+  @Override
+  public long position() throws IOException {
+    return delegate.position();
+  }
+
+  @Override
+  public SeekableByteChannel position(long newPosition) throws IOException {
+    delegate.position(newPosition);
+    return this;
+  }
+
+  @Override
+  public long size() throws IOException {
+    return delegate.size();
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long size) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.WRITE);
+    delegate.truncate(size);
+    return this;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return delegate.isOpen();
+  }
+
+  // The file is closed even if closing it is made to fail, so that it does not leak
+  @Override
+  public void close() throws IOException {
+    try {
+      shaper.before(ShapedFileSystem.Operation.CLOSE);
+    } finally {
+      delegate.close();
+    }
+  }
+}
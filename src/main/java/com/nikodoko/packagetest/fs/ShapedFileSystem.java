@@ -0,0 +1,201 @@
+package com.nikodoko.packagetest.fs;
+
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Set;
+import java.util.stream.StreamSupport;
+
+/**
+ * A file system decorating another one to behave like slower or less reliable storage, such as a
+ * network disk or a throttled CI volume.
+ *
+ * <p>Every operation going through it is counted, and degraded according to a {@link
+ * StorageProfile}. Projects can be exported to it using {@link
+ * com.nikodoko.packagetest.Export.Options.Builder#usingFileSystem}, and tools then run on the
+ * resulting {@link com.nikodoko.packagetest.Exported} paths, which belong to this file system.
+ *
+ * <p>Attribute views returned by this file system are those of the wrapped one, and operations on
+ * them are neither counted nor degraded. Watching paths is not supported.
+ */
+public class ShapedFileSystem extends FileSystem {
+  /** The kinds of operations counted and degraded. */
+  public enum Operation {
+    /** Opening a file. */
+    OPEN,
+    /** A single read from an open file. */
+    READ,
+    /** A single write to an open file. */
+    WRITE,
+    /** Closing a file. */
+    CLOSE,
+    /** Listing a directory. */
+    LIST,
+    /** Creating a directory. */
+    CREATE_DIRECTORY,
+    /** Deleting a file or directory. */
+    DELETE,
+    /** Copying a file. */
+    COPY,
+    /** Moving a file. */
+    MOVE,
+    /** Creating a link, or reading a symbolic link. */
+    LINK,
+    /** Reading the attributes of a file, or checking whether it is accessible. */
+    READ_ATTRIBUTES,
+    /** Writing an attribute of a file. */
+    WRITE_ATTRIBUTES;
+  }
+
+  private final FileSystem delegate;
+  private final ShapedFileSystemProvider provider;
+
+  private ShapedFileSystem(FileSystem delegate, StorageProfile profile) {
+    this.delegate = delegate;
+    this.provider = new ShapedFileSystemProvider(this, new Shaper(profile));
+  }
+
+  /** Returns a file system shaping the storage of {@code delegate} according to {@code profile}. */
+  public static ShapedFileSystem wrap(FileSystem delegate, StorageProfile profile) {
+    return new ShapedFileSystem(delegate, profile);
+  }
+
+  /** Returns a file system shaping the default file system according to {@code profile}. */
+  public static ShapedFileSystem ofDefault(StorageProfile profile) {
+    return wrap(FileSystems.getDefault(), profile);
+  }
+
+  /** The number of times {@code operation} was performed, whether it failed or not. */
+  public long calls(Operation operation) {
+    return provider.shaper().calls(operation);
+  }
+
+  /** The number of bytes read from files. */
+  public long bytesRead() {
+    return provider.shaper().bytesRead();
+  }
+
+  /** The number of bytes written to files. */
+  public long bytesWritten() {
+    return provider.shaper().bytesWritten();
+  }
+
+  /** The number of operations that were made to fail. */
+  public long failures() {
+    return provider.shaper().failures();
+  }
+
+  /** Resets all counters. */
+  public void resetCounters() {
+    provider.shaper().reset();
+  }
+
+  /**
+   * Returns the path of this file system corresponding to {@code path}.
+   *
+   * @throws ProviderMismatchException if {@code path} is absolute and does not belong to the
+   *     wrapped file system
+   */
+  public Path wrap(Path path) {
+    return new ShapedPath(this, unwrap(path));
+  }
+
+  // Relative paths of other file systems are accepted, as exporters build them with Paths.get
+  Path unwrap(Path path) {
+    if (path instanceof ShapedPath) {
+      ShapedPath shaped = (ShapedPath) path;
+      if (shaped.getFileSystem() != this) {
+        throw new ProviderMismatchException();
+      }
+
+      return shaped.delegate();
+    }
+
+    if (path.getFileSystem() == delegate) {
+      return path;
+    }
+
+    if (!path.isAbsolute()) {
+      return delegate.getPath(path.toString());
+    }
+
+    throw new ProviderMismatchException();
+  }
+
+  FileSystem delegate() {
+    return delegate;
+  }
+
+  @Override
+  public FileSystemProvider provider() {
+    return provider;
+  }
+
+  // The wrapped file system belongs to the caller, and the default one cannot be closed anyway
+  @Override
+  public void close() {}
+
+  @Override
+  public boolean isOpen() {
+    return delegate.isOpen();
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return delegate.isReadOnly();
+  }
+
+  @Override
+  public String getSeparator() {
+    return delegate.getSeparator();
+  }
+
+  @Override
+  public Iterable<Path> getRootDirectories() {
+    return StreamSupport.stream(delegate.getRootDirectories().spliterator(), false)
+        .map(this::wrap)
+        .toList();
+  }
+
+  @Override
+  public Iterable<FileStore> getFileStores() {
+    return delegate.getFileStores();
+  }
+
+  @Override
+  public Set<String> supportedFileAttributeViews() {
+    return delegate.supportedFileAttributeViews();
+  }
+
+  @Override
+  public Path getPath(String first, String... more) {
+    return wrap(delegate.getPath(first, more));
+  }
+
+  @Override
+  public PathMatcher getPathMatcher(String syntaxAndPattern) {
+    PathMatcher matcher = delegate.getPathMatcher(syntaxAndPattern);
+    return p -> matcher.matches(unwrap(p));
+  }
+
+  @Override
+  public UserPrincipalLookupService getUserPrincipalLookupService() {
+    return delegate.getUserPrincipalLookupService();
+  }
+
+  @Override
+  public WatchService newWatchService() {
+    throw new UnsupportedOperationException("watching shaped paths is not supported");
+  }
+
+  @Override
+  public String toString() {
+    return "shaped:" + delegate;
+  }
+}
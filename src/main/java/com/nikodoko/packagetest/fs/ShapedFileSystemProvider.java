@@ -0,0 +1,202 @@
+package com.nikodoko.packagetest.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Forwards all operations to the provider of the wrapped file system, after counting and degrading
+ * them.
+ *
+ * <p>This provider is not installed, and can only be reached through the paths of its {@link
+ * ShapedFileSystem}.
+ */
+class ShapedFileSystemProvider extends FileSystemProvider {
+  private static final String SCHEME = "shaped";
+
+  private final ShapedFileSystem fileSystem;
+  private final Shaper shaper;
+
+  ShapedFileSystemProvider(ShapedFileSystem fileSystem, Shaper shaper) {
+    this.fileSystem = fileSystem;
+    this.shaper = shaper;
+  }
+
+  Shaper shaper() {
+    return shaper;
+  }
+
+  private FileSystemProvider delegate() {
+    return fileSystem.delegate().provider();
+  }
+
+  private Path unwrap(Path path) {
+    return fileSystem.unwrap(path);
+  }
+
+  @Override
+  public String getScheme() {
+    return SCHEME;
+  }
+
+  @Override
+  public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+    throw new UnsupportedOperationException("use ShapedFileSystem.wrap");
+  }
+
+  @Override
+  public FileSystem getFileSystem(URI uri) {
+    throw new UnsupportedOperationException("use ShapedFileSystem.wrap");
+  }
+
+  @Override
+  public Path getPath(URI uri) {
+    return fileSystem.wrap(delegate().getPath(uri));
+  }
+
+  @Override
+  public SeekableByteChannel newByteChannel(
+      Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.OPEN);
+    return new ShapedChannel(delegate().newByteChannel(unwrap(path), options, attrs), shaper);
+  }
+
+  @Override
+  public DirectoryStream<Path> newDirectoryStream(
+      Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.LIST);
+    DirectoryStream<Path> entries =
+        delegate().newDirectoryStream(unwrap(dir), p -> filter.accept(fileSystem.wrap(p)));
+    return new DirectoryStream<Path>() {
+      @Override
+      public Iterator<Path> iterator() {
+        Iterator<Path> it = entries.iterator();
+        return new Iterator<Path>() {
+          @Override
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          @Override
+          public Path next() {
+            return fileSystem.wrap(it.next());
+          }
+        };
+      }
+
+      @Override
+      public void close() throws IOException {
+        entries.close();
+      }
+    };
+  }
+
+  @Override
+  public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.CREATE_DIRECTORY);
+    delegate().createDirectory(unwrap(dir), attrs);
+  }
+
+  @Override
+  public void createSymbolicLink(Path link, Path target, FileAttribute<?>... attrs)
+      throws IOException {
+    shaper.before(ShapedFileSystem.Operation.LINK);
+    delegate().createSymbolicLink(unwrap(link), unwrap(target), attrs);
+  }
+
+  @Override
+  public void createLink(Path link, Path existing) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.LINK);
+    delegate().createLink(unwrap(link), unwrap(existing));
+  }
+
+  @Override
+  public Path readSymbolicLink(Path link) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.LINK);
+    return fileSystem.wrap(delegate().readSymbolicLink(unwrap(link)));
+  }
+
+  @Override
+  public void delete(Path path) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.DELETE);
+    delegate().delete(unwrap(path));
+  }
+
+  @Override
+  public void copy(Path source, Path target, CopyOption... options) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.COPY);
+    delegate().copy(unwrap(source), unwrap(target), options);
+  }
+
+  @Override
+  public void move(Path source, Path target, CopyOption... options) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.MOVE);
+    delegate().move(unwrap(source), unwrap(target), options);
+  }
+
+  @Override
+  public boolean isSameFile(Path path, Path path2) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.READ_ATTRIBUTES);
+    return delegate().isSameFile(unwrap(path), unwrap(path2));
+  }
+
+  @Override
+  public boolean isHidden(Path path) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.READ_ATTRIBUTES);
+    return delegate().isHidden(unwrap(path));
+  }
+
+  @Override
+  public FileStore getFileStore(Path path) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.READ_ATTRIBUTES);
+    return delegate().getFileStore(unwrap(path));
+  }
+
+  @Override
+  public void checkAccess(Path path, AccessMode... modes) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.READ_ATTRIBUTES);
+    delegate().checkAccess(unwrap(path), modes);
+  }
+
+  @Override
+  public <V extends FileAttributeView> V getFileAttributeView(
+      Path path, Class<V> type, LinkOption... options) {
+    return delegate().getFileAttributeView(unwrap(path), type, options);
+  }
+
+  @Override
+  public <A extends BasicFileAttributes> A readAttributes(
+      Path path, Class<A> type, LinkOption... options) throws IOException {
+    shaper.before(ShapedFileSystem.Operation.READ_ATTRIBUTES);
+    return delegate().readAttributes(unwrap(path), type, options);
+  }
+
+  @Override
+  public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+      throws IOException {
+    shaper.before(ShapedFileSystem.Operation.READ_ATTRIBUTES);
+    return delegate().readAttributes(unwrap(path), attributes, options);
+  }
+
+  @Override
+  public void setAttribute(Path path, String attribute, Object value, LinkOption... options)
+      throws IOException {
+    shaper.before(ShapedFileSystem.Operation.WRITE_ATTRIBUTES);
+    delegate().setAttribute(unwrap(path), attribute, value, options);
+  }
+}
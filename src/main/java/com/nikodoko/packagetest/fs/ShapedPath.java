@@ -0,0 +1,146 @@
+package com.nikodoko.packagetest.fs;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * A path of a {@link ShapedFileSystem}, wrapping a path of the underlying file system.
+ *
+ * <p>Its URI is the one of the wrapped path, so that tools receiving it as a string access the
+ * underlying storage directly.
+ */
+class ShapedPath implements Path {
+  private final ShapedFileSystem fileSystem;
+  private final Path delegate;
+
+  ShapedPath(ShapedFileSystem fileSystem, Path delegate) {
+    this.fileSystem = fileSystem;
+    this.delegate = delegate;
+  }
+
+  Path delegate() {
+    return delegate;
+  }
+
+  private Path wrap(Path path) {
+    return path == null ? null : new ShapedPath(fileSystem, path);
+  }
+
+  @Override
+  public ShapedFileSystem getFileSystem() {
+    return fileSystem;
+  }
+
+  @Override
+  public boolean isAbsolute() {
+    return delegate.isAbsolute();
+  }
+
+  @Override
+  public Path getRoot() {
+    return wrap(delegate.getRoot());
+  }
+
+  @Override
+  public Path getFileName() {
+    return wrap(delegate.getFileName());
+  }
+
+  @Override
+  public Path getParent() {
+    return wrap(delegate.getParent());
+  }
+
+  @Override
+  public int getNameCount() {
+    return delegate.getNameCount();
+  }
+
+  @Override
+  public Path getName(int index) {
+    return wrap(delegate.getName(index));
+  }
+
+  @Override
+  public Path subpath(int beginIndex, int endIndex) {
+    return wrap(delegate.subpath(beginIndex, endIndex));
+  }
+
+  @Override
+  public boolean startsWith(Path other) {
+    return other.getFileSystem() == fileSystem
+        && delegate.startsWith(((ShapedPath) other).delegate);
+  }
+
+  @Override
+  public boolean endsWith(Path other) {
+    return other.getFileSystem() == fileSystem
+        && delegate.endsWith(((ShapedPath) other).delegate);
+  }
+
+  @Override
+  public Path normalize() {
+    return wrap(delegate.normalize());
+  }
+
+  @Override
+  public Path resolve(Path other) {
+    return wrap(delegate.resolve(fileSystem.unwrap(other)));
+  }
+
+  @Override
+  public Path relativize(Path other) {
+    return wrap(delegate.relativize(fileSystem.unwrap(other)));
+  }
+
+  @Override
+  public URI toUri() {
+    return delegate.toUri();
+  }
+
+  @Override
+  public Path toAbsolutePath() {
+    return wrap(delegate.toAbsolutePath());
+  }
+
+  @Override
+  public Path toRealPath(LinkOption... options) throws IOException {
+    return wrap(delegate.toRealPath(options));
+  }
+
+  @Override
+  public WatchKey register(
+      WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+    throw new UnsupportedOperationException("watching shaped paths is not supported");
+  }
+
+  @Override
+  public int compareTo(Path other) {
+    return delegate.compareTo(((ShapedPath) other).delegate);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ShapedPath)) {
+      return false;
+    }
+
+    ShapedPath other = (ShapedPath) o;
+    return fileSystem == other.fileSystem && delegate.equals(other.delegate);
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return delegate.toString();
+  }
+}
@@ -0,0 +1,111 @@
+package com.nikodoko.packagetest.fs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Applies a {@link StorageProfile} to operations, and counts them. */
+class Shaper {
+  private final StorageProfile profile;
+  private final Random random;
+  private final Map<ShapedFileSystem.Operation, LongAdder> calls =
+      new EnumMap<>(ShapedFileSystem.Operation.class);
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  // When the bandwidth is next available, in System.nanoTime terms
+  private long available = System.nanoTime();
+
+  Shaper(StorageProfile profile) {
+    this.profile = profile;
+    this.random = new Random(profile.seed());
+    for (ShapedFileSystem.Operation o : ShapedFileSystem.Operation.values()) {
+      calls.put(o, new LongAdder());
+    }
+  }
+
+  /**
+   * Called before each operation.
+   *
+   * @throws IOException if the operation is made to fail
+   */
+  void before(ShapedFileSystem.Operation operation) throws IOException {
+    calls.get(operation).increment();
+    sleep(profile.latency(operation).toNanos());
+    if (profile.failureRate() > 0 && random.nextDouble() < profile.failureRate()) {
+      failures.increment();
+      throw new IOException("injected failure of " + operation);
+    }
+  }
+
+  /** Called after {@code bytes} bytes were read, waiting for the bandwidth to allow it. */
+  void read(long bytes) throws IOException {
+    bytesRead.add(bytes);
+    throttle(bytes);
+  }
+
+  /** Called before {@code bytes} bytes are written, waiting for the bandwidth to allow it. */
+  void write(long bytes) throws IOException {
+    bytesWritten.add(bytes);
+    throttle(bytes);
+  }
+
+  long calls(ShapedFileSystem.Operation operation) {
+    return calls.get(operation).sum();
+  }
+
+  long bytesRead() {
+    return bytesRead.sum();
+  }
+
+  long bytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  long failures() {
+    return failures.sum();
+  }
+
+  void reset() {
+    calls.values().forEach(LongAdder::reset);
+    bytesRead.reset();
+    bytesWritten.reset();
+    failures.reset();
+  }
+
+  // Transfers are scheduled one after the other, as if all files shared the same link
+  private void throttle(long bytes) throws IOException {
+    if (profile.bandwidth().isEmpty() || bytes <= 0) {
+      return;
+    }
+
+    long duration = TimeUnit.SECONDS.toNanos(bytes) / profile.bandwidth().getAsLong();
+    long end;
+    synchronized (this) {
+      long start = Math.max(available, System.nanoTime());
+      end = start + duration;
+      available = end;
+    }
+
+    sleep(end - System.nanoTime());
+  }
+
+  private static void sleep(long nanos) throws IOException {
+    if (nanos <= 0) {
+      return;
+    }
+
+    try {
+      Duration d = Duration.ofNanos(nanos);
+      Thread.sleep(d.toMillis(), d.toNanosPart() % 1_000_000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while shaping I/O");
+    }
+  }
+}
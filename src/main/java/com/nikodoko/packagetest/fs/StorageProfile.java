@@ -0,0 +1,133 @@
+package com.nikodoko.packagetest.fs;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Describes how a {@link ShapedFileSystem} degrades the storage it wraps.
+ *
+ * <p>Each operation can be delayed, reads and writes can be throttled to a maximum bandwidth, and
+ * operations can fail at random with an {@link java.io.IOException}. By default, nothing is
+ * degraded.
+ */
+public class StorageProfile {
+  private final Duration latency;
+  private final Map<ShapedFileSystem.Operation, Duration> latencies;
+  private final OptionalLong bandwidth;
+  private final double failureRate;
+  private final long seed;
+
+  private StorageProfile(Builder builder) {
+    this.latency = builder.latency;
+    this.latencies = new EnumMap<>(builder.latencies);
+    this.bandwidth = builder.bandwidth;
+    this.failureRate = builder.failureRate;
+    this.seed = builder.seed;
+  }
+
+  /** The time each {@code operation} takes, on top of the time taken by the wrapped storage. */
+  public Duration latency(ShapedFileSystem.Operation operation) {
+    return latencies.getOrDefault(operation, latency);
+  }
+
+  /** The maximum number of bytes read and written per second, if any. */
+  public OptionalLong bandwidth() {
+    return bandwidth;
+  }
+
+  /** The probability of each operation failing. */
+  public double failureRate() {
+    return failureRate;
+  }
+
+  /** The seed of the random failures, so that they are reproducible. */
+  public long seed() {
+    return seed;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** A profile that does not degrade anything. */
+  public static StorageProfile unshaped() {
+    return builder().build();
+  }
+
+  public static class Builder {
+    private Duration latency = Duration.ZERO;
+    private final Map<ShapedFileSystem.Operation, Duration> latencies =
+        new EnumMap<>(ShapedFileSystem.Operation.class);
+    private OptionalLong bandwidth = OptionalLong.empty();
+    private double failureRate = 0;
+    private long seed = 0;
+
+    /**
+     * Delays every operation by {@code latency}, unless set otherwise for the operation.
+     *
+     * @throws IllegalArgumentException if {@code latency} is negative
+     */
+    public Builder latency(Duration latency) {
+      this.latency = checkLatency(latency);
+      return this;
+    }
+
+    /**
+     * Delays every {@code operation} by {@code latency}.
+     *
+     * @throws IllegalArgumentException if {@code latency} is negative
+     */
+    public Builder latency(ShapedFileSystem.Operation operation, Duration latency) {
+      this.latencies.put(operation, checkLatency(latency));
+      return this;
+    }
+
+    /**
+     * Caps the number of bytes read and written per second, for all files together.
+     *
+     * @throws IllegalArgumentException if {@code bytesPerSecond} is not positive
+     */
+    public Builder bandwidth(long bytesPerSecond) {
+      if (bytesPerSecond < 1) {
+        throw new IllegalArgumentException("invalid bandwidth: " + bytesPerSecond);
+      }
+
+      this.bandwidth = OptionalLong.of(bytesPerSecond);
+      return this;
+    }
+
+    /**
+     * Makes each operation fail with probability {@code rate}.
+     *
+     * @throws IllegalArgumentException if {@code rate} is not between 0 and 1
+     */
+    public Builder failureRate(double rate) {
+      if (rate < 0 || rate > 1) {
+        throw new IllegalArgumentException("invalid failure rate: " + rate);
+      }
+
+      this.failureRate = rate;
+      return this;
+    }
+
+    /** Sets the seed of the random failures (0 by default). */
+    public Builder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public StorageProfile build() {
+      return new StorageProfile(this);
+    }
+
+    private static Duration checkLatency(Duration latency) {
+      if (latency.isNegative()) {
+        throw new IllegalArgumentException("invalid latency: " + latency);
+      }
+
+      return latency;
+    }
+  }
+}
@@ -2,21 +2,27 @@ package com.nikodoko.packagetest.internal;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.nikodoko.packagetest.BuildCache;
 import com.nikodoko.packagetest.Export;
 import com.nikodoko.packagetest.Exported;
 import com.nikodoko.packagetest.Module;
 import com.nikodoko.packagetest.Repository;
 import com.nikodoko.packagetest.internal.bazel.BuildFile;
+import com.nikodoko.packagetest.internal.bazel.LockFile;
 import com.nikodoko.packagetest.internal.bazel.ModuleFile;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -24,7 +30,11 @@ class BazelExporter implements Exporter {
   private static final String NAME = "BAZEL_EXPORTER";
   private static final String MAIN_DIRECTORY = "src/main/java";
   private static final String TEST_DIRECTORY = "src/test/java";
+  private static final String DISK_CACHE = "bazel-disk-cache";
+  private static final String REPOSITORY_CACHE = "bazel-repository-cache";
   private static final Pattern TEST_FILE_RE = Pattern.compile(".+Test\\.java");
+  private static final Pattern IMPORT_RE =
+      Pattern.compile("^\\s*import\\s+(?:static\\s+)?([\\w.]+)", Pattern.MULTILINE);
 
   @Override
   public String name() {
@@ -32,70 +42,344 @@ class BazelExporter implements Exporter {
   }
 
   @Override
-  public Exported export(
-      List<Repository> repositories, List<Module> modules, Export.Options options)
-      throws IOException {
-    ExportedBuilder to = new ExportedBuilder().root(options.root());
-    writeModuleFile(to, repositories, modules);
-    for (Module m : modules) {
-      exportModule(m, to);
-    }
+  public Session begin(List<Repository> repositories, Export.Options options, Sink sink) {
+    ExportedBuilder to = new ExportedBuilder(sink, name(), options);
+    // MODULE.bazel is written last, as it needs the dependencies of all modules
+    DependencyResolver resolver = new DependencyResolver(options);
+    return new Session() {
+      @Override
+      public void add(Module module) throws IOException {
+        resolver.add(module);
+        exportModule(module, to, options);
+        to.finishModule();
+      }
+
+      @Override
+      public Exported finish() throws IOException {
+        writeModuleFile(to, repositories, resolver.resolved(), options);
+        if (options.buildCache().isPresent()) {
+          writeBazelrc(to, options.buildCache().get());
+        }
 
-    return to.build();
+        return to.build();
+      }
+    };
   }
 
   private void writeModuleFile(
-      ExportedBuilder to, List<Repository> repositories, List<Module> modules) throws IOException {
-    Set<Module.Dependency> deps = gatherDependencies(modules);
-    Path target = to.root().resolve("MODULE.bazel");
-    ModuleFile mf =
+      ExportedBuilder to,
+      List<Repository> repositories,
+      List<Module.Dependency> deps,
+      Export.Options options)
+      throws IOException {
+    List<Repository> allRepositories = new ArrayList<>(repositories);
+    Optional<LocalRepository> local = Optional.empty();
+    if (options.localRepository()) {
+      local = Optional.of(LocalRepository.at(to).write(to, deps));
+      // Listed first so that stub artifacts take precedence
+      allRepositories.add(0, local.get().repository());
+    }
+
+    List<String> repos = allRepositories.stream().map(BazelExporter::toModuleRepo).toList();
+    ModuleFile.Builder mf =
         ModuleFile.builder()
             .artifacts(deps.stream().map(BazelExporter::toModuleDep).toList())
-            .repositories(repositories.stream().map(BazelExporter::toModuleRepo).toList())
-            .build();
-    mf.write(target);
-    to.markAsWritten("", "MODULE.bazel", target);
+            .repositories(repos);
+    if (options.pinnedDependencies()) {
+      writeLockFile(to, deps, repos, local);
+      mf.lockFile("//:" + LockFile.NAME);
+    }
+
+    try (OutputStream out = to.newOutputStream("", "MODULE.bazel", Paths.get("MODULE.bazel"))) {
+      mf.build().write(out);
+    }
   }
 
-  private Set<Module.Dependency> gatherDependencies(List<Module> modules) {
-    return modules.stream()
-        .flatMap(m -> StreamSupport.stream(m.dependencies().spliterator(), false))
-        .collect(Collectors.toSet());
+  // The lock file is referenced by a label, so it needs to be part of a package
+  private void writeLockFile(
+      ExportedBuilder to,
+      List<Module.Dependency> deps,
+      List<String> repositories,
+      Optional<LocalRepository> local)
+      throws IOException {
+    LockFile.Builder lf = LockFile.builder().repositories(repositories);
+    for (Module.Dependency d : deps) {
+      // Versions cannot be pinned without knowing them, these are resolved by maven.install
+      if (d.version().isEmpty()) {
+        continue;
+      }
+
+      Optional<String> sha256 = local.flatMap(r -> r.jarSha256(d));
+      lf.artifact(d.groupId(), d.artifactId(), d.version(), sha256);
+    }
+
+    try (OutputStream out = to.newOutputStream("", LockFile.NAME, Paths.get(LockFile.NAME))) {
+      lf.build().write(out);
+    }
+
+    // An empty BUILD file is enough to make the root a package
+    to.newOutputStream("", "BUILD.bazel", Paths.get("BUILD.bazel")).close();
+  }
+
+  private void writeBazelrc(ExportedBuilder to, BuildCache cache) throws IOException {
+    Path directory = cache.directory();
+    String bazelrc =
+        String.join(
+            "\n",
+            "# Caches shared by all builds of exported projects",
+            "build --disk_cache=" + directory.resolve(DISK_CACHE),
+            "common --repository_cache=" + directory.resolve(REPOSITORY_CACHE),
+            "build --jobs=" + cache.jobs(),
+            "");
+    try (OutputStream out = to.newOutputStream("", ".bazelrc", Paths.get(".bazelrc"))) {
+      out.write(bazelrc.getBytes(UTF_8));
+    }
   }
 
-  private void exportModule(Module module, ExportedBuilder to) throws IOException {
-    writeBuildFile(module, to);
+  private void exportModule(Module module, ExportedBuilder to, Export.Options options)
+      throws IOException {
+    to.addModule(module);
+    if (options.packageTargets()) {
+      writePackageBuildFiles(module, to, options);
+      if (options.testTargets() && hasTests(module)) {
+        writeBuildFile(BuildFile.builder().withoutLibrary(), module, to, options);
+      }
+    } else {
+      writeBuildFile(libraryBuildFile(module, options), module, to, options);
+    }
+
     for (Module.File f : module.files()) {
-      Path fullpath = filename(to.root(), module.name(), f.fragment());
-      Files.createDirectories(fullpath.getParent());
-      Files.write(fullpath, f.contents().getBytes(UTF_8));
-      to.markAsWritten(module.name(), f.fragment(), fullpath);
+      to.writeSource(module.name(), f, relativePath(module.name(), f.fragment()));
     }
   }
 
-  private void writeBuildFile(Module module, ExportedBuilder to) throws IOException {
-    Path target = to.root().resolve(Paths.get(moduleName(module.name()), "BUILD.bazel"));
-    Files.createDirectories(target.getParent());
-    BuildFile bf =
-        BuildFile.builder()
-            .targetName(module.name())
-            .srcs(buildSrcGlob())
-            .srcsGlob()
-            .deps(
-                Stream.concat(
-                        StreamSupport.stream(module.dependencies().spliterator(), false)
-                            .map(BazelExporter::toBuildDep),
-                        StreamSupport.stream(module.moduleDependencies().spliterator(), false)
-                            .map(BazelExporter::toBuildDep))
-                    .toList())
-            .build();
+  private BuildFile.Builder libraryBuildFile(Module module, Export.Options options) {
+    BuildFile.Builder builder = BuildFile.builder().targetName(module.name());
+    if (options.explicitSources()) {
+      builder.srcs(mainSources(module));
+    } else {
+      builder.srcs(buildSrcGlob()).srcsGlob();
+    }
 
-    bf.write(target);
-    to.markAsWritten(module.name(), "BUILD.bazel", target);
+    return builder.deps(
+        ordered(
+            Stream.concat(
+                    StreamSupport.stream(module.dependencies().spliterator(), false)
+                        .map(BazelExporter::toBuildDep),
+                    StreamSupport.stream(module.moduleDependencies().spliterator(), false)
+                        .map(BazelExporter::toBuildDep))
+                .distinct()
+                .toList(),
+            options));
   }
 
-  private Path filename(Path root, String module, String fragment) {
-    return root.resolve(relativePath(module, fragment));
+  // Labels are sorted when output is reproducible, and kept in declaration order otherwise
+  private static List<String> ordered(List<String> labels, Export.Options options) {
+    if (options.fixedModificationTime().isEmpty()) {
+      return labels;
+    }
+
+    return labels.stream().sorted().toList();
+  }
+
+  private void writeBuildFile(
+      BuildFile.Builder builder, Module module, ExportedBuilder to, Export.Options options)
+      throws IOException {
+    if (options.testTargets()) {
+      List<String> deps = testDeps(module, options);
+      for (Module.File f : module.files()) {
+        if (isTest(f)) {
+          builder.test(javaTest(module, f, deps, options));
+        }
+      }
+    }
+
+    Path target = Paths.get(moduleName(module.name()), "BUILD.bazel");
+    try (OutputStream out = to.newOutputStream(module.name(), "BUILD.bazel", target)) {
+      builder.build().write(out);
+    }
+  }
+
+  private BuildFile.JavaTest javaTest(
+      Module module, Module.File test, List<String> deps, Export.Options options) {
+    String fragment = test.fragment();
+    String className = fragment.substring(0, fragment.length() - ".java".length());
+    String testClass = module.name() + "." + className.replace('/', '.');
+    return BuildFile.JavaTest.builder()
+        .targetName(testClass)
+        .srcs(moduleRelativePath(module.name(), fragment).toString())
+        .testClass(testClass)
+        .size(options.testSize())
+        .shardCount(options.testShardCount())
+        .deps(deps)
+        .build();
+  }
+
+  // Tests depend on the sources they test, as well as on everything those sources depend on
+  private List<String> testDeps(Module module, Export.Options options) {
+    List<String> deps = new ArrayList<>();
+    if (options.packageTargets()) {
+      for (String pkg : packages(module).keySet()) {
+        deps.add(toPackageBuildDep(module.name(), pkg));
+      }
+    } else {
+      deps.add(toBuildDep(module));
+    }
+
+    for (Module.Dependency d : module.dependencies()) {
+      deps.add(toBuildDep(d));
+    }
+
+    for (Module m : module.moduleDependencies()) {
+      if (options.packageTargets()) {
+        for (String pkg : packages(m).keySet()) {
+          deps.add(toPackageBuildDep(m.name(), pkg));
+        }
+      } else {
+        deps.add(toBuildDep(m));
+      }
+    }
+
+    return ordered(deps.stream().distinct().toList(), options);
+  }
+
+  // Sorted paths of the main sources of a module, relative to the module directory
+  // The same files as the glob of main sources
+  private static String[] mainSources(Module module) {
+    return StreamSupport.stream(module.files().spliterator(), false)
+        .filter(f -> !isTest(f) && f.fragment().endsWith(".java"))
+        .map(f -> moduleRelativePath(module.name(), f.fragment()).toString())
+        .sorted()
+        .toArray(String[]::new);
+  }
+
+  private static boolean hasTests(Module module) {
+    for (Module.File f : module.files()) {
+      if (isTest(f)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean isTest(Module.File f) {
+    return TEST_FILE_RE.matcher(f.fragment()).matches();
+  }
+
+  // Writes a BUILD.bazel file in each directory containing main sources of this module, so that
+  // changing a file only invalidates its own package and the packages that depend on it.
+  private void writePackageBuildFiles(Module module, ExportedBuilder to, Export.Options options)
+      throws IOException {
+    Map<String, List<Module.File>> packages = packages(module);
+    for (Map.Entry<String, List<Module.File>> pkg : packages.entrySet()) {
+      Path relative = packageDirectory(module.name(), pkg.getKey()).resolve("BUILD.bazel");
+      Path target = Paths.get(moduleName(module.name())).resolve(relative);
+      BuildFile bf =
+          BuildFile.builder()
+              .targetName(packageName(module.name(), pkg.getKey()))
+              .srcs(pkg.getValue().stream().map(f -> fileName(f.fragment())).toArray(String[]::new))
+              .deps(
+                  ordered(
+                      packageDeps(module, pkg.getKey(), pkg.getValue(), packages.keySet()),
+                      options))
+              .build();
+
+      try (OutputStream out = to.newOutputStream(module.name(), relative.toString(), target)) {
+        bf.write(out);
+      }
+    }
+  }
+
+  private List<String> packageDeps(
+      Module module, String directory, List<Module.File> files, Set<String> directories) {
+    List<String> deps = new ArrayList<>();
+    for (Module.Dependency d : module.dependencies()) {
+      deps.add(toBuildDep(d));
+    }
+
+    for (Module m : module.moduleDependencies()) {
+      for (String pkg : packages(m).keySet()) {
+        deps.add(toPackageBuildDep(m.name(), pkg));
+      }
+    }
+
+    // We only know about dependencies between packages of a same module through their imports
+    Map<String, String> internal = new TreeMap<>();
+    for (String pkg : directories) {
+      internal.put(packageName(module.name(), pkg), pkg);
+    }
+
+    Set<String> imported = new TreeSet<>();
+    for (Module.File f : files) {
+      Matcher m = IMPORT_RE.matcher(f.contents());
+      while (m.find()) {
+        importedPackage(m.group(1), internal).ifPresent(imported::add);
+      }
+    }
+
+    imported.remove(directory);
+    for (String pkg : imported) {
+      deps.add(toPackageBuildDep(module.name(), pkg));
+    }
+
+    return deps;
+  }
+
+  // The longest prefix of an imported name that is a package of the current module
+  private static Optional<String> importedPackage(
+      String imported, Map<String, String> packages) {
+    String name = imported;
+    while (true) {
+      if (packages.containsKey(name)) {
+        return Optional.of(packages.get(name));
+      }
+
+      int dot = name.lastIndexOf('.');
+      if (dot < 0) {
+        return Optional.empty();
+      }
+
+      name = name.substring(0, dot);
+    }
+  }
+
+  // Main Java sources of a module, grouped by directory relative to the module root. Directories
+  // without any have no package target.
+  private static Map<String, List<Module.File>> packages(Module module) {
+    Map<String, List<Module.File>> packages = new TreeMap<>();
+    for (Module.File f : module.files()) {
+      if (isTest(f) || !f.fragment().endsWith(".java")) {
+        continue;
+      }
+
+      packages.computeIfAbsent(directory(f.fragment()), k -> new ArrayList<>()).add(f);
+    }
+
+    return packages;
+  }
+
+  private static String directory(String fragment) {
+    Path parent = Paths.get(fragment).getParent();
+    return parent == null ? "" : parent.toString();
+  }
+
+  private static String fileName(String fragment) {
+    return Paths.get(fragment).getFileName().toString();
+  }
+
+  // The path of a package directory, relative to its module directory
+  private static Path packageDirectory(String module, String directory) {
+    return Paths.get(MAIN_DIRECTORY, module.replace(".", "/"), directory);
+  }
+
+  private static String packageName(String module, String directory) {
+    return directory.isEmpty() ? module : module + "." + directory.replace('/', '.');
+  }
+
+  private static String toPackageBuildDep(String module, String directory) {
+    Path pkg = Paths.get(moduleName(module)).resolve(packageDirectory(module, directory));
+    return String.format("//%s:%s", pkg, packageName(module, directory));
   }
 
   // The usual maven multi-module architecture is
@@ -108,13 +392,17 @@ class BazelExporter implements Exporter {
   //    - src/main/java/your/custom/path/Code.java
   // That convention is also used in bazel, but without pom files of course
   private Path relativePath(String module, String fragment) {
+    return Paths.get(moduleName(module)).resolve(moduleRelativePath(module, fragment));
+  }
+
+  private static Path moduleRelativePath(String module, String fragment) {
     String directory = MAIN_DIRECTORY;
     Matcher m = TEST_FILE_RE.matcher(fragment);
     if (m.matches()) {
       directory = TEST_DIRECTORY;
     }
 
-    return Paths.get(moduleName(module), directory, module.replace(".", "/"), fragment);
+    return Paths.get(directory, module.replace(".", "/"), fragment);
   }
 
   private static String moduleName(String module) {
@@ -130,10 +418,7 @@ class BazelExporter implements Exporter {
   }
 
   private static String toBuildDep(Module.Dependency d) {
-    return String.format(
-        "@maven//:%s_%s",
-        d.groupId().replace('-', '_').replace('.', '_'),
-        d.artifactId().replace('-', '_').replace('.', '_'));
+    return ModuleFile.mavenLabel(d.groupId(), d.artifactId());
   }
 
   private static String toModuleDep(Module.Dependency d) {
@@ -0,0 +1,182 @@
+package com.nikodoko.packagetest.internal;
+
+import com.nikodoko.packagetest.CompilationCache;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Stores the classes compiled for modules on disk, in a directory that can be shared by several
+ * processes, with an in-memory front.
+ *
+ * <p>Each entry is a single file named after its key, and is published with an atomic move so that
+ * readers never see partial entries. Hits update the modification time of entries, which is used
+ * to evict the least recently used ones when the cache grows beyond its maximum size.
+ */
+class ClassCache {
+  private static final String EXTENSION = ".classes";
+  // Keyed by identity, so that the classes kept in memory go away with the caches using them
+  private static final Map<CompilationCache, ClassCache> CACHES =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final Path directory;
+  private final long maxSize;
+  // Entries already read or written by this process, in access order
+  private final LinkedHashMap<String, Map<String, byte[]>> memory =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long memorySize = 0;
+
+  private ClassCache(Path directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the cache described by {@code cache}, shared by all the users of {@code cache} in this
+   * process.
+   */
+  static ClassCache of(CompilationCache cache) {
+    return CACHES.computeIfAbsent(cache, c -> new ClassCache(c.directory(), c.maxSize()));
+  }
+
+  /** Returns the classes stored under {@code key}, by binary name. */
+  Optional<Map<String, byte[]>> get(String key) throws IOException {
+    synchronized (this) {
+      Map<String, byte[]> classes = memory.get(key);
+      if (classes != null) {
+        return Optional.of(classes);
+      }
+    }
+
+    Path entry = entry(key);
+    Map<String, byte[]> classes;
+    try {
+      classes = read(entry);
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (NoSuchFileException e) {
+      // Not cached yet, or evicted by another process
+      return Optional.empty();
+    }
+
+    remember(key, classes);
+    return Optional.of(classes);
+  }
+
+  /** Stores {@code classes}, by binary name, under {@code key}. */
+  void put(String key, Map<String, byte[]> classes) throws IOException {
+    Files.createDirectories(directory);
+    Path tmp = Files.createTempFile(directory, key, ".tmp");
+    try {
+      write(tmp, classes);
+      try {
+        Files.move(tmp, entry(key), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, entry(key), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+
+    remember(key, classes);
+    evict();
+  }
+
+  private Path entry(String key) {
+    return directory.resolve(key + EXTENSION);
+  }
+
+  private synchronized void remember(String key, Map<String, byte[]> classes) {
+    if (memory.put(key, classes) == null) {
+      memorySize += size(classes);
+    }
+
+    Iterator<Map<String, byte[]>> eldest = memory.values().iterator();
+    while (memorySize > maxSize && eldest.hasNext()) {
+      memorySize -= size(eldest.next());
+      eldest.remove();
+    }
+  }
+
+  private static long size(Map<String, byte[]> classes) {
+    return classes.values().stream().mapToLong(c -> c.length).sum();
+  }
+
+  // Other processes can read, write and evict entries at the same time
+  private void evict() throws IOException {
+    List<Path> entries;
+    try (Stream<Path> files = Files.list(directory)) {
+      entries = files.filter(f -> f.getFileName().toString().endsWith(EXTENSION)).toList();
+    }
+
+    List<Map.Entry<Path, BasicFileAttributes>> attributes = new ArrayList<>();
+    long total = 0;
+    for (Path e : entries) {
+      try {
+        BasicFileAttributes attrs = Files.readAttributes(e, BasicFileAttributes.class);
+        attributes.add(Map.entry(e, attrs));
+        total += attrs.size();
+      } catch (NoSuchFileException ignored) {
+        // Already evicted
+      }
+    }
+
+    attributes.sort(Comparator.comparing(a -> a.getValue().lastModifiedTime()));
+    for (Map.Entry<Path, BasicFileAttributes> a : attributes) {
+      if (total <= maxSize) {
+        return;
+      }
+
+      Files.deleteIfExists(a.getKey());
+      total -= a.getValue().size();
+    }
+  }
+
+  // An entry is the number of classes, followed by the binary name, length and bytes of each class
+  private static Map<String, byte[]> read(Path entry) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+      Map<String, byte[]> classes = new TreeMap<>();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String name = in.readUTF();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        classes.put(name, bytes);
+      }
+
+      return classes;
+    }
+  }
+
+  private static void write(Path entry, Map<String, byte[]> classes) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(entry)))) {
+      out.writeInt(classes.size());
+      for (Map.Entry<String, byte[]> c : new TreeMap<>(classes).entrySet()) {
+        out.writeUTF(c.getKey());
+        out.writeInt(c.getValue().length);
+        out.write(c.getValue());
+      }
+    }
+  }
+}
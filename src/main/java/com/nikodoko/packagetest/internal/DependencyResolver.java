@@ -0,0 +1,81 @@
+package com.nikodoko.packagetest.internal;
+
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Module;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+/**
+ * Gathers the dependencies of several modules, keeping a single version of each artifact.
+ *
+ * <p>Dependencies are kept in the order in which they are first added, unless output is
+ * reproducible, in which case they are sorted by coordinates. A dependency without a version never
+ * conflicts with one that has a version.
+ */
+class DependencyResolver {
+  /** Orders dependencies by group, artifact and version. */
+  static final Comparator<Module.Dependency> BY_COORDINATES =
+      Comparator.comparing(Module.Dependency::groupId)
+          .thenComparing(Module.Dependency::artifactId)
+          .thenComparing(Module.Dependency::version);
+
+  private final Export.Options.ConflictResolution resolution;
+  private final boolean sorted;
+  private final Map<String, Module.Dependency> resolved = new LinkedHashMap<>();
+
+  DependencyResolver(Export.Options options) {
+    this.resolution = options.conflictResolution();
+    this.sorted = options.fixedModificationTime().isPresent();
+  }
+
+  /**
+   * Adds the dependencies of {@code module}.
+   *
+   * @throws IllegalArgumentException if a dependency conflicts with a previous one and conflicts
+   *     are not allowed
+   */
+  DependencyResolver add(Module module) {
+    for (Module.Dependency d : module.dependencies()) {
+      add(d);
+    }
+
+    return this;
+  }
+
+  private void add(Module.Dependency d) {
+    String key = d.groupId() + ":" + d.artifactId();
+    Module.Dependency existing = resolved.get(key);
+    if (existing == null || existing.version().isEmpty()) {
+      resolved.put(key, d);
+      return;
+    }
+
+    if (d.version().isEmpty() || d.version().equals(existing.version())) {
+      return;
+    }
+
+    if (resolution == Export.Options.ConflictResolution.FAIL) {
+      throw new IllegalArgumentException(
+          String.format("conflicting versions for %s: %s and %s", key, existing, d));
+    }
+
+    if (new ComparableVersion(d.version()).compareTo(new ComparableVersion(existing.version()))
+        > 0) {
+      resolved.put(key, d);
+    }
+  }
+
+  /** Returns the resolved dependencies. */
+  List<Module.Dependency> resolved() {
+    List<Module.Dependency> dependencies = new ArrayList<>(resolved.values());
+    if (sorted) {
+      dependencies.sort(BY_COORDINATES);
+    }
+
+    return dependencies;
+  }
+}
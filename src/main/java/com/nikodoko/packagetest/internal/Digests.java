@@ -0,0 +1,45 @@
+package com.nikodoko.packagetest.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Helpers to compute checksums. */
+public class Digests {
+  private Digests() {}
+
+  static MessageDigest newDigest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform supports MD5, SHA-1 and SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** The digest of {@code contents} using {@code algorithm}, such as {@code "SHA-256"}. */
+  public static byte[] digest(String algorithm, byte[] contents) {
+    return newDigest(algorithm).digest(contents);
+  }
+
+  /** Adds {@code contents} to {@code digest}, prefixed by its length to avoid ambiguities. */
+  static void update(MessageDigest digest, byte[] contents) {
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(contents.length).array());
+    digest.update(contents);
+  }
+
+  static void update(MessageDigest digest, String contents) {
+    update(digest, contents.getBytes(UTF_8));
+  }
+
+  static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+
+    return sb.toString();
+  }
+}
@@ -0,0 +1,53 @@
+package com.nikodoko.packagetest.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+class DirectorySink implements Sink {
+  private final Path root;
+
+  DirectorySink(Path root) {
+    this.root = root;
+  }
+
+  @Override
+  public Path root() {
+    return root;
+  }
+
+  @Override
+  public OutputStream newOutputStream(Path relative) throws IOException {
+    Path target = root.resolve(relative);
+    createDirectories(target.getParent());
+    return new BufferedOutputStream(Files.newOutputStream(target));
+  }
+
+  void createDirectories(Path directory) throws IOException {
+    Files.createDirectories(directory);
+  }
+
+  @Override
+  public void close() {}
+
+  // Assumes that nothing else modifies the root during the export, so that directories only need
+  // to be created once
+  static class Throwaway extends DirectorySink {
+    private final Set<Path> created = new HashSet<>();
+
+    Throwaway(Path root) {
+      super(root);
+    }
+
+    @Override
+    void createDirectories(Path directory) throws IOException {
+      if (created.add(directory)) {
+        Files.createDirectories(directory);
+      }
+    }
+  }
+}
@@ -1,21 +1,63 @@
 package com.nikodoko.packagetest.internal;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.nikodoko.packagetest.Export;
 import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.StreamSupport;
 
 class ExportedBuilder {
-  private Path root;
+  private final Sink sink;
+  private final String exporter;
+  private final Export.Options options;
+  // Hashes are only needed by the manifest, which archives and throwaway projects do without
+  private final boolean manifest;
   private Map<String, Map<String, Path>> written = new HashMap<>();
+  private Map<Path, byte[]> hashes = new HashMap<>();
+  private Map<String, List<String>> dependencies = new HashMap<>();
+  // Exporters write modules one after the other
+  private Optional<String> current = Optional.empty();
 
-  ExportedBuilder root(Path root) {
-    this.root = root;
-    return this;
+  ExportedBuilder(Sink sink, String exporter, Export.Options options) {
+    this.sink = sink;
+    this.exporter = exporter;
+    this.options = options;
+    this.manifest = !sink.root().toString().isEmpty() && !options.throwawayProjects();
   }
 
   Path root() {
-    return root;
+    return sink.root();
+  }
+
+  /**
+   * Records {@code module} and the names of the modules it depends on, and starts writing its
+   * files.
+   */
+  ExportedBuilder addModule(Module module) {
+    finishModule();
+    current = Optional.of(module.name());
+    List<String> deps =
+        StreamSupport.stream(module.moduleDependencies().spliterator(), false)
+            .map(Module::name)
+            .toList();
+    dependencies.put(module.name(), deps);
+    return this;
   }
 
   ExportedBuilder markAsWritten(String module, String fragment, Path path) {
@@ -29,7 +71,121 @@ class ExportedBuilder {
     return this;
   }
 
-  Exported build() {
-    return new Exported(root, written);
+  /**
+   * Opens a stream to write the file of {@code module} designated by {@code fragment}, located at
+   * {@code relative} from the root, and marks it as written.
+   */
+  OutputStream newOutputStream(String module, String fragment, Path relative) throws IOException {
+    Path path = root().resolve(relative);
+    OutputStream out = sink.newOutputStream(relative);
+    markAsWritten(module, fragment, path);
+    MessageDigest digest = manifest ? Manifest.newDigest() : null;
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(int b) throws IOException {
+        if (digest != null) {
+          digest.update((byte) b);
+        }
+
+        out.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        if (digest != null) {
+          digest.update(b, off, len);
+        }
+
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        super.close();
+        if (digest != null) {
+          hashes.put(path, digest.digest());
+        }
+
+        sink.written(module, fragment, path);
+      }
+    };
+  }
+
+  /** Writes the source {@code file} of {@code module}, located at {@code relative}. */
+  ExportedBuilder writeSource(String module, Module.File file, Path relative) throws IOException {
+    Path path = root().resolve(relative);
+    byte[] contents = file.contents().getBytes(UTF_8);
+    sink.writeSource(module, file.fragment(), relative, contents);
+    if (manifest) {
+      hashes.put(path, Manifest.newDigest().digest(contents));
+    }
+
+    sink.written(module, file.fragment(), path);
+    return markAsWritten(module, file.fragment(), path);
+  }
+
+  /** Marks the module being written as done, if any. */
+  void finishModule() {
+    current.ifPresent(sink::moduleWritten);
+    current = Optional.empty();
+  }
+
+  Exported build() throws IOException {
+    finishModule();
+    // Archives are attached to once extracted, where the modification times differ anyway
+    if (!root().toString().isEmpty()) {
+      Optional<FileTime> time = options.fixedModificationTime().map(FileTime::from);
+      if (time.isPresent()) {
+        Set<Path> files = new HashSet<>();
+        written.values().forEach(m -> files.addAll(m.values()));
+        setModificationTime(files, time.get());
+      }
+
+      // Throwaway projects are never reattached to
+      if (manifest) {
+        writeManifest();
+        if (time.isPresent()) {
+          setModificationTime(Set.of(root().resolve(Manifest.NAME)), time.get());
+        }
+      }
+    }
+
+    // Files that do not belong to a module
+    sink.moduleWritten("");
+    return new Exported(root(), written, dependencies);
+  }
+
+  // Directories are updated too, as writing files in them changes their modification time
+  private void setModificationTime(Set<Path> files, FileTime time) throws IOException {
+    Set<Path> paths = new TreeSet<>();
+    for (Path file : files) {
+      for (Path p = file; p != null && p.startsWith(root()); p = p.getParent()) {
+        paths.add(p);
+      }
+    }
+
+    for (Path p : paths) {
+      Files.setLastModifiedTime(p, time);
+    }
+  }
+
+  // Written last, once all files have their final modification time
+  private void writeManifest() throws IOException {
+    Map<String, Map<String, Manifest.Entry>> files = new HashMap<>();
+    for (Map.Entry<String, Map<String, Path>> m : written.entrySet()) {
+      Map<String, Manifest.Entry> entries = new HashMap<>();
+      for (Map.Entry<String, Path> f : m.getValue().entrySet()) {
+        Path path = f.getValue();
+        entries.put(f.getKey(), Manifest.Entry.of(root(), path, hashes.get(path)));
+      }
+
+      files.put(m.getKey(), entries);
+    }
+
+    Manifest manifest =
+        new Manifest(exporter, Manifest.describe(options), dependencies, files);
+    try (OutputStream out = sink.newOutputStream(Paths.get(Manifest.NAME))) {
+      manifest.write(out);
+    }
   }
 }
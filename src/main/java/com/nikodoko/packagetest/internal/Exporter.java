@@ -27,11 +27,68 @@ public interface Exporter {
    *
    * @param modules a list of modules forming a project
    * @param repositories a list of repositories in which dependencies for the project are located
-   * @param root a path to a root directory
+   * @param options options to use for the export, including the root directory
    * @return information about the successful export
    * @throws IOException if an I/O error occurs
    */
-  public Exported export(
+  public default Exported export(
       List<Repository> repositories, List<Module> modules, Export.Options options)
+      throws IOException {
+    return export(repositories, modules, options, Sink.directory(options.root(), options));
+  }
+
+  /**
+   * Exports a project to a given {@link Sink}, ignoring the root set in {@code options}.
+   *
+   * @param modules a list of modules forming a project
+   * @param repositories a list of repositories in which dependencies for the project are located
+   * @param options options to use for the export
+   * @param sink where to write the project files
+   * @return information about the successful export
+   * @throws IOException if an I/O error occurs
+   */
+  public default Exported export(
+      List<Repository> repositories, List<Module> modules, Export.Options options, Sink sink)
+      throws IOException {
+    Session session = begin(repositories, options, sink);
+    for (Module m : modules) {
+      session.add(m);
+    }
+
+    return session.finish();
+  }
+
+  /**
+   * Starts exporting a project to a given {@link Sink}, ignoring the root set in {@code options}.
+   *
+   * <p>Modules are then written one by one as they are added to the returned {@link Session}, and
+   * files depending on all modules are written when it is finished, so that modules do not need to
+   * be kept in memory for the whole export. The paths of written files are kept until then.
+   *
+   * @param repositories a list of repositories in which dependencies for the project are located
+   * @param options options to use for the export
+   * @param sink where to write the project files
+   * @return the export in progress
+   * @throws IOException if an I/O error occurs
+   */
+  public Session begin(List<Repository> repositories, Export.Options options, Sink sink)
       throws IOException;
+
+  /** An export in progress. */
+  public interface Session {
+    /**
+     * Writes all the files of {@code module}.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void add(Module module) throws IOException;
+
+    /**
+     * Writes the files depending on all modules, and ends the export.
+     *
+     * @return information about the successful export
+     * @throws IOException if an I/O error occurs
+     */
+    Exported finish() throws IOException;
+  }
 }
@@ -0,0 +1,125 @@
+package com.nikodoko.packagetest.internal;
+
+import com.nikodoko.packagetest.Module;
+import com.nikodoko.packagetest.Repository;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.DefaultModelWriter;
+
+/**
+ * A Maven repository generated next to an exported project, containing stub artifacts for its
+ * dependencies.
+ *
+ * <p>Each dependency with a version gets an empty jar, an empty sources jar and a minimal pom,
+ * along with their checksums, so that builds of the exported project can resolve dependencies
+ * offline.
+ */
+class LocalRepository {
+  static final String NAME = "packagetest-local";
+  static final String DIRECTORY = "local-repository";
+
+  private final Repository repository;
+  private final Map<Module.Dependency, String> jarSha256 = new HashMap<>();
+
+  private LocalRepository(Repository repository) {
+    this.repository = repository;
+  }
+
+  /**
+   * Returns the repository located under the root of {@code to}, which is empty until {@link
+   * #write} is called.
+   *
+   * @throws IllegalArgumentException if the root of {@code to} is not a directory
+   */
+  static LocalRepository at(ExportedBuilder to) {
+    if (to.root().toString().isEmpty()) {
+      throw new IllegalArgumentException("local repositories can only be exported to a directory");
+    }
+
+    // Path.toUri only adds a trailing slash to existing directories
+    String url = to.root().toAbsolutePath().resolve(DIRECTORY).toUri().toString();
+    if (url.endsWith("/")) {
+      url = url.substring(0, url.length() - 1);
+    }
+
+    return new LocalRepository(Repository.named(NAME).at(url));
+  }
+
+  /** Writes stub artifacts for {@code dependencies} in this repository. */
+  LocalRepository write(ExportedBuilder to, List<Module.Dependency> dependencies)
+      throws IOException {
+    for (Module.Dependency d : dependencies) {
+      if (d.version().isEmpty()) {
+        continue;
+      }
+
+      jarSha256.put(d, writeArtifact(to, d));
+    }
+
+    return this;
+  }
+
+  /** The description of this repository, to use in build files. */
+  Repository repository() {
+    return repository;
+  }
+
+  /** The SHA-256 checksum of the jar of {@code dependency}, if it is part of this repository. */
+  Optional<String> jarSha256(Module.Dependency dependency) {
+    return Optional.ofNullable(jarSha256.get(dependency));
+  }
+
+  // Uses the standard layout: group/id/artifactId/version/artifactId-version[-classifier].ext
+  private String writeArtifact(ExportedBuilder to, Module.Dependency d) throws IOException {
+    Path directory =
+        Paths.get(DIRECTORY, d.groupId().replace('.', '/'), d.artifactId(), d.version());
+    String base = d.artifactId() + "-" + d.version();
+    byte[] jar = emptyJar();
+    writeWithChecksums(to, directory.resolve(base + ".jar"), jar);
+    writeWithChecksums(to, directory.resolve(base + "-sources.jar"), jar);
+    writeWithChecksums(to, directory.resolve(base + ".pom"), pom(d));
+    return Digests.hex(Digests.digest("SHA-256", jar));
+  }
+
+  private static void writeWithChecksums(ExportedBuilder to, Path relative, byte[] contents)
+      throws IOException {
+    write(to, relative, contents);
+    String sha1 = Digests.hex(Digests.digest("SHA-1", contents));
+    write(to, Paths.get(relative + ".sha1"), sha1.getBytes(StandardCharsets.US_ASCII));
+    String md5 = Digests.hex(Digests.digest("MD5", contents));
+    write(to, Paths.get(relative + ".md5"), md5.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static void write(ExportedBuilder to, Path relative, byte[] contents)
+      throws IOException {
+    try (OutputStream out = to.newOutputStream("", relative.toString(), relative)) {
+      out.write(contents);
+    }
+  }
+
+  private static byte[] emptyJar() throws IOException {
+    ByteArrayOutputStream jar = new ByteArrayOutputStream();
+    ZipSink.jar(jar).close();
+    return jar.toByteArray();
+  }
+
+  private static byte[] pom(Module.Dependency d) throws IOException {
+    Model m = new Model();
+    m.setModelVersion("4.0.0");
+    m.setGroupId(d.groupId());
+    m.setArtifactId(d.artifactId());
+    m.setVersion(d.version());
+    ByteArrayOutputStream pom = new ByteArrayOutputStream();
+    new DefaultModelWriter().write(pom, null, m);
+    return pom.toByteArray();
+  }
+}
@@ -0,0 +1,279 @@
+package com.nikodoko.packagetest.internal;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Describes an export on disk, so that it can be attached to from another process without being
+ * exported again.
+ *
+ * <p>The manifest lists the files of each module along with their size, modification time and
+ * SHA-256, as well as the exporter and options used. Files whose size and modification time did not
+ * change are trusted without being read.
+ */
+public final class Manifest {
+  /** The name of the manifest, written at the root of the export. */
+  public static final String NAME = ".packagetest-manifest";
+
+  private static final int MAGIC = 0x50544d46;
+  private static final int VERSION = 1;
+  private static final String HASH = "SHA-256";
+
+  private final String exporter;
+  private final Map<String, String> options;
+  private final Map<String, List<String>> dependencies;
+  private final Map<String, Map<String, Entry>> files;
+
+  Manifest(
+      String exporter,
+      Map<String, String> options,
+      Map<String, List<String>> dependencies,
+      Map<String, Map<String, Entry>> files) {
+    this.exporter = exporter;
+    this.options = options;
+    this.dependencies = dependencies;
+    this.files = files;
+  }
+
+  /** A file, its path being relative to the root of the export. */
+  static final class Entry {
+    private final String relative;
+    private final long size;
+    private final long modified;
+    private final byte[] sha256;
+
+    Entry(String relative, long size, long modified, byte[] sha256) {
+      this.relative = relative;
+      this.size = size;
+      this.modified = modified;
+      this.sha256 = sha256;
+    }
+
+    static Entry of(Path root, Path path, byte[] sha256) throws IOException {
+      BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      return new Entry(
+          root.relativize(path).toString(),
+          attrs.size(),
+          attrs.lastModifiedTime().toMillis(),
+          sha256);
+    }
+
+    String relative() {
+      return relative;
+    }
+
+    long size() {
+      return size;
+    }
+
+    long modified() {
+      return modified;
+    }
+
+    byte[] sha256() {
+      return sha256;
+    }
+  }
+
+  static MessageDigest newDigest() {
+    return Digests.newDigest(HASH);
+  }
+
+  /** Describes the options affecting the contents of an export, which excludes the root. */
+  static Map<String, String> describe(Export.Options options) {
+    Map<String, String> described = new TreeMap<>();
+    described.put("packageTargets", String.valueOf(options.packageTargets()));
+    described.put("testTargets", String.valueOf(options.testTargets()));
+    described.put("testShardCount", String.valueOf(options.testShardCount()));
+    described.put("testSize", options.testSize());
+    described.put("conflictResolution", options.conflictResolution().name());
+    described.put("pinnedDependencies", String.valueOf(options.pinnedDependencies()));
+    described.put("localRepository", String.valueOf(options.localRepository()));
+    described.put("parentPom", String.valueOf(options.parentPom()));
+    described.put("explicitSources", String.valueOf(options.explicitSources()));
+    options
+        .fixedModificationTime()
+        .ifPresent(t -> described.put("fixedModificationTime", t.toString()));
+    options
+        .buildCache()
+        .ifPresent(
+            c -> {
+              described.put("buildCache.directory", c.directory().toString());
+              described.put("buildCache.jobs", String.valueOf(c.jobs()));
+              described.put("buildCache.offline", String.valueOf(c.isOffline()));
+            });
+    return described;
+  }
+
+  /**
+   * Reads the manifest at the root of an export.
+   *
+   * @return the manifest, or an empty optional if there is none or it cannot be read
+   * @throws IOException if an I/O error occurs
+   */
+  public static Optional<Manifest> read(Path root) throws IOException {
+    try (InputStream in = Files.newInputStream(root.resolve(NAME))) {
+      return read(new DataInputStream(new BufferedInputStream(in)));
+    } catch (NoSuchFileException | EOFException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Whether this manifest was written by an export with {@code buildSystem} and {@code options}.
+   */
+  public boolean matches(BuildSystem buildSystem, Export.Options options) {
+    return exporter.equals(ExporterFactory.create(buildSystem).name())
+        && this.options.equals(describe(options));
+  }
+
+  /**
+   * Checks that the files listed in this manifest are still on disk under {@code root}, unchanged.
+   *
+   * @return the corresponding export, or an empty optional if any file is missing or changed
+   * @throws IOException if an I/O error occurs
+   */
+  public Optional<Exported> attach(Path root) throws IOException {
+    Map<String, Map<String, Path>> written = new HashMap<>();
+    for (Map.Entry<String, Map<String, Entry>> module : files.entrySet()) {
+      Map<String, Path> paths = new HashMap<>();
+      for (Map.Entry<String, Entry> file : module.getValue().entrySet()) {
+        Path path = root.resolve(file.getValue().relative());
+        if (!unchanged(path, file.getValue())) {
+          return Optional.empty();
+        }
+
+        paths.put(file.getKey(), path);
+      }
+
+      written.put(module.getKey(), paths);
+    }
+
+    return Optional.of(new Exported(root, written, dependencies));
+  }
+
+  private static boolean unchanged(Path path, Entry entry) throws IOException {
+    BasicFileAttributes attrs;
+    try {
+      attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+
+    if (attrs.size() != entry.size()) {
+      return false;
+    }
+
+    if (attrs.lastModifiedTime().toMillis() == entry.modified()) {
+      return true;
+    }
+
+    // Touched, but maybe not modified
+    return Arrays.equals(Digests.digest(HASH, Files.readAllBytes(path)), entry.sha256());
+  }
+
+  // The manifest is a header followed by the exporter, options, and modules with their
+  // dependencies and files
+  void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeUTF(exporter);
+    data.writeInt(options.size());
+    for (Map.Entry<String, String> o : new TreeMap<>(options).entrySet()) {
+      data.writeUTF(o.getKey());
+      data.writeUTF(o.getValue());
+    }
+
+    Map<String, Map<String, Entry>> modules = new TreeMap<>(files);
+    dependencies.keySet().forEach(m -> modules.putIfAbsent(m, Map.of()));
+    data.writeInt(modules.size());
+    for (Map.Entry<String, Map<String, Entry>> m : modules.entrySet()) {
+      data.writeUTF(m.getKey());
+      List<String> deps = dependencies.getOrDefault(m.getKey(), List.of());
+      data.writeInt(deps.size());
+      for (String d : deps) {
+        data.writeUTF(d);
+      }
+
+      data.writeInt(m.getValue().size());
+      for (Map.Entry<String, Entry> f : new TreeMap<>(m.getValue()).entrySet()) {
+        data.writeUTF(f.getKey());
+        data.writeUTF(f.getValue().relative());
+        data.writeLong(f.getValue().size());
+        data.writeLong(f.getValue().modified());
+        data.writeInt(f.getValue().sha256().length);
+        data.write(f.getValue().sha256());
+      }
+    }
+
+    data.flush();
+  }
+
+  private static Optional<Manifest> read(DataInputStream data) throws IOException {
+    if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+      return Optional.empty();
+    }
+
+    String exporter = data.readUTF();
+    Map<String, String> options = new TreeMap<>();
+    int optionCount = data.readInt();
+    for (int i = 0; i < optionCount; i++) {
+      options.put(data.readUTF(), data.readUTF());
+    }
+
+    Map<String, List<String>> dependencies = new HashMap<>();
+    Map<String, Map<String, Entry>> files = new HashMap<>();
+    int moduleCount = data.readInt();
+    for (int i = 0; i < moduleCount; i++) {
+      String module = data.readUTF();
+      int depCount = data.readInt();
+      List<String> deps = new ArrayList<>(depCount);
+      for (int j = 0; j < depCount; j++) {
+        deps.add(data.readUTF());
+      }
+
+      // Files that do not belong to any module have no dependencies
+      if (!module.isEmpty()) {
+        dependencies.put(module, deps);
+      }
+
+      Map<String, Entry> entries = new HashMap<>();
+      int fileCount = data.readInt();
+      for (int j = 0; j < fileCount; j++) {
+        String fragment = data.readUTF();
+        String relative = data.readUTF();
+        long size = data.readLong();
+        long modified = data.readLong();
+        byte[] sha256 = new byte[data.readInt()];
+        data.readFully(sha256);
+        entries.put(fragment, new Entry(relative, size, modified, sha256));
+      }
+
+      files.put(module, entries);
+    }
+
+    return Optional.of(new Manifest(exporter, options, dependencies, files));
+  }
+}
@@ -2,22 +2,30 @@ package com.nikodoko.packagetest.internal;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.nikodoko.packagetest.BuildCache;
 import com.nikodoko.packagetest.Export;
 import com.nikodoko.packagetest.Exported;
 import com.nikodoko.packagetest.Module;
 import com.nikodoko.packagetest.Repository;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.DependencyManagement;
 import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
 import org.apache.maven.model.io.DefaultModelWriter;
 import org.apache.maven.model.io.ModelWriter;
 
@@ -29,7 +37,12 @@ class MavenExporter implements Exporter {
   private static final String PROJECT_GROUP_ID = "packagetest.maven";
   private static final String PROJECT_MODEL_VERSION = "4.0.0";
   private static final String PROJECT_VERSION = "1.0.0";
+  private static final String ROOT_ARTIFACT_ID = "packagetest-root";
+  private static final String LOCAL_REPOSITORY = "maven-repository";
+  private static final String BUILD_CACHE = "maven-build-cache";
+  private static final String BUILD_CACHE_EXTENSION_VERSION = "1.2.0";
   private static final String VERSION_PROPERTY_TEMPLATE = "%s.version";
+  private static final String QUALIFIED_VERSION_PROPERTY_TEMPLATE = "%s.%s.version";
 
   @Override
   public String name() {
@@ -37,29 +50,63 @@ class MavenExporter implements Exporter {
   }
 
   @Override
-  public Exported export(
-      List<Repository> repositories, List<Module> modules, Export.Options options)
-      throws IOException {
-    ExportedBuilder to = new ExportedBuilder().root(options.root());
-    for (Module m : modules) {
-      exportModule(m, to);
-    }
+  public Session begin(List<Repository> repositories, Export.Options options, Sink sink) {
+    ExportedBuilder to = new ExportedBuilder(sink, name(), options);
+    List<Repository> allRepositories = new ArrayList<>(repositories);
+    // The local repository is only referenced by URL in poms, and filled in at the end
+    Optional<LocalRepository> local =
+        options.localRepository() ? Optional.of(LocalRepository.at(to)) : Optional.empty();
+    local.ifPresent(r -> allRepositories.add(0, r.repository()));
+    // Only the root pom emits a single version of each dependency, module poms declaring their own
+    DependencyResolver resolver = new DependencyResolver(options);
+    Set<Module.Dependency> versions = new LinkedHashSet<>();
+    // The root pom aggregates all modules, so that they are built as a single reactor
+    List<String> modules = new ArrayList<>();
+    return new Session() {
+      @Override
+      public void add(Module module) throws IOException {
+        if (options.parentPom()) {
+          resolver.add(module);
+        } else if (local.isPresent()) {
+          module.dependencies().forEach(versions::add);
+        }
+
+        exportModule(module, allRepositories, to, options);
+        modules.add(moduleName(module.name()));
+        to.finishModule();
+      }
+
+      @Override
+      public Exported finish() throws IOException {
+        if (local.isPresent()) {
+          List<Module.Dependency> stubbed =
+              options.parentPom() ? resolver.resolved() : sorted(versions, options);
+          local.get().write(to, stubbed);
+        }
 
-    return to.build();
+        writeRootPom(modules, allRepositories, resolver, to, options);
+        if (options.buildCache().isPresent()) {
+          writeMavenConfig(to, options.buildCache().get());
+        }
+
+        return to.build();
+      }
+    };
   }
 
-  private void exportModule(Module module, ExportedBuilder to) throws IOException {
-    writePom(module, to, minimalPom(module));
-    for (Module.File f : module.files()) {
-      Path fullpath = filename(to.root(), module.name(), f.fragment());
-      Files.createDirectories(fullpath.getParent());
-      Files.write(fullpath, f.contents().getBytes(UTF_8));
-      to.markAsWritten(module.name(), f.fragment(), fullpath);
+  private void exportModule(
+      Module module, List<Repository> repositories, ExportedBuilder to, Export.Options options)
+      throws IOException {
+    to.addModule(module);
+    Model pom = options.parentPom() ? childPom(module, options) : minimalPom(module, options);
+    if (!options.parentPom()) {
+      pom.setRepositories(repositories(repositories));
     }
-  }
 
-  private Path filename(Path root, String module, String fragment) {
-    return root.resolve(relativePath(module, fragment));
+    writePom(module, to, pom);
+    for (Module.File f : module.files()) {
+      to.writeSource(module.name(), f, relativePath(module.name(), f.fragment()));
+    }
   }
 
   // The usual maven multi-module architecture is
@@ -87,15 +134,31 @@ class MavenExporter implements Exporter {
     return module.replace(".", "");
   }
 
-  private Model minimalPom(Module module) {
+  private Model minimalPom(Module module, Export.Options options) {
+    List<Module.Dependency> declared = declared(module, options);
     Model m = new Model();
     m.setModelVersion(PROJECT_MODEL_VERSION);
     m.setGroupId(PROJECT_GROUP_ID);
     m.setVersion(PROJECT_VERSION);
     m.setArtifactId(artifactId(module));
-    m.setDependencies(dependencies(module));
-    m.setDependencyManagement(dependencyManagement(module));
-    m.setProperties(properties(module));
+    m.setDependencies(dependencies(module, options));
+    m.setDependencyManagement(dependencyManagement(declared, false));
+    m.setProperties(properties(declared, false, options));
+    return m;
+  }
+
+  // Coordinates, versions and repositories are all inherited from the root pom
+  private Model childPom(Module module, Export.Options options) {
+    Parent parent = new Parent();
+    parent.setGroupId(PROJECT_GROUP_ID);
+    parent.setArtifactId(ROOT_ARTIFACT_ID);
+    parent.setVersion(PROJECT_VERSION);
+
+    Model m = new Model();
+    m.setModelVersion(PROJECT_MODEL_VERSION);
+    m.setParent(parent);
+    m.setArtifactId(artifactId(module));
+    m.setDependencies(dependencies(module, options));
     return m;
   }
 
@@ -103,13 +166,24 @@ class MavenExporter implements Exporter {
     return module.name().replace(".", "-");
   }
 
-  private List<Dependency> dependencies(Module module) {
-    if (module.moduleDependencies().iterator().hasNext()) {
-      throw new IllegalArgumentException(NAME + " does not support module dependencies");
+  private List<Dependency> dependencies(Module module, Export.Options options) {
+    List<Module> modules = new ArrayList<>();
+    module.moduleDependencies().forEach(modules::add);
+    if (options.fixedModificationTime().isPresent()) {
+      modules.sort(Comparator.comparing(Module::name));
     }
 
     List<Dependency> dependencies = new ArrayList<>();
-    for (Module.Dependency moduleDependency : module.dependencies()) {
+    // Gives the reactor the dependency graph between modules
+    for (Module m : modules) {
+      Dependency dependency = new Dependency();
+      dependency.setGroupId(PROJECT_GROUP_ID);
+      dependency.setArtifactId(artifactId(m));
+      dependency.setVersion(PROJECT_VERSION);
+      dependencies.add(dependency);
+    }
+
+    for (Module.Dependency moduleDependency : declared(module, options)) {
       Dependency dependency = new Dependency();
       dependency.setGroupId(moduleDependency.groupId());
       dependency.setArtifactId(moduleDependency.artifactId());
@@ -119,10 +193,39 @@ class MavenExporter implements Exporter {
     return dependencies;
   }
 
-  private DependencyManagement dependencyManagement(Module module) {
+  private static List<Module.Dependency> declared(Module module, Export.Options options) {
+    return sorted(module.dependencies(), options);
+  }
+
+  // Dependencies are sorted when output is reproducible, and kept in declaration order otherwise
+  private static List<Module.Dependency> sorted(
+      Iterable<Module.Dependency> dependencies, Export.Options options) {
+    List<Module.Dependency> sorted = new ArrayList<>();
+    dependencies.forEach(sorted::add);
+    if (options.fixedModificationTime().isPresent()) {
+      sorted.sort(DependencyResolver.BY_COORDINATES);
+    }
+
+    return sorted;
+  }
+
+  private List<org.apache.maven.model.Repository> repositories(List<Repository> repositories) {
+    List<org.apache.maven.model.Repository> repos = new ArrayList<>();
+    for (Repository r : repositories) {
+      org.apache.maven.model.Repository repo = new org.apache.maven.model.Repository();
+      repo.setId(r.name());
+      repo.setUrl(r.url());
+      repos.add(repo);
+    }
+
+    return repos;
+  }
+
+  private DependencyManagement dependencyManagement(
+      Iterable<Module.Dependency> declared, boolean qualified) {
     DependencyManagement dependencyManagement = new DependencyManagement();
     List<Dependency> dependencies = new ArrayList<>();
-    for (Module.Dependency moduleDependency : module.dependencies()) {
+    for (Module.Dependency moduleDependency : declared) {
       if (moduleDependency.version().equals("")) {
         continue;
       }
@@ -130,9 +233,7 @@ class MavenExporter implements Exporter {
       Dependency dependency = new Dependency();
       dependency.setGroupId(moduleDependency.groupId());
       dependency.setArtifactId(moduleDependency.artifactId());
-      dependency.setVersion(
-          String.format(
-              "${%s}", String.format(VERSION_PROPERTY_TEMPLATE, moduleDependency.artifactId())));
+      dependency.setVersion(String.format("${%s}", versionProperty(moduleDependency, qualified)));
       dependencies.add(dependency);
     }
 
@@ -140,25 +241,111 @@ class MavenExporter implements Exporter {
     return dependencyManagement;
   }
 
-  private Properties properties(Module module) {
-    Properties props = new Properties();
-    for (Module.Dependency moduleDependency : module.dependencies()) {
+  private Properties properties(
+      Iterable<Module.Dependency> declared, boolean qualified, Export.Options options) {
+    Properties props =
+        options.fixedModificationTime().isPresent() ? new SortedProperties() : new Properties();
+    for (Module.Dependency moduleDependency : declared) {
       if (moduleDependency.version().equals("")) {
         continue;
       }
 
-      props.setProperty(
-          String.format(VERSION_PROPERTY_TEMPLATE, moduleDependency.artifactId()),
-          moduleDependency.version());
+      props.setProperty(versionProperty(moduleDependency, qualified), moduleDependency.version());
     }
 
     return props;
   }
 
+  // Qualified properties include the group id as well as the artifact id
+  private static String versionProperty(Module.Dependency dependency, boolean qualified) {
+    if (qualified) {
+      return String.format(
+          QUALIFIED_VERSION_PROPERTY_TEMPLATE, dependency.groupId(), dependency.artifactId());
+    }
+
+    return String.format(VERSION_PROPERTY_TEMPLATE, dependency.artifactId());
+  }
+
+  // When modules inherit from the root pom, it declares the versions of all their dependencies
+  private void writeRootPom(
+      List<String> modules,
+      List<Repository> repositories,
+      DependencyResolver resolver,
+      ExportedBuilder to,
+      Export.Options options)
+      throws IOException {
+    Model m = new Model();
+    m.setModelVersion(PROJECT_MODEL_VERSION);
+    m.setGroupId(PROJECT_GROUP_ID);
+    m.setArtifactId(ROOT_ARTIFACT_ID);
+    m.setVersion(PROJECT_VERSION);
+    m.setPackaging("pom");
+    m.setModules(
+        options.fixedModificationTime().isPresent() ? modules.stream().sorted().toList() : modules);
+    if (options.parentPom()) {
+      List<Module.Dependency> resolved = resolver.resolved();
+      // Dependencies of all modules are gathered, so artifact ids alone are likely to collide
+      m.setDependencyManagement(dependencyManagement(resolved, true));
+      m.setProperties(properties(resolved, true, options));
+      m.setRepositories(repositories(repositories));
+    }
+
+    ModelWriter writer = new DefaultModelWriter();
+    try (OutputStream out = to.newOutputStream("", "pom.xml", Paths.get("pom.xml"))) {
+      writer.write(out, null, m);
+    }
+  }
+
+  // Each line of maven.config is a single argument
+  private void writeMavenConfig(ExportedBuilder to, BuildCache cache) throws IOException {
+    Path directory = cache.directory();
+    List<String> args = new ArrayList<>();
+    args.add("--threads=" + cache.jobs());
+    if (cache.isOffline()) {
+      args.add("--offline");
+    }
+
+    args.add("-Dmaven.repo.local=" + directory.resolve(LOCAL_REPOSITORY));
+    args.add("-Dmaven.build.cache.location=" + directory.resolve(BUILD_CACHE));
+    writeConfig(to, "maven.config", String.join("\n", args) + "\n");
+    // Builds of test projects are short, and mostly spent starting up
+    writeConfig(to, "jvm.config", "-XX:+TieredCompilation -XX:TieredStopAtLevel=1\n");
+    writeConfig(
+        to,
+        "extensions.xml",
+        String.join(
+            "\n",
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+            "<extensions>",
+            "  <extension>",
+            "    <groupId>org.apache.maven.extensions</groupId>",
+            "    <artifactId>maven-build-cache-extension</artifactId>",
+            "    <version>" + BUILD_CACHE_EXTENSION_VERSION + "</version>",
+            "  </extension>",
+            "</extensions>",
+            ""));
+  }
+
+  private void writeConfig(ExportedBuilder to, String name, String contents) throws IOException {
+    String fragment = ".mvn/" + name;
+    try (OutputStream out = to.newOutputStream("", fragment, Paths.get(".mvn", name))) {
+      out.write(contents.getBytes(UTF_8));
+    }
+  }
+
   private void writePom(Module module, ExportedBuilder to, Model pom) throws IOException {
     ModelWriter writer = new DefaultModelWriter();
-    Path target = to.root().resolve(Paths.get(moduleName(module.name()), "pom.xml"));
-    writer.write(target.toFile(), null, pom);
-    to.markAsWritten(module.name(), "pom.xml", target);
+    Path target = Paths.get(moduleName(module.name()), "pom.xml");
+    try (OutputStream out = to.newOutputStream(module.name(), "pom.xml", target)) {
+      writer.write(out, null, pom);
+    }
+  }
+
+  // Poms list properties in the order of keySet, which is the hash order of Properties
+  private static class SortedProperties extends Properties {
+    @Override
+    public Set<Object> keySet() {
+      return Collections.unmodifiableSet(new TreeSet<>(super.keySet()));
+    }
   }
 }
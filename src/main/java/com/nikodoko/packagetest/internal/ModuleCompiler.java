@@ -0,0 +1,405 @@
+package com.nikodoko.packagetest.internal;
+
+import com.nikodoko.packagetest.Compilation;
+import com.nikodoko.packagetest.CompilationCache;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles the main sources of exported modules in process, using the system Java compiler.
+ *
+ * <p>Modules are compiled in dependency order, independent modules in parallel, and classes are
+ * kept in memory: each module sees the classes of all the modules it (transitively) depends on.
+ *
+ * <p>When a cache is used, the classes of a module are stored under a hash of its sources and of
+ * the classes of the modules it depends on, so that unchanged modules are not compiled again.
+ */
+public class ModuleCompiler {
+  private static final Pattern TEST_FILE_RE = Pattern.compile(".+Test\\.java");
+  // Annotation processors present on the classpath are not part of the exported project
+  private static final List<String> OPTIONS = List.of("-proc:none");
+  // Changes whenever the way classes are cached changes
+  private static final String CACHE_KEY_VERSION = "1";
+
+  private final JavaCompiler compiler;
+  private final Map<String, Map<String, Path>> sources;
+  private final Map<String, List<String>> dependencies;
+  private final List<Path> classpath;
+  private final Optional<ClassCache> cache;
+  private final Map<String, CompletableFuture<Result>> results = new LinkedHashMap<>();
+
+  private ModuleCompiler(
+      JavaCompiler compiler,
+      Map<String, Map<String, Path>> sources,
+      Map<String, List<String>> dependencies,
+      List<Path> classpath,
+      Optional<ClassCache> cache) {
+    this.compiler = compiler;
+    this.sources = sources;
+    this.dependencies = dependencies;
+    this.classpath = classpath;
+    this.cache = cache;
+  }
+
+  /**
+   * Compiles the main sources of exported modules.
+   *
+   * @param written the files written for each module, by fragment
+   * @param dependencies the names of the modules each module depends on
+   * @param classpath additional jars or directories to compile against
+   * @param cache where to cache compiled classes, if anywhere
+   * @throws IOException if an I/O error occurs
+   * @throws IllegalArgumentException if module dependencies contain a cycle
+   * @throws IllegalStateException if no Java compiler is available
+   */
+  public static Compilation compile(
+      Map<String, Map<String, Path>> written,
+      Map<String, List<String>> dependencies,
+      List<Path> classpath,
+      Optional<CompilationCache> cache)
+      throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null) {
+      throw new IllegalStateException("no Java compiler available, is this a JRE?");
+    }
+
+    // Files not belonging to a module (build files...) are written under the empty name
+    Set<String> modules = new TreeSet<>(dependencies.keySet());
+    modules.addAll(written.keySet());
+    modules.remove("");
+    Map<String, Map<String, Path>> sources = new HashMap<>();
+    for (String m : modules) {
+      sources.put(m, mainSources(written.getOrDefault(m, Map.of())));
+    }
+
+    ModuleCompiler mc =
+        new ModuleCompiler(
+            compiler, sources, dependencies, classpath, cache.map(ClassCache::of));
+    int cpus = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.max(1, Math.min(modules.size(), cpus)));
+    try {
+      for (String m : modules) {
+        mc.schedule(m, new HashSet<>(), executor);
+      }
+
+      return mc.collect();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // Sorted by fragment, so that cache keys do not depend on the order files were written in
+  private static Map<String, Path> mainSources(Map<String, Path> files) {
+    Map<String, Path> sources = new TreeMap<>();
+    for (Map.Entry<String, Path> f : files.entrySet()) {
+      if (f.getKey().endsWith(".java") && !TEST_FILE_RE.matcher(f.getKey()).matches()) {
+        sources.put(f.getKey(), f.getValue());
+      }
+    }
+
+    return sources;
+  }
+
+  private CompletableFuture<Result> schedule(
+      String module, Set<String> visiting, ExecutorService executor) {
+    CompletableFuture<Result> scheduled = results.get(module);
+    if (scheduled != null) {
+      return scheduled;
+    }
+
+    if (!visiting.add(module)) {
+      throw new IllegalArgumentException("cyclic dependency on module " + module);
+    }
+
+    List<CompletableFuture<Result>> deps = new ArrayList<>();
+    for (String d : dependencies.getOrDefault(module, List.of())) {
+      deps.add(schedule(d, visiting, executor));
+    }
+
+    visiting.remove(module);
+    CompletableFuture<Result> result =
+        CompletableFuture.allOf(deps.toArray(new CompletableFuture<?>[0]))
+            .thenApplyAsync(v -> compile(module, joinAll(deps)), executor);
+    results.put(module, result);
+    return result;
+  }
+
+  private static List<Result> joinAll(List<CompletableFuture<Result>> futures) {
+    return futures.stream().map(CompletableFuture::join).toList();
+  }
+
+  private Compilation collect() throws IOException {
+    Map<String, Compilation.Status> statuses = new LinkedHashMap<>();
+    Map<String, List<Diagnostic<? extends JavaFileObject>>> diagnostics = new LinkedHashMap<>();
+    for (Map.Entry<String, CompletableFuture<Result>> r : results.entrySet()) {
+      Result result;
+      try {
+        result = r.getValue().join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof UncheckedIOException) {
+          throw ((UncheckedIOException) e.getCause()).getCause();
+        }
+
+        throw e;
+      }
+
+      statuses.put(r.getKey(), result.status);
+      diagnostics.put(r.getKey(), result.diagnostics);
+    }
+
+    return new Compilation(statuses, diagnostics);
+  }
+
+  private Result compile(String module, List<Result> deps) {
+    Set<ClassFile> visible = new LinkedHashSet<>();
+    for (Result d : deps) {
+      if (d.status != Compilation.Status.SUCCEEDED) {
+        return new Result(Compilation.Status.SKIPPED, List.of(), Set.of(), "");
+      }
+
+      visible.addAll(d.classes);
+    }
+
+    Map<String, Path> files = sources.getOrDefault(module, Map.of());
+    if (files.isEmpty()) {
+      return succeeded(Map.of(), deps, visible, List.of());
+    }
+
+    try {
+      Optional<String> key = Optional.empty();
+      if (cache.isPresent()) {
+        key = Optional.of(cacheKey(files, deps));
+        Optional<Map<String, byte[]>> cached = cache.get().get(key.get());
+        if (cached.isPresent()) {
+          return succeeded(cached.get(), deps, visible, List.of());
+        }
+      }
+
+      DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+      Map<String, byte[]> classes = new TreeMap<>();
+      // Standard file managers are not thread safe, so each compilation gets its own
+      try (StandardJavaFileManager standard =
+              compiler.getStandardFileManager(diagnostics, null, null);
+          MemoryFileManager fm = new MemoryFileManager(standard, visible)) {
+        standard.setLocationFromPaths(StandardLocation.CLASS_PATH, classpath);
+        boolean ok =
+            compiler
+                .getTask(
+                    null,
+                    fm,
+                    diagnostics,
+                    OPTIONS,
+                    null,
+                    standard.getJavaFileObjectsFromPaths(files.values()))
+                .call();
+        if (!ok) {
+          return new Result(Compilation.Status.FAILED, diagnostics.getDiagnostics(), Set.of(), "");
+        }
+
+        for (ClassFile c : fm.outputs) {
+          classes.put(c.binaryName, c.bytes.toByteArray());
+        }
+      }
+
+      if (key.isPresent()) {
+        cache.get().put(key.get(), classes);
+      }
+
+      return succeeded(classes, deps, visible, diagnostics.getDiagnostics());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // The hash of the outputs of a module covers those of its dependencies, as they are compiled
+  // together
+  private static Result succeeded(
+      Map<String, byte[]> classes,
+      List<Result> deps,
+      Set<ClassFile> visible,
+      List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+    MessageDigest digest = Digests.newDigest("SHA-256");
+    for (Result d : deps) {
+      Digests.update(digest, d.outputHash);
+    }
+
+    for (Map.Entry<String, byte[]> c : classes.entrySet()) {
+      Digests.update(digest, c.getKey());
+      Digests.update(digest, c.getValue());
+      visible.add(new ClassFile(c.getKey(), c.getValue()));
+    }
+
+    String hash = Digests.hex(digest.digest());
+    return new Result(Compilation.Status.SUCCEEDED, diagnostics, visible, hash);
+  }
+
+  private String cacheKey(Map<String, Path> files, List<Result> deps) throws IOException {
+    MessageDigest digest = Digests.newDigest("SHA-256");
+    Digests.update(digest, CACHE_KEY_VERSION);
+    Digests.update(digest, Runtime.version().toString());
+    Digests.update(digest, String.join(" ", OPTIONS));
+    for (Path p : classpath) {
+      Digests.update(digest, p.toAbsolutePath().toString());
+      if (Files.exists(p)) {
+        Digests.update(digest, Files.getLastModifiedTime(p) + ":" + Files.size(p));
+      }
+    }
+
+    for (Map.Entry<String, Path> f : files.entrySet()) {
+      Digests.update(digest, f.getKey());
+      Digests.update(digest, Files.readAllBytes(f.getValue()));
+    }
+
+    for (Result d : deps) {
+      Digests.update(digest, d.outputHash);
+    }
+
+    return Digests.hex(digest.digest());
+  }
+
+  private static class Result {
+    final Compilation.Status status;
+    final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+    // The classes of the module and all its dependencies
+    final Set<ClassFile> classes;
+    final String outputHash;
+
+    Result(
+        Compilation.Status status,
+        List<Diagnostic<? extends JavaFileObject>> diagnostics,
+        Set<ClassFile> classes,
+        String outputHash) {
+      this.status = status;
+      this.diagnostics = diagnostics;
+      this.classes = classes;
+      this.outputHash = outputHash;
+    }
+  }
+
+  // Writes classes in memory and serves those of dependencies as part of the classpath
+  private static class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+    private final Set<ClassFile> dependencies;
+    private final List<ClassFile> outputs = new ArrayList<>();
+
+    MemoryFileManager(JavaFileManager fileManager, Set<ClassFile> dependencies) {
+      super(fileManager);
+      this.dependencies = dependencies;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(
+        Location location, String className, JavaFileObject.Kind kind, FileObject sibling)
+        throws IOException {
+      if (kind != JavaFileObject.Kind.CLASS) {
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+      }
+
+      ClassFile output = new ClassFile(className);
+      outputs.add(output);
+      return output;
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(
+        Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+        throws IOException {
+      Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+      if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+        return listed;
+      }
+
+      List<JavaFileObject> all = new ArrayList<>();
+      listed.forEach(all::add);
+      for (ClassFile c : dependencies) {
+        if (c.isIn(packageName, recurse)) {
+          all.add(c);
+        }
+      }
+
+      return all;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+      if (file instanceof ClassFile) {
+        return ((ClassFile) file).binaryName;
+      }
+
+      return super.inferBinaryName(location, file);
+    }
+  }
+
+  private static class ClassFile extends SimpleJavaFileObject {
+    private final String binaryName;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    ClassFile(String binaryName) {
+      super(URI.create("mem:///" + binaryName.replace('.', '/') + ".class"), Kind.CLASS);
+      this.binaryName = binaryName;
+    }
+
+    ClassFile(String binaryName, byte[] contents) {
+      this(binaryName);
+      bytes.writeBytes(contents);
+    }
+
+    boolean isIn(String packageName, boolean recurse) {
+      int last = binaryName.lastIndexOf('.');
+      String pkg = last < 0 ? "" : binaryName.substring(0, last);
+      if (recurse) {
+        return packageName.isEmpty()
+            || pkg.equals(packageName)
+            || pkg.startsWith(packageName + ".");
+      }
+
+      return pkg.equals(packageName);
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      bytes.reset();
+      return bytes;
+    }
+
+    @Override
+    public InputStream openInputStream() {
+      return new ByteArrayInputStream(bytes.toByteArray());
+    }
+  }
+}
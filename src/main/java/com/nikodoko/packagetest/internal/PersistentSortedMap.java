@@ -0,0 +1,219 @@
+package com.nikodoko.packagetest.internal;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+/**
+ * An immutable sorted map, backed by an AVL tree.
+ *
+ * <p>Updates return a new map sharing all but {@code O(log n)} nodes with the original one, which
+ * is left untouched, so that deriving many variants of a same map is cheap.
+ */
+public final class PersistentSortedMap<K extends Comparable<K>, V>
+    implements Iterable<Map.Entry<K, V>> {
+  private static final PersistentSortedMap<?, ?> EMPTY = new PersistentSortedMap<>(null);
+
+  private final Node<K, V> root;
+
+  private PersistentSortedMap(Node<K, V> root) {
+    this.root = root;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K extends Comparable<K>, V> PersistentSortedMap<K, V> empty() {
+    return (PersistentSortedMap<K, V>) EMPTY;
+  }
+
+  public int size() {
+    return size(root);
+  }
+
+  public boolean isEmpty() {
+    return root == null;
+  }
+
+  public Optional<V> get(K key) {
+    Node<K, V> n = root;
+    while (n != null) {
+      int cmp = key.compareTo(n.key);
+      if (cmp == 0) {
+        return Optional.of(n.value);
+      }
+
+      n = cmp < 0 ? n.left : n.right;
+    }
+
+    return Optional.empty();
+  }
+
+  /** Returns a map associating {@code key} to {@code value}, replacing any previous value. */
+  public PersistentSortedMap<K, V> put(K key, V value) {
+    return new PersistentSortedMap<>(put(root, key, value));
+  }
+
+  /** Returns a map without {@code key}, or this map if it does not contain {@code key}. */
+  public PersistentSortedMap<K, V> remove(K key) {
+    Node<K, V> removed = remove(root, key);
+    return removed == root ? this : new PersistentSortedMap<>(removed);
+  }
+
+  /** Returns an iterable view of the values of this map, in key order. */
+  public Iterable<V> values() {
+    return () ->
+        new Iterator<V>() {
+          private final Iterator<Map.Entry<K, V>> entries = iterator();
+
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public V next() {
+            return entries.next().getValue();
+          }
+        };
+  }
+
+  /** Iterates over the entries of this map, in key order. */
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    Deque<Node<K, V>> stack = new ArrayDeque<>();
+    for (Node<K, V> n = root; n != null; n = n.left) {
+      stack.push(n);
+    }
+
+    return new Iterator<Map.Entry<K, V>>() {
+      @Override
+      public boolean hasNext() {
+        return !stack.isEmpty();
+      }
+
+      @Override
+      public Map.Entry<K, V> next() {
+        if (stack.isEmpty()) {
+          throw new NoSuchElementException();
+        }
+
+        Node<K, V> n = stack.pop();
+        for (Node<K, V> l = n.right; l != null; l = l.left) {
+          stack.push(l);
+        }
+
+        return Map.entry(n.key, n.value);
+      }
+    };
+  }
+
+  private static <K extends Comparable<K>, V> Node<K, V> put(Node<K, V> n, K key, V value) {
+    if (n == null) {
+      return new Node<>(key, value, null, null);
+    }
+
+    int cmp = key.compareTo(n.key);
+    if (cmp == 0) {
+      return new Node<>(key, value, n.left, n.right);
+    }
+
+    if (cmp < 0) {
+      return balance(n.key, n.value, put(n.left, key, value), n.right);
+    }
+
+    return balance(n.key, n.value, n.left, put(n.right, key, value));
+  }
+
+  private static <K extends Comparable<K>, V> Node<K, V> remove(Node<K, V> n, K key) {
+    if (n == null) {
+      return null;
+    }
+
+    int cmp = key.compareTo(n.key);
+    if (cmp < 0) {
+      Node<K, V> left = remove(n.left, key);
+      return left == n.left ? n : balance(n.key, n.value, left, n.right);
+    }
+
+    if (cmp > 0) {
+      Node<K, V> right = remove(n.right, key);
+      return right == n.right ? n : balance(n.key, n.value, n.left, right);
+    }
+
+    if (n.left == null) {
+      return n.right;
+    }
+
+    if (n.right == null) {
+      return n.left;
+    }
+
+    Node<K, V> min = n.right;
+    while (min.left != null) {
+      min = min.left;
+    }
+
+    return balance(min.key, min.value, n.left, remove(n.right, min.key));
+  }
+
+  private static <K extends Comparable<K>, V> Node<K, V> balance(
+      K key, V value, Node<K, V> left, Node<K, V> right) {
+    int diff = height(left) - height(right);
+    if (diff > 1) {
+      if (height(left.left) < height(left.right)) {
+        left = rotateLeft(left.key, left.value, left.left, left.right);
+      }
+
+      return rotateRight(key, value, left, right);
+    }
+
+    if (diff < -1) {
+      if (height(right.right) < height(right.left)) {
+        right = rotateRight(right.key, right.value, right.left, right.right);
+      }
+
+      return rotateLeft(key, value, left, right);
+    }
+
+    return new Node<>(key, value, left, right);
+  }
+
+  private static <K extends Comparable<K>, V> Node<K, V> rotateRight(
+      K key, V value, Node<K, V> left, Node<K, V> right) {
+    return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+  }
+
+  private static <K extends Comparable<K>, V> Node<K, V> rotateLeft(
+      K key, V value, Node<K, V> left, Node<K, V> right) {
+    return new Node<>(
+        right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+  }
+
+  private static int height(Node<?, ?> n) {
+    return n == null ? 0 : n.height;
+  }
+
+  private static int size(Node<?, ?> n) {
+    return n == null ? 0 : n.size;
+  }
+
+  private static final class Node<K, V> {
+    final K key;
+    final V value;
+    final Node<K, V> left;
+    final Node<K, V> right;
+    final int height;
+    final int size;
+
+    Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+      this.key = key;
+      this.value = value;
+      this.left = left;
+      this.right = right;
+      this.height = Math.max(height(left), height(right)) + 1;
+      this.size = size(left) + size(right) + 1;
+    }
+  }
+}
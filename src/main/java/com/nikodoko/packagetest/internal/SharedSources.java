@@ -0,0 +1,76 @@
+package com.nikodoko.packagetest.internal;
+
+import com.nikodoko.packagetest.Export;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Source files shared between several exports of the same modules.
+ *
+ * <p>The first export writing a source file owns it, and later exports create hard links to it
+ * instead of writing it again (or copy it if links are not supported). Since links are
+ * independent from each other, each export can still be cleaned up separately.
+ */
+public class SharedSources {
+  private final Map<String, Map<String, Path>> written = new HashMap<>();
+
+  /**
+   * Returns a {@code Sink} writing to a {@code root} directory as configured by {@code options},
+   * and sharing sources.
+   */
+  public Sink directory(Path root, Export.Options options) {
+    return new SharingSink(Sink.directory(root, options));
+  }
+
+  private class SharingSink implements Sink {
+    private final Sink delegate;
+
+    SharingSink(Sink delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Path root() {
+      return delegate.root();
+    }
+
+    @Override
+    public OutputStream newOutputStream(Path relative) throws IOException {
+      return delegate.newOutputStream(relative);
+    }
+
+    @Override
+    public void writeSource(String module, String fragment, Path relative, byte[] contents)
+        throws IOException {
+      Map<String, Path> moduleFiles = written.computeIfAbsent(module, k -> new HashMap<>());
+      Path existing = moduleFiles.get(fragment);
+      Path target = root().resolve(relative);
+      if (existing != null && link(target, existing)) {
+        return;
+      }
+
+      delegate.writeSource(module, fragment, relative, contents);
+      moduleFiles.putIfAbsent(fragment, target);
+    }
+
+    private boolean link(Path target, Path existing) throws IOException {
+      Files.createDirectories(target.getParent());
+      try {
+        Files.createLink(target, existing);
+        return true;
+      } catch (UnsupportedOperationException | IOException e) {
+        // Different file stores, or no support for links at all
+        return false;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.nikodoko.packagetest.internal;
+
+import com.nikodoko.packagetest.ArchiveFormat;
+import com.nikodoko.packagetest.Export;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/** A destination for the files written by an {@link Exporter}. */
+public interface Sink extends Closeable {
+  /** Returns the path at the root of this {@code Sink}. */
+  Path root();
+
+  /**
+   * Opens a stream to write a file located at {@code relative} from the root of this {@code Sink}.
+   *
+   * <p>The stream must be closed before opening another one.
+   *
+   * @throws IOException if an I/O error occurs
+   */
+  OutputStream newOutputStream(Path relative) throws IOException;
+
+  /**
+   * Writes the source file of {@code module} designated by {@code fragment} at {@code relative}
+   * from the root of this {@code Sink}.
+   *
+   * <p>Unlike other files, sources are identical for all build systems, so implementations can
+   * share them between exports.
+   *
+   * @throws IOException if an I/O error occurs
+   */
+  default void writeSource(String module, String fragment, Path relative, byte[] contents)
+      throws IOException {
+    try (OutputStream out = newOutputStream(relative)) {
+      out.write(contents);
+    }
+  }
+
+  /**
+   * Called once the file of {@code module} designated by {@code fragment} has been entirely
+   * written at {@code path}.
+   */
+  default void written(String module, String fragment, Path path) {}
+
+  /** Called once all the files of {@code module} have been written. */
+  default void moduleWritten(String module) {}
+
+  /**
+   * Returns a {@code Sink} writing files to a {@code root} directory, for throwaway projects if
+   * {@code options} say so.
+   */
+  static Sink directory(Path root, Export.Options options) {
+    return options.throwawayProjects()
+        ? new DirectorySink.Throwaway(root)
+        : new DirectorySink(root);
+  }
+
+  /**
+   * Returns a {@code Sink} writing files as entries of an archive.
+   *
+   * <p>Closing the returned {@code Sink} finishes the archive, but does not close {@code out}.
+   */
+  static Sink archive(ArchiveFormat format, OutputStream out) throws IOException {
+    switch (format) {
+      case ZIP:
+        return ZipSink.zip(out);
+      case JAR:
+        return ZipSink.jar(out);
+      case TAR:
+        return new TarSink(out);
+      default:
+        throw new IllegalArgumentException("unknown archive format: " + format);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.nikodoko.packagetest.internal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+
+// Writes files as entries of an uncompressed ustar archive. Like for ZipSink, entries are written
+// in the order files are exported, and all have the same modification time.
+class TarSink implements Sink {
+  private static final int BLOCK_SIZE = 512;
+  private static final int NAME_LENGTH = 100;
+  private static final int PREFIX_LENGTH = 155;
+  private static final long ENTRY_TIME = ZipSink.ENTRY_TIME.toEpochSecond(ZoneOffset.UTC);
+
+  private final OutputStream out;
+
+  TarSink(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public Path root() {
+    return Paths.get("");
+  }
+
+  // The size of an entry is part of its header, so contents are buffered until the entry is closed
+  @Override
+  public OutputStream newOutputStream(Path relative) throws IOException {
+    String name = ZipSink.entryName(relative);
+    return new ByteArrayOutputStream() {
+      private boolean closed = false;
+
+      @Override
+      public void close() throws IOException {
+        if (closed) {
+          return;
+        }
+
+        closed = true;
+        writeEntry(name, buf, count);
+      }
+    };
+  }
+
+  private void writeEntry(String name, byte[] contents, int size) throws IOException {
+    out.write(header(name, size));
+    out.write(contents, 0, size);
+    int padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+    out.write(new byte[padding]);
+  }
+
+  private static byte[] header(String name, long size) throws IOException {
+    byte[] header = new byte[BLOCK_SIZE];
+    byte[] fullName = name.getBytes(UTF_8);
+    int split = splitName(fullName);
+    if (split < 0) {
+      throw new IOException("path too long for a tar archive: " + name);
+    }
+
+    System.arraycopy(fullName, split, header, 0, fullName.length - split);
+    if (split > 0) {
+      // The prefix does not include the separator
+      System.arraycopy(fullName, 0, header, 345, split - 1);
+    }
+
+    octal(header, 100, 8, 0644);
+    octal(header, 108, 8, 0);
+    octal(header, 116, 8, 0);
+    octal(header, 124, 12, size);
+    octal(header, 136, 12, ENTRY_TIME);
+    header[156] = '0';
+    System.arraycopy("ustar\0".getBytes(UTF_8), 0, header, 257, 6);
+    System.arraycopy("00".getBytes(UTF_8), 0, header, 263, 2);
+
+    // The checksum is computed with its own field filled with spaces
+    for (int i = 148; i < 156; i++) {
+      header[i] = ' ';
+    }
+
+    long checksum = 0;
+    for (byte b : header) {
+      checksum += b & 0xff;
+    }
+
+    octal(header, 148, 7, checksum);
+    return header;
+  }
+
+  // Returns the index at which the name part of a ustar entry starts, the rest going in the prefix
+  // field, or -1 if the name does not fit
+  private static int splitName(byte[] name) {
+    if (name.length <= NAME_LENGTH) {
+      return 0;
+    }
+
+    for (int i = name.length - NAME_LENGTH - 1; i < name.length; i++) {
+      if (i >= 0 && name[i] == '/') {
+        return i <= PREFIX_LENGTH ? i + 1 : -1;
+      }
+    }
+
+    return -1;
+  }
+
+  // Writes a zero-padded, NUL-terminated octal number
+  private static void octal(byte[] header, int offset, int length, long value) {
+    String digits = Long.toOctalString(value);
+    int start = offset + length - 1 - digits.length();
+    for (int i = offset; i < start; i++) {
+      header[i] = '0';
+    }
+
+    System.arraycopy(digits.getBytes(UTF_8), 0, header, start, digits.length());
+    header[offset + length - 1] = 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.write(new byte[2 * BLOCK_SIZE]);
+    out.flush();
+  }
+}
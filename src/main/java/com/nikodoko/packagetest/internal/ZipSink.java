@@ -0,0 +1,98 @@
+package com.nikodoko.packagetest.internal;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Writes files as entries of a ZIP (or JAR) archive. Entries are written in the order files are
+// exported, and all have the same modification time so that archives are reproducible.
+class ZipSink implements Sink {
+  static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 2, 1, 0, 0);
+
+  private final ZipOutputStream out;
+
+  private ZipSink(ZipOutputStream out) {
+    this.out = out;
+  }
+
+  static ZipSink zip(OutputStream out) {
+    return new ZipSink(new ZipOutputStream(new NonClosingOutputStream(out)));
+  }
+
+  static ZipSink jar(OutputStream out) throws IOException {
+    ZipSink sink = new ZipSink(new JarOutputStream(new NonClosingOutputStream(out)));
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    try (OutputStream entry = sink.newOutputStream(Paths.get(JarFile.MANIFEST_NAME))) {
+      manifest.write(entry);
+    }
+
+    return sink;
+  }
+
+  @Override
+  public Path root() {
+    return Paths.get("");
+  }
+
+  @Override
+  public OutputStream newOutputStream(Path relative) throws IOException {
+    ZipEntry entry = new ZipEntry(entryName(relative));
+    entry.setTimeLocal(ENTRY_TIME);
+    out.putNextEntry(entry);
+    return new FilterOutputStream(out) {
+      private boolean closed = false;
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (closed) {
+          return;
+        }
+
+        closed = true;
+        ((ZipOutputStream) out).closeEntry();
+      }
+    };
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+  // Archive entries always use forward slashes, whatever the platform
+  static String entryName(Path relative) {
+    return relative.toString().replace(relative.getFileSystem().getSeparator(), "/");
+  }
+
+  // Archive streams finish the archive when closed, but the underlying stream belongs to the caller
+  static class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.flush();
+    }
+  }
+}
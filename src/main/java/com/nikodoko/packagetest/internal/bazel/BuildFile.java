@@ -4,41 +4,101 @@ import com.nikodoko.packagetest.internal.bazel.grammar.BzlAssignmentExpression;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlCode;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlExpression;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlFunctionCall;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlInteger;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlList;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlSlot;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlStatement;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlString;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlTemplate;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 public class BuildFile extends BzlCode {
   private static final BzlList<BzlString> VISIBILITY_PUBLIC =
       new BzlList<>(BzlString.factory(), List.of(new BzlString("//visibility:public")));
+  private static final BzlSlot<BzlString> NAME = new BzlSlot<>("name");
+  private static final BzlSlot<BzlList<BzlString>> SRCS = new BzlSlot<>("srcs");
+  private static final BzlSlot<BzlList<BzlString>> DEPS = new BzlSlot<>("deps");
+  private static final BzlSlot<BzlString> TEST_CLASS = new BzlSlot<>("test_class");
+  private static final BzlSlot<BzlString> SIZE = new BzlSlot<>("size");
+  private static final BzlSlot<BzlInteger> SHARD_COUNT = new BzlSlot<>("shard_count");
+  private static final BzlSlot<BzlList<BzlString>> TESTS = new BzlSlot<>("tests");
+  private static final BzlTemplate TEMPLATE = BzlTemplate.compile(javaLibrary(NAME, SRCS, DEPS));
+  private static final BzlTemplate GLOB_TEMPLATE =
+      BzlTemplate.compile(javaLibrary(NAME, new BzlFunctionCall("glob", SRCS), DEPS));
+  private static final BzlTemplate TEST_TEMPLATE =
+      BzlTemplate.compile(javaTest(NAME, SRCS, TEST_CLASS, SIZE, SHARD_COUNT, DEPS));
+  private static final BzlTemplate SUITE_TEMPLATE = BzlTemplate.compile(testSuite(NAME, TESTS));
 
+  private final boolean hasLibrary;
   private final BzlString name;
   private final BzlList<BzlString> srcs;
+  private final boolean srcsIsGlob;
   private final BzlList<BzlString> deps;
-  private final List<BzlStatement> statements;
+  private final List<JavaTest> tests;
+  private final BzlString suiteName;
+  private List<BzlStatement> statements;
 
   private BuildFile(
-      BzlString name, BzlList<BzlString> srcs, boolean srcsIsGlob, BzlList<BzlString> deps) {
+      boolean hasLibrary,
+      BzlString name,
+      BzlList<BzlString> srcs,
+      boolean srcsIsGlob,
+      BzlList<BzlString> deps,
+      List<JavaTest> tests,
+      BzlString suiteName) {
+    this.hasLibrary = hasLibrary;
     this.name = name;
     this.srcs = srcs;
+    this.srcsIsGlob = srcsIsGlob;
     this.deps = deps;
-    this.statements = generateCode(srcsIsGlob);
+    this.tests = tests;
+    this.suiteName = suiteName;
   }
 
-  private List<BzlStatement> generateCode(boolean srcsIsGlob) {
-    BzlExpression srcsExpr = srcsIsGlob ? new BzlFunctionCall("glob", srcs) : srcs;
+  private static List<BzlStatement> javaLibrary(
+      BzlExpression name, BzlExpression srcs, BzlExpression deps) {
     return List.of(
         new BzlStatement(
             new BzlFunctionCall(
                 "java_library",
                 new BzlAssignmentExpression("name", name),
-                new BzlAssignmentExpression("srcs", srcsExpr),
+                new BzlAssignmentExpression("srcs", srcs),
                 new BzlAssignmentExpression("visibility", VISIBILITY_PUBLIC),
                 new BzlAssignmentExpression("deps", deps))));
   }
 
+  private static List<BzlStatement> javaTest(
+      BzlExpression name,
+      BzlExpression srcs,
+      BzlExpression testClass,
+      BzlExpression size,
+      BzlExpression shardCount,
+      BzlExpression deps) {
+    return List.of(
+        new BzlStatement(
+            new BzlFunctionCall(
+                "java_test",
+                new BzlAssignmentExpression("name", name),
+                new BzlAssignmentExpression("srcs", srcs),
+                new BzlAssignmentExpression("test_class", testClass),
+                new BzlAssignmentExpression("size", size),
+                new BzlAssignmentExpression("shard_count", shardCount),
+                new BzlAssignmentExpression("deps", deps))));
+  }
+
+  private static List<BzlStatement> testSuite(BzlExpression name, BzlExpression tests) {
+    return List.of(
+        new BzlStatement(
+            new BzlFunctionCall(
+                "test_suite",
+                new BzlAssignmentExpression("name", name),
+                new BzlAssignmentExpression("tests", tests))));
+  }
+
   public List<String> srcs() {
     return srcs.elements().stream().map(BzlString::value).toList();
   }
@@ -51,20 +111,75 @@ public class BuildFile extends BzlCode {
     return name.value();
   }
 
+  public List<JavaTest> tests() {
+    return tests;
+  }
+
+  // The full code tree is only needed to read files, writing goes through precompiled templates
   @Override
   protected List<BzlStatement> statements() {
+    if (statements == null) {
+      statements = new ArrayList<>();
+      if (hasLibrary) {
+        statements.addAll(
+            javaLibrary(name, srcsIsGlob ? new BzlFunctionCall("glob", srcs) : srcs, deps));
+      }
+
+      for (JavaTest t : tests) {
+        statements.addAll(javaTest(t.name, t.srcs, t.testClass, t.size, t.shardCount, t.deps));
+      }
+
+      if (!tests.isEmpty()) {
+        statements.addAll(testSuite(suiteName, suiteTests()));
+      }
+    }
+
     return statements;
   }
 
+  @Override
+  public void write(OutputStream out) throws IOException {
+    if (hasLibrary) {
+      BzlTemplate template = srcsIsGlob ? GLOB_TEMPLATE : TEMPLATE;
+      template.write(out, template.values().set(NAME, name).set(SRCS, srcs).set(DEPS, deps));
+    }
+
+    for (JavaTest t : tests) {
+      TEST_TEMPLATE.write(
+          out,
+          TEST_TEMPLATE
+              .values()
+              .set(NAME, t.name)
+              .set(SRCS, t.srcs)
+              .set(TEST_CLASS, t.testClass)
+              .set(SIZE, t.size)
+              .set(SHARD_COUNT, t.shardCount)
+              .set(DEPS, t.deps));
+    }
+
+    if (!tests.isEmpty()) {
+      SUITE_TEMPLATE.write(
+          out, SUITE_TEMPLATE.values().set(NAME, suiteName).set(TESTS, suiteTests()));
+    }
+  }
+
+  private BzlList<BzlString> suiteTests() {
+    return new BzlList<>(
+        BzlString.factory(), tests.stream().map(t -> new BzlString(":" + t.name())).toList());
+  }
+
   public static Builder builder() {
     return new Builder();
   }
 
   public static class Builder {
+    private boolean hasLibrary = true;
     private BzlString name = new BzlString();
     private BzlList<BzlString> srcs = new BzlList<>(BzlString.factory());
     private boolean srcsIsGlob = false;
     private BzlList<BzlString> deps = new BzlList<>(BzlString.factory());
+    private List<JavaTest> tests = new ArrayList<>();
+    private BzlString suiteName = new BzlString("tests");
 
     public Builder targetName(String name) {
       this.name = new BzlString(name);
@@ -92,8 +207,123 @@ public class BuildFile extends BzlCode {
       return this;
     }
 
+    /** Only generates test targets in this file. */
+    public Builder withoutLibrary() {
+      this.hasLibrary = false;
+      return this;
+    }
+
+    /** Adds a {@code java_test} target, all tests being grouped in a {@code test_suite}. */
+    public Builder test(JavaTest test) {
+      this.tests.add(test);
+      return this;
+    }
+
+    public Builder testSuiteName(String name) {
+      this.suiteName = new BzlString(name);
+      return this;
+    }
+
     public BuildFile build() {
-      return new BuildFile(name, srcs, srcsIsGlob, deps);
+      return new BuildFile(hasLibrary, name, srcs, srcsIsGlob, deps, List.copyOf(tests), suiteName);
+    }
+  }
+
+  /** A {@code java_test} target. */
+  public static class JavaTest {
+    private final BzlString name;
+    private final BzlList<BzlString> srcs;
+    private final BzlString testClass;
+    private final BzlString size;
+    private final BzlInteger shardCount;
+    private final BzlList<BzlString> deps;
+
+    private JavaTest(
+        BzlString name,
+        BzlList<BzlString> srcs,
+        BzlString testClass,
+        BzlString size,
+        BzlInteger shardCount,
+        BzlList<BzlString> deps) {
+      this.name = name;
+      this.srcs = srcs;
+      this.testClass = testClass;
+      this.size = size;
+      this.shardCount = shardCount;
+      this.deps = deps;
+    }
+
+    public String name() {
+      return name.value();
+    }
+
+    public List<String> srcs() {
+      return srcs.elements().stream().map(BzlString::value).toList();
+    }
+
+    public String testClass() {
+      return testClass.value();
+    }
+
+    public String size() {
+      return size.value();
+    }
+
+    public int shardCount() {
+      return shardCount.value();
+    }
+
+    public List<String> deps() {
+      return deps.elements().stream().map(BzlString::value).toList();
+    }
+
+    public static Builder builder() {
+      return new Builder();
+    }
+
+    public static class Builder {
+      private BzlString name = new BzlString();
+      private BzlList<BzlString> srcs = new BzlList<>(BzlString.factory());
+      private BzlString testClass = new BzlString();
+      private BzlString size = new BzlString("small");
+      private BzlInteger shardCount = new BzlInteger(1);
+      private BzlList<BzlString> deps = new BzlList<>(BzlString.factory());
+
+      public Builder targetName(String name) {
+        this.name = new BzlString(name);
+        return this;
+      }
+
+      public Builder srcs(String... labels) {
+        List<BzlString> sources = Arrays.stream(labels).map(BzlString::new).toList();
+        this.srcs = new BzlList<>(BzlString.factory(), sources);
+        return this;
+      }
+
+      public Builder testClass(String testClass) {
+        this.testClass = new BzlString(testClass);
+        return this;
+      }
+
+      public Builder size(String size) {
+        this.size = new BzlString(size);
+        return this;
+      }
+
+      public Builder shardCount(int shardCount) {
+        this.shardCount = new BzlInteger(shardCount);
+        return this;
+      }
+
+      public Builder deps(List<String> deps) {
+        List<BzlString> dependencies = deps.stream().map(BzlString::new).toList();
+        this.deps = new BzlList<>(BzlString.factory(), dependencies);
+        return this;
+      }
+
+      public JavaTest build() {
+        return new JavaTest(name, srcs, testClass, size, shardCount, deps);
+      }
     }
   }
 }
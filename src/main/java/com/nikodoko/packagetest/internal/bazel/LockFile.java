@@ -0,0 +1,125 @@
+package com.nikodoko.packagetest.internal.bazel;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A {@code maven_install.json} file, pinning the artifacts fetched by {@code rules_jvm_external}.
+ *
+ * <p>This uses the version 2 of the lock file format. Artifacts without a known checksum are
+ * written with a {@code null} checksum, in which case they are not verified when fetched.
+ */
+public class LockFile {
+  public static final String NAME = "maven_install.json";
+
+  private final Map<String, Artifact> artifacts;
+  private final List<String> repositories;
+
+  private LockFile(Map<String, Artifact> artifacts, List<String> repositories) {
+    this.artifacts = artifacts;
+    this.repositories = repositories;
+  }
+
+  public void write(OutputStream out) throws IOException {
+    Writer w = new OutputStreamWriter(out, UTF_8);
+    w.write("{\n");
+    w.write("  \"__AUTOGENERATED_FILE_DO_NOT_MODIFY_THIS_FILE_MANUALLY\": ");
+    w.write("\"THERE_IS_NO_DATA_ONLY_ZUUL\",\n");
+    w.write("  \"artifacts\": {");
+    String separator = "\n";
+    for (Map.Entry<String, Artifact> a : artifacts.entrySet()) {
+      w.write(separator);
+      w.write(String.format("    %s: {\n", quote(a.getKey())));
+      w.write("      \"shasums\": {\n");
+      String sha256 = a.getValue().sha256.map(LockFile::quote).orElse("null");
+      w.write(String.format("        \"jar\": %s\n", sha256));
+      w.write("      },\n");
+      w.write(String.format("      \"version\": %s\n", quote(a.getValue().version)));
+      w.write("    }");
+      separator = ",\n";
+    }
+
+    w.write(artifacts.isEmpty() ? "},\n" : "\n  },\n");
+    w.write("  \"dependencies\": {},\n");
+    w.write("  \"packages\": {},\n");
+    w.write("  \"repositories\": {");
+    separator = "\n";
+    for (String repository : repositories) {
+      w.write(separator);
+      // Repositories are identified by their URL with a trailing slash
+      String url = repository.endsWith("/") ? repository : repository + "/";
+      w.write(String.format("    %s: [", quote(url)));
+      String artifactSeparator = "\n";
+      for (String artifact : artifacts.keySet()) {
+        w.write(artifactSeparator);
+        w.write("      " + quote(artifact));
+        artifactSeparator = ",\n";
+      }
+
+      w.write(artifacts.isEmpty() ? "]" : "\n    ]");
+      separator = ",\n";
+    }
+
+    w.write(repositories.isEmpty() ? "},\n" : "\n  },\n");
+    w.write("  \"version\": \"2\"\n");
+    w.write("}\n");
+    w.flush();
+  }
+
+  private static String quote(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (char c : s.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        sb.append('\\');
+      }
+
+      sb.append(c);
+    }
+
+    return sb.append('"').toString();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private final Map<String, Artifact> artifacts = new LinkedHashMap<>();
+    private List<String> repositories = new ArrayList<>();
+
+    /** Pins {@code groupId:artifactId} to {@code version}, with an optional jar checksum. */
+    public Builder artifact(
+        String groupId, String artifactId, String version, Optional<String> sha256) {
+      artifacts.put(groupId + ":" + artifactId, new Artifact(version, sha256));
+      return this;
+    }
+
+    public Builder repositories(List<String> repositories) {
+      this.repositories = repositories;
+      return this;
+    }
+
+    public LockFile build() {
+      return new LockFile(artifacts, repositories);
+    }
+  }
+
+  private static class Artifact {
+    private final String version;
+    private final Optional<String> sha256;
+
+    Artifact(String version, Optional<String> sha256) {
+      this.version = version;
+      this.sha256 = sha256;
+    }
+  }
+}
@@ -2,13 +2,19 @@ package com.nikodoko.packagetest.internal.bazel;
 
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlAssignmentExpression;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlCode;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlExpression;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlFunctionCall;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlIdentifier;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlList;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlSlot;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlStatement;
 import com.nikodoko.packagetest.internal.bazel.grammar.BzlString;
+import com.nikodoko.packagetest.internal.bazel.grammar.BzlTemplate;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 
 public class ModuleFile extends BzlCode {
   public static final String RULES_JVM_EXTERNAL_VERSION = "6.1";
@@ -24,15 +30,24 @@ public class ModuleFile extends BzlCode {
           new BzlString("maven"));
   private static final BzlFunctionCall USE_REPO =
       new BzlFunctionCall("use_repo", new BzlIdentifier("maven"), new BzlString("maven"));
+  private static final BzlSlot<BzlList<BzlString>> ARTIFACTS = new BzlSlot<>("artifacts");
+  private static final BzlSlot<BzlList<BzlString>> REPOSITORIES = new BzlSlot<>("repositories");
+  private static final BzlSlot<BzlString> LOCK_FILE = new BzlSlot<>("lock_file");
+  private static final BzlTemplate TEMPLATE =
+      BzlTemplate.compile(generateCode(ARTIFACTS, REPOSITORIES, null));
+  private static final BzlTemplate LOCKED_TEMPLATE =
+      BzlTemplate.compile(generateCode(ARTIFACTS, REPOSITORIES, LOCK_FILE));
 
   private final BzlList<BzlString> artifacts;
   private final BzlList<BzlString> repositories;
-  private final List<BzlStatement> statements;
+  private final BzlString lockFile;
+  private List<BzlStatement> statements;
 
-  private ModuleFile(BzlList<BzlString> artifacts, BzlList<BzlString> repositories) {
+  private ModuleFile(
+      BzlList<BzlString> artifacts, BzlList<BzlString> repositories, BzlString lockFile) {
     this.artifacts = artifacts;
     this.repositories = repositories;
-    this.statements = generateCode();
+    this.lockFile = lockFile;
   }
 
   public List<String> repositories() {
@@ -43,13 +58,36 @@ public class ModuleFile extends BzlCode {
     return artifacts.elements().stream().map(BzlString::value).toList();
   }
 
-  private List<BzlStatement> generateCode() {
+  public Optional<String> lockFile() {
+    return Optional.ofNullable(lockFile).map(BzlString::value);
+  }
+
+  /** The label of the target through which {@code maven.install} provides an artifact. */
+  public static String mavenLabel(String groupId, String artifactId) {
+    return String.format(
+        "@maven//:%s_%s",
+        groupId.replace('-', '_').replace('.', '_'),
+        artifactId.replace('-', '_').replace('.', '_'));
+  }
+
+  // A pinned lock file is not regenerated by the build, so it should not be checked against the
+  // inputs it was generated from
+  private static List<BzlStatement> generateCode(
+      BzlExpression artifacts, BzlExpression repositories, BzlExpression lockFile) {
     BzlFunctionCall mvnInstall =
-        new BzlFunctionCall(
-            "maven.install",
-            new BzlAssignmentExpression("artifacts", artifacts),
-            new BzlAssignmentExpression("fetch_sources", new BzlIdentifier("True")),
-            new BzlAssignmentExpression("repositories", repositories));
+        lockFile == null
+            ? new BzlFunctionCall(
+                "maven.install",
+                new BzlAssignmentExpression("artifacts", artifacts),
+                new BzlAssignmentExpression("fetch_sources", new BzlIdentifier("True")),
+                new BzlAssignmentExpression("repositories", repositories))
+            : new BzlFunctionCall(
+                "maven.install",
+                new BzlAssignmentExpression("artifacts", artifacts),
+                new BzlAssignmentExpression("fetch_sources", new BzlIdentifier("True")),
+                new BzlAssignmentExpression("repositories", repositories),
+                new BzlAssignmentExpression("lock_file", lockFile),
+                new BzlAssignmentExpression("fail_if_repin_required", new BzlIdentifier("False")));
     return List.of(
         new BzlStatement(BAZEL_DEP),
         new BzlStatement(new BzlAssignmentExpression("maven", USE_EXTENSION)),
@@ -57,11 +95,33 @@ public class ModuleFile extends BzlCode {
         new BzlStatement(USE_REPO));
   }
 
+  // The full code tree is only needed to read files, writing goes through a precompiled template
   @Override
   protected List<BzlStatement> statements() {
+    if (statements == null) {
+      statements = generateCode(artifacts, repositories, lockFile);
+    }
+
     return statements;
   }
 
+  @Override
+  public void write(OutputStream out) throws IOException {
+    if (lockFile == null) {
+      TEMPLATE.write(
+          out, TEMPLATE.values().set(ARTIFACTS, artifacts).set(REPOSITORIES, repositories));
+      return;
+    }
+
+    LOCKED_TEMPLATE.write(
+        out,
+        LOCKED_TEMPLATE
+            .values()
+            .set(ARTIFACTS, artifacts)
+            .set(REPOSITORIES, repositories)
+            .set(LOCK_FILE, lockFile));
+  }
+
   public static Builder builder() {
     return new Builder();
   }
@@ -69,6 +129,7 @@ public class ModuleFile extends BzlCode {
   public static class Builder {
     private BzlList<BzlString> artifacts = new BzlList<>(BzlString.factory());
     private BzlList<BzlString> repositories = new BzlList<>(BzlString.factory());
+    private BzlString lockFile = null;
 
     public Builder artifacts(String... deps) {
       return artifacts(Arrays.asList(deps));
@@ -90,8 +151,14 @@ public class ModuleFile extends BzlCode {
       return this;
     }
 
+    /** Uses the lock file designated by {@code label} to pin artifacts. */
+    public Builder lockFile(String label) {
+      this.lockFile = new BzlString(label);
+      return this;
+    }
+
     public ModuleFile build() {
-      return new ModuleFile(artifacts, repositories);
+      return new ModuleFile(artifacts, repositories, lockFile);
     }
   }
 }
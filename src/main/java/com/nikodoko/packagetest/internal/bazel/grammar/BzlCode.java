@@ -1,6 +1,11 @@
 package com.nikodoko.packagetest.internal.bazel.grammar;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PushbackReader;
 import java.io.Writer;
 import java.nio.file.Files;
@@ -16,6 +21,12 @@ public abstract class BzlCode {
     }
   }
 
+  public void write(OutputStream out) throws IOException {
+    Writer w = new OutputStreamWriter(out, UTF_8);
+    write(w);
+    w.flush();
+  }
+
   public void read(PushbackReader r) throws BzlSyntaxError, IOException {
     for (BzlStatement s : statements()) {
       s.read(r);
@@ -23,8 +34,8 @@ public abstract class BzlCode {
   }
 
   public void write(Path p) throws IOException {
-    try (Writer w = Files.newBufferedWriter(p)) {
-      write(w);
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(p))) {
+      write(out);
     }
   }
 
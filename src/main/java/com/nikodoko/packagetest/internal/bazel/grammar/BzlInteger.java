@@ -0,0 +1,58 @@
+package com.nikodoko.packagetest.internal.bazel.grammar;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Writer;
+
+public class BzlInteger implements BzlExpression {
+  private Integer value;
+
+  public BzlInteger() {}
+
+  public BzlInteger(int value) {
+    this.value = value;
+  }
+
+  public int value() {
+    return value;
+  }
+
+  @Override
+  public void write(Writer w) throws IOException {
+    w.write(Integer.toString(value));
+  }
+
+  @Override
+  public void read(PushbackReader r) throws BzlSyntaxError, IOException {
+    int n = ReaderUtils.next(r);
+    if (!Character.isDigit(n)) {
+      throw new BzlSyntaxError(String.format("invalid integer start: %s", (char) n));
+    }
+
+    StringBuffer sb = new StringBuffer();
+    do {
+      sb.append((char) n);
+      n = r.read();
+    } while (Character.isDigit(n));
+    if (n != -1) {
+      r.unread(n);
+    }
+
+    int read;
+    try {
+      read = Integer.parseInt(sb.toString());
+    } catch (NumberFormatException e) {
+      throw new BzlSyntaxError(String.format("invalid integer %s", sb));
+    }
+
+    if (value != null && value != read) {
+      throw new BzlSyntaxError(String.format("expected integer %d but found %d", value, read));
+    }
+
+    value = read;
+  }
+
+  public static BzlExpression.Factory<BzlInteger> factory() {
+    return () -> new BzlInteger();
+  }
+}
@@ -38,11 +38,13 @@ public class BzlList<T extends BzlExpression> implements BzlExpression {
   public void read(PushbackReader r) throws BzlSyntaxError, IOException {
     ReaderUtils.expectNext(r, '[');
     List<T> elts = new ArrayList<>();
-    do {
-      T elt = factory.make();
-      elt.read(r);
-      elts.add(elt);
-    } while (hasNextElt(r));
+    if (hasFirstElt(r)) {
+      do {
+        T elt = factory.make();
+        elt.read(r);
+        elts.add(elt);
+      } while (hasNextElt(r));
+    }
 
     char next = (char) ReaderUtils.next(r);
     if (next != ']') {
@@ -57,6 +59,12 @@ public class BzlList<T extends BzlExpression> implements BzlExpression {
     elements = elts;
   }
 
+  private boolean hasFirstElt(PushbackReader r) throws BzlSyntaxError, IOException {
+    int next = ReaderUtils.next(r);
+    r.unread(next);
+    return (char) next != ']';
+  }
+
   private boolean hasNextElt(PushbackReader r) throws BzlSyntaxError, IOException {
     int next = ReaderUtils.next(r);
     if ((char) next != ',') {
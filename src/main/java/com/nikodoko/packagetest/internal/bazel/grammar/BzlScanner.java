@@ -0,0 +1,435 @@
+package com.nikodoko.packagetest.internal.bazel.grammar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Finds the top-level function calls of any Bazel file, such as the rules of a BUILD file, along
+ * with their arguments and positions.
+ *
+ * <p>Unlike {@link BzlCode}, which only reads code with a known structure, this accepts any code
+ * made of statements and the common expressions (strings, numbers, identifiers, lists,
+ * dictionaries, tuples, calls and binary operations). Only string and list values are kept, other
+ * expressions are skipped. Positions are offsets in the UTF-8 bytes of the code.
+ */
+public class BzlScanner {
+  private final byte[] code;
+  private int pos = 0;
+
+  private BzlScanner(byte[] code) {
+    this.code = code;
+  }
+
+  /** Returns the calls found at the top level of {@code code}, in order. */
+  public static List<Call> scan(byte[] code) throws BzlSyntaxError {
+    return new BzlScanner(code).statements();
+  }
+
+  /** A function call, such as {@code java_library(name = "a", deps = [...])}. */
+  public static class Call {
+    private final String function;
+    private final int start;
+    private final int end;
+    private final List<Value> arguments;
+    private final Map<String, Value> keywords;
+
+    private Call(
+        String function, int start, int end, List<Value> arguments, Map<String, Value> keywords) {
+      this.function = function;
+      this.start = start;
+      this.end = end;
+      this.arguments = arguments;
+      this.keywords = keywords;
+    }
+
+    /** The name of the called function, such as {@code java_library} or {@code maven.install}. */
+    public String function() {
+      return function;
+    }
+
+    /** The offset of the first byte of this call. */
+    public int start() {
+      return start;
+    }
+
+    /** The offset following the closing parenthesis of this call. */
+    public int end() {
+      return end;
+    }
+
+    /** The positional arguments of this call. */
+    public List<Value> arguments() {
+      return arguments;
+    }
+
+    /** The value of the keyword argument {@code name}, if any. */
+    public Optional<Value> keyword(String name) {
+      return Optional.ofNullable(keywords.get(name));
+    }
+
+    /** The string value of the keyword argument {@code name}, if it is a string. */
+    public Optional<String> string(String name) {
+      return keyword(name).flatMap(Value::string);
+    }
+
+    /** The strings of the keyword argument {@code name}, if it is a list (empty otherwise). */
+    public List<String> strings(String name) {
+      return keyword(name).map(Value::strings).orElse(List.of());
+    }
+  }
+
+  /** An expression, only described in detail if it is a string or a list. */
+  public static class Value {
+    private final int start;
+    private final int end;
+    private final Optional<String> string;
+    private final Optional<List<Value>> elements;
+
+    private Value(int start, int end, Optional<String> string, Optional<List<Value>> elements) {
+      this.start = start;
+      this.end = end;
+      this.string = string;
+      this.elements = elements;
+    }
+
+    /** The offset of the first byte of this value. */
+    public int start() {
+      return start;
+    }
+
+    /** The offset following the last byte of this value. */
+    public int end() {
+      return end;
+    }
+
+    /** The contents of this value, if it is a string. */
+    public Optional<String> string() {
+      return string;
+    }
+
+    /** The elements of this value, if it is a list. */
+    public Optional<List<Value>> elements() {
+      return elements;
+    }
+
+    /** The string elements of this value, if it is a list (empty otherwise). */
+    public List<String> strings() {
+      List<String> strings = new ArrayList<>();
+      for (Value v : elements.orElse(List.of())) {
+        v.string().ifPresent(strings::add);
+      }
+
+      return strings;
+    }
+  }
+
+  private List<Call> statements() throws BzlSyntaxError {
+    List<Call> calls = new ArrayList<>();
+    while (skipBlanks()) {
+      Parsed statement = expression();
+      if (peek() == '=' && peekAt(1) != '=') {
+        pos++;
+        statement = expression();
+      }
+
+      if (statement.call != null) {
+        calls.add(statement.call);
+      }
+
+      if (skipBlanks() && peek() == ';') {
+        pos++;
+      }
+    }
+
+    return calls;
+  }
+
+  // An expression, and the call it is if it is one
+  private static class Parsed {
+    final Value value;
+    final Call call;
+
+    Parsed(Value value, Call call) {
+      this.value = value;
+      this.call = call;
+    }
+  }
+
+  private Parsed expression() throws BzlSyntaxError {
+    int start = position();
+    Parsed first = primary();
+    boolean binary = false;
+    int length;
+    while (skipBlanks() && (length = operator()) > 0) {
+      pos += length;
+      primary();
+      binary = true;
+    }
+
+    return binary ? new Parsed(other(start), null) : first;
+  }
+
+  private Parsed primary() throws BzlSyntaxError {
+    int start = position();
+    byte c = peek();
+    if (c == '"' || c == '\'') {
+      String s = string();
+      return new Parsed(new Value(start, pos, Optional.of(s), Optional.empty()), null);
+    }
+
+    if (c == '[') {
+      pos++;
+      List<Value> elements = new ArrayList<>();
+      while (!closes(']')) {
+        elements.add(expression().value);
+        separator(']');
+      }
+
+      return new Parsed(new Value(start, pos, Optional.empty(), Optional.of(elements)), null);
+    }
+
+    if (c == '{') {
+      pos++;
+      while (!closes('}')) {
+        expression();
+        expect(':');
+        expression();
+        separator('}');
+      }
+
+      return new Parsed(other(start), null);
+    }
+
+    if (c == '(') {
+      pos++;
+      while (!closes(')')) {
+        expression();
+        separator(')');
+      }
+
+      return new Parsed(other(start), null);
+    }
+
+    if (c == '-' || c == '+' || c == '~') {
+      pos++;
+      primary();
+      return new Parsed(other(start), null);
+    }
+
+    if (Character.isDigit(c)) {
+      while (pos < code.length && (Character.isLetterOrDigit(code[pos]) || code[pos] == '.')) {
+        pos++;
+      }
+
+      return new Parsed(other(start), null);
+    }
+
+    String name = dottedIdentifier();
+    int end = pos;
+    skipBlanks();
+    if (peek() != '(') {
+      pos = end;
+      return new Parsed(other(start), null);
+    }
+
+    Call call = call(name, start);
+    return new Parsed(other(start), call);
+  }
+
+  private Call call(String function, int start) throws BzlSyntaxError {
+    pos++;
+    List<Value> arguments = new ArrayList<>();
+    Map<String, Value> keywords = new LinkedHashMap<>();
+    while (!closes(')')) {
+      while (peek() == '*') {
+        pos++;
+      }
+
+      int mark = pos;
+      if (isIdentifierStart(peek())) {
+        String keyword = identifier();
+        if (skipBlanks() && peek() == '=' && peekAt(1) != '=') {
+          pos++;
+          keywords.put(keyword, expression().value);
+          separator(')');
+          continue;
+        }
+
+        pos = mark;
+      }
+
+      arguments.add(expression().value);
+      separator(')');
+    }
+
+    return new Call(function, start, pos, arguments, keywords);
+  }
+
+  private String dottedIdentifier() throws BzlSyntaxError {
+    StringBuilder name = new StringBuilder(identifier());
+    while (pos < code.length && code[pos] == '.') {
+      pos++;
+      name.append('.').append(identifier());
+    }
+
+    return name.toString();
+  }
+
+  private String identifier() throws BzlSyntaxError {
+    if (!isIdentifierStart(peek())) {
+      throw error(String.format("unexpected '%s'", (char) peek()));
+    }
+
+    int start = pos;
+    while (pos < code.length && (isIdentifierStart(code[pos]) || Character.isDigit(code[pos]))) {
+      pos++;
+    }
+
+    return new String(code, start, pos - start, UTF_8);
+  }
+
+  // Strings can use either quote, and be triple quoted
+  private String string() throws BzlSyntaxError {
+    byte quote = code[pos];
+    boolean triple = peekAt(1) == quote && peekAt(2) == quote;
+    pos += triple ? 3 : 1;
+    StringBuilder s = new StringBuilder();
+    int chunk = pos;
+    while (true) {
+      if (pos >= code.length) {
+        throw error("unterminated string");
+      }
+
+      if (code[pos] == '\\') {
+        s.append(new String(code, chunk, pos - chunk, UTF_8));
+        s.append(unescape(peekAt(1)));
+        pos += 2;
+        chunk = pos;
+        continue;
+      }
+
+      if (code[pos] == quote && (!triple || (peekAt(1) == quote && peekAt(2) == quote))) {
+        s.append(new String(code, chunk, pos - chunk, UTF_8));
+        pos += triple ? 3 : 1;
+        return s.toString();
+      }
+
+      pos++;
+    }
+  }
+
+  private static char unescape(byte escaped) {
+    switch (escaped) {
+      case 'n':
+        return '\n';
+      case 't':
+        return '\t';
+      case 'r':
+        return '\r';
+      default:
+        return (char) escaped;
+    }
+  }
+
+  private Value other(int start) {
+    return new Value(start, pos, Optional.empty(), Optional.empty());
+  }
+
+  // Whether the enclosing brackets are closed, consuming the closing one if so
+  private boolean closes(char closing) throws BzlSyntaxError {
+    if (!skipBlanks()) {
+      throw error(String.format("expected '%s' but found end of code", closing));
+    }
+
+    if (peek() == closing) {
+      pos++;
+      return true;
+    }
+
+    return false;
+  }
+
+  // Elements are separated by commas, and the last one can be followed by one
+  private void separator(char closing) throws BzlSyntaxError {
+    skipBlanks();
+    if (peek() == ',') {
+      pos++;
+      return;
+    }
+
+    if (peek() != closing) {
+      throw error(String.format("expected ',' or '%s' but found '%s'", closing, (char) peek()));
+    }
+  }
+
+  private void expect(char expected) throws BzlSyntaxError {
+    skipBlanks();
+    if (peek() != expected) {
+      throw error(String.format("expected '%s' but found '%s'", expected, (char) peek()));
+    }
+
+    pos++;
+  }
+
+  private int position() throws BzlSyntaxError {
+    if (!skipBlanks()) {
+      throw error("expected an expression but found end of code");
+    }
+
+    return pos;
+  }
+
+  // Skips whitespace and comments, returning whether there is anything left
+  private boolean skipBlanks() {
+    while (pos < code.length) {
+      if (code[pos] == '#') {
+        while (pos < code.length && code[pos] != '\n') {
+          pos++;
+        }
+      } else if (Character.isWhitespace(code[pos]) || code[pos] == '\\') {
+        pos++;
+      } else {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private byte peek() {
+    return peekAt(0);
+  }
+
+  private byte peekAt(int offset) {
+    return pos + offset < code.length ? code[pos + offset] : 0;
+  }
+
+  private static boolean isIdentifierStart(byte c) {
+    return Character.isLetter(c) || c == '_';
+  }
+
+  // The length of the binary operator at the current position, 0 if there is none
+  private int operator() {
+    byte c = peek();
+    byte next = peekAt(1);
+    if (c == '=' || c == '!') {
+      return next == '=' ? 2 : 0;
+    }
+
+    if (c == 0 || "+-*/%|&^<>".indexOf(c) < 0) {
+      return 0;
+    }
+
+    // Covers **, //, <<, >>, <= and >=
+    return next == c || next == '=' ? 2 : 1;
+  }
+
+  private BzlSyntaxError error(String message) {
+    return new BzlSyntaxError(String.format("%s at offset %d", message, pos));
+  }
+}
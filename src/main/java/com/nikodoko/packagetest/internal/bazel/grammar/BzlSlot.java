@@ -0,0 +1,37 @@
+package com.nikodoko.packagetest.internal.bazel.grammar;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Writer;
+
+/**
+ * A placeholder for an expression of type {@code T}, to be filled when writing a {@link
+ * BzlTemplate}.
+ *
+ * <p>Slots can only be written as part of a template, and cannot be read.
+ */
+public class BzlSlot<T extends BzlExpression> implements BzlExpression {
+  private final String name;
+
+  public BzlSlot(String name) {
+    this.name = name;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public void write(Writer w) throws IOException {
+    if (!(w instanceof BzlTemplate.Compiler)) {
+      throw new IllegalStateException(String.format("slot %s written outside of a template", name));
+    }
+
+    ((BzlTemplate.Compiler) w).slot(this);
+  }
+
+  @Override
+  public void read(PushbackReader r) throws BzlSyntaxError, IOException {
+    throw new UnsupportedOperationException(String.format("cannot read slot %s", name));
+  }
+}
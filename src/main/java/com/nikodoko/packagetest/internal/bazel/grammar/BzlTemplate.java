@@ -0,0 +1,123 @@
+package com.nikodoko.packagetest.internal.bazel.grammar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bazel code compiled once into constant byte segments separated by {@link BzlSlot}s.
+ *
+ * <p>Writing a template only copies the constant segments and serializes the expressions bound to
+ * its slots, instead of walking a full expression tree.
+ */
+public class BzlTemplate {
+  private final byte[][] constants;
+  private final BzlSlot<?>[] slots;
+
+  private BzlTemplate(byte[][] constants, BzlSlot<?>[] slots) {
+    this.constants = constants;
+    this.slots = slots;
+  }
+
+  /** Compiles {@code statements}, in which some expressions can be {@link BzlSlot}s. */
+  public static BzlTemplate compile(List<BzlStatement> statements) {
+    Compiler c = new Compiler();
+    try {
+      for (BzlStatement s : statements) {
+        s.write(c);
+      }
+    } catch (IOException e) {
+      // Only writes to memory
+      throw new UncheckedIOException(e);
+    }
+
+    return c.compile();
+  }
+
+  /** Returns an empty set of values for the slots of this template. */
+  public Values values() {
+    return new Values();
+  }
+
+  /**
+   * Writes this template to {@code out}, filling slots with {@code values}.
+   *
+   * @throws IllegalArgumentException if a slot has no value
+   */
+  public void write(OutputStream out, Values values) throws IOException {
+    Writer w = new OutputStreamWriter(out, UTF_8);
+    for (int i = 0; i < slots.length; i++) {
+      out.write(constants[i]);
+      BzlExpression value = values.values[i];
+      if (value == null) {
+        throw new IllegalArgumentException(
+            String.format("no value for slot %s", slots[i].name()));
+      }
+
+      value.write(w);
+      w.flush();
+    }
+
+    out.write(constants[slots.length]);
+  }
+
+  /** Values bound to the slots of a {@link BzlTemplate}. */
+  public class Values {
+    private final BzlExpression[] values = new BzlExpression[slots.length];
+
+    private Values() {}
+
+    /**
+     * Binds {@code value} to {@code slot}.
+     *
+     * @throws IllegalArgumentException if {@code slot} is not part of this template
+     */
+    public <T extends BzlExpression> Values set(BzlSlot<T> slot, T value) {
+      for (int i = 0; i < slots.length; i++) {
+        if (slots[i] == slot) {
+          values[i] = value;
+          return this;
+        }
+      }
+
+      throw new IllegalArgumentException(String.format("unknown slot %s", slot.name()));
+    }
+  }
+
+  // A writer recording the code written between slots
+  static class Compiler extends Writer {
+    private final List<byte[]> constants = new ArrayList<>();
+    private final List<BzlSlot<?>> slots = new ArrayList<>();
+    private StringWriter current = new StringWriter();
+
+    void slot(BzlSlot<?> slot) {
+      constants.add(current.toString().getBytes(UTF_8));
+      slots.add(slot);
+      current = new StringWriter();
+    }
+
+    BzlTemplate compile() {
+      constants.add(current.toString().getBytes(UTF_8));
+      return new BzlTemplate(
+          constants.toArray(new byte[0][]), slots.toArray(new BzlSlot<?>[0]));
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      current.write(cbuf, off, len);
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,82 @@
+package com.nikodoko.packagetest.junit;
+
+import com.nikodoko.packagetest.Exported;
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+/**
+ * A JUnit 5 extension exporting a {@link Fixture} once for a whole test class, and restoring it
+ * after each test.
+ *
+ * <p>The extension must be registered in a static field, and resolves {@link Exported} parameters.
+ * For example:
+ *
+ * <pre>
+ * class MyToolTest {
+ *   &#64;RegisterExtension
+ *   static final ExportExtension PROJECT =
+ *       ExportExtension.of(Fixture.builder(BuildSystem.MAVEN).modules(m1, m2).build());
+ *
+ *   &#64;Test
+ *   void test(Exported project) {
+ *     Path root = project.root();
+ *   }
+ * }
+ * </pre>
+ */
+public class ExportExtension
+    implements BeforeAllCallback,
+        AfterAllCallback,
+        BeforeEachCallback,
+        AfterEachCallback,
+        ParameterResolver {
+  private final Fixture fixture;
+
+  private ExportExtension(Fixture fixture) {
+    this.fixture = fixture;
+  }
+
+  public static ExportExtension of(Fixture fixture) {
+    return new ExportExtension(fixture);
+  }
+
+  /** Returns the exported project, see {@link Fixture#exported}. */
+  public Exported exported() {
+    return fixture.exported();
+  }
+
+  @Override
+  public void beforeAll(ExtensionContext context) throws Exception {
+    fixture.setUp();
+  }
+
+  @Override
+  public void afterAll(ExtensionContext context) throws Exception {
+    fixture.tearDown();
+  }
+
+  @Override
+  public void beforeEach(ExtensionContext context) {
+    fixture.beforeTest();
+  }
+
+  @Override
+  public void afterEach(ExtensionContext context) throws Exception {
+    fixture.afterTest();
+  }
+
+  @Override
+  public boolean supportsParameter(ParameterContext parameter, ExtensionContext context) {
+    return parameter.getParameter().getType() == Exported.class;
+  }
+
+  @Override
+  public Object resolveParameter(ParameterContext parameter, ExtensionContext context) {
+    return fixture.exported();
+  }
+}
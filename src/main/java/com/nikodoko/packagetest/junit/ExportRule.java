@@ -0,0 +1,77 @@
+package com.nikodoko.packagetest.junit;
+
+import com.nikodoko.packagetest.Exported;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * A JUnit 4 rule exporting a {@link Fixture} once for a whole test class (or suite).
+ *
+ * <p>For example:
+ *
+ * <pre>
+ * public class MyToolTest {
+ *   &#64;ClassRule
+ *   public static final ExportRule PROJECT =
+ *       ExportRule.of(Fixture.builder(BuildSystem.MAVEN).modules(m1, m2).build());
+ *
+ *   &#64;Rule public final TestRule reset = PROJECT.resetAfterEach();
+ *
+ *   &#64;Test
+ *   public void test() {
+ *     Path root = PROJECT.exported().root();
+ *   }
+ * }
+ * </pre>
+ */
+public class ExportRule implements TestRule {
+  private final Fixture fixture;
+
+  private ExportRule(Fixture fixture) {
+    this.fixture = fixture;
+  }
+
+  public static ExportRule of(Fixture fixture) {
+    return new ExportRule(fixture);
+  }
+
+  /** Returns the exported project, see {@link Fixture#exported}. */
+  public Exported exported() {
+    return fixture.exported();
+  }
+
+  @Override
+  public Statement apply(Statement base, Description description) {
+    return new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        fixture.setUp();
+        try {
+          base.evaluate();
+        } finally {
+          fixture.tearDown();
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns a rule restoring the exported project to its original state after each test, to use as
+   * a {@code @Rule}.
+   */
+  public TestRule resetAfterEach() {
+    return (base, description) ->
+        new Statement() {
+          @Override
+          public void evaluate() throws Throwable {
+            fixture.beforeTest();
+            try {
+              base.evaluate();
+            } finally {
+              fixture.afterTest();
+            }
+          }
+        };
+  }
+}
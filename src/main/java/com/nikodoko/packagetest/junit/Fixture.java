@@ -0,0 +1,210 @@
+package com.nikodoko.packagetest.junit;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import com.nikodoko.packagetest.Repository;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A project exported once and shared by several tests, through an {@link ExportRule} or an {@link
+ * ExportExtension}.
+ *
+ * <p>Unless the fixture is read-only, the exported project is restored to its original state after
+ * each test, and tests using it do not run concurrently. Read-only fixtures have non-writable files
+ * instead, and can be used by tests running in parallel.
+ */
+public class Fixture {
+  private final BuildSystem buildSystem;
+  private final List<Repository> repositories;
+  private final List<Module> modules;
+  // Defaults are built for each export, as their temporary root is deleted with the project
+  private final Optional<Export.Options> options;
+  private final boolean readOnly;
+  private final ReentrantLock lock = new ReentrantLock(true);
+  // Rules and extensions can be nested (suites, nested test classes...)
+  private int users = 0;
+  private Exported exported;
+  private TreeSnapshot snapshot;
+
+  private Fixture(Builder builder) {
+    this.buildSystem = builder.buildSystem;
+    this.repositories = List.copyOf(builder.repositories);
+    this.modules = List.copyOf(builder.modules);
+    this.options = builder.options;
+    this.readOnly = builder.readOnly;
+  }
+
+  /**
+   * Returns the exported project.
+   *
+   * @throws IllegalStateException if the project is not exported, which happens outside of the
+   *     tests using this fixture
+   */
+  public synchronized Exported exported() {
+    if (exported == null) {
+      throw new IllegalStateException("fixture is not exported, is its rule or extension static?");
+    }
+
+    return exported;
+  }
+
+  public boolean readOnly() {
+    return readOnly;
+  }
+
+  synchronized void setUp() throws IOException {
+    if (users > 0) {
+      users++;
+      return;
+    }
+
+    // Only counted once exported, so that a failed export is attempted again by the next user
+    Exported e =
+        Export.of(
+            buildSystem, repositories, modules, options.orElseGet(Export.Options::defaults));
+    try {
+      if (readOnly) {
+        setWritable(e.root(), false);
+      } else {
+        snapshot = TreeSnapshot.of(e.root());
+      }
+    } catch (IOException | RuntimeException failure) {
+      setWritable(e.root(), true);
+      e.cleanup();
+      throw failure;
+    }
+
+    exported = e;
+    users++;
+  }
+
+  void beforeTest() {
+    exported();
+    if (!readOnly) {
+      lock.lock();
+    }
+  }
+
+  void afterTest() throws IOException {
+    // The lock is not taken if the test could not start, which must not hide why
+    if (readOnly || !lock.isHeldByCurrentThread()) {
+      return;
+    }
+
+    try {
+      snapshot.restore();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  synchronized void tearDown() throws IOException {
+    if (--users > 0) {
+      return;
+    }
+
+    if (readOnly) {
+      setWritable(exported.root(), true);
+    }
+
+    exported.cleanup();
+    exported = null;
+    snapshot = null;
+  }
+
+  // Directories are included so that files cannot be added or removed either, and are made
+  // read-only after their contents and writable before them
+  private static void setWritable(Path root, boolean writable) throws IOException {
+    List<Path> files;
+    try (Stream<Path> paths = Files.walk(root)) {
+      files = paths.collect(Collectors.toList());
+    }
+
+    if (!writable) {
+      Collections.reverse(files);
+    }
+
+    for (Path f : files) {
+      PosixFileAttributeView posix = Files.getFileAttributeView(f, PosixFileAttributeView.class);
+      if (posix == null) {
+        Files.setAttribute(f, "dos:readonly", !writable);
+        continue;
+      }
+
+      Set<PosixFilePermission> permissions = posix.readAttributes().permissions();
+      if (writable) {
+        permissions.add(PosixFilePermission.OWNER_WRITE);
+      } else {
+        permissions.remove(PosixFilePermission.OWNER_WRITE);
+        permissions.remove(PosixFilePermission.GROUP_WRITE);
+        permissions.remove(PosixFilePermission.OTHERS_WRITE);
+      }
+
+      posix.setPermissions(permissions);
+    }
+  }
+
+  public static Builder builder(BuildSystem buildSystem) {
+    return new Builder(buildSystem);
+  }
+
+  public static class Builder {
+    private final BuildSystem buildSystem;
+    private List<Repository> repositories = new ArrayList<>();
+    private List<Module> modules = new ArrayList<>();
+    private Optional<Export.Options> options = Optional.empty();
+    private boolean readOnly = false;
+
+    private Builder(BuildSystem buildSystem) {
+      this.buildSystem = buildSystem;
+    }
+
+    public Builder repositories(List<Repository> repositories) {
+      this.repositories = repositories;
+      return this;
+    }
+
+    public Builder modules(Module... modules) {
+      return modules(Arrays.asList(modules));
+    }
+
+    public Builder modules(List<Module> modules) {
+      this.modules = modules;
+      return this;
+    }
+
+    public Builder options(Export.Options options) {
+      this.options = Optional.of(options);
+      return this;
+    }
+
+    /**
+     * Makes all the files of the exported project non-writable, and lets tests use it in parallel.
+     *
+     * <p>The project is then never restored between tests.
+     */
+    public Builder readOnly() {
+      this.readOnly = true;
+      return this;
+    }
+
+    public Fixture build() {
+      return new Fixture(this);
+    }
+  }
+}
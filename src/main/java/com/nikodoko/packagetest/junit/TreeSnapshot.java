@@ -0,0 +1,181 @@
+package com.nikodoko.packagetest.junit;
+
+import com.nikodoko.packagetest.internal.Digests;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The state of all the files of a directory, which can be restored later.
+ *
+ * <p>Restoring only rewrites files whose size, modification time or contents changed, deletes
+ * files that did not exist when the snapshot was taken, and sets modification times back to the
+ * ones recorded, so that a restored tree can still be reattached to. Contents are only hashed for
+ * files whose status changed (on systems exposing it) while their size and modification time did
+ * not, which only happens when a modification time is set back on purpose, and for files modified
+ * too shortly before the snapshot for a later write to be told apart on file systems with a
+ * coarse time resolution.
+ */
+class TreeSnapshot {
+  // The coarsest resolution of common file systems (FAT)
+  private static final Duration RESOLUTION = Duration.ofSeconds(2);
+
+  private final Path root;
+  private final Map<Path, FileTime> directories;
+  private final Map<Path, Entry> files;
+
+  private TreeSnapshot(Path root, Map<Path, FileTime> directories, Map<Path, Entry> files) {
+    this.root = root;
+    this.directories = directories;
+    this.files = files;
+  }
+
+  /** Takes a snapshot of the contents of {@code root}. */
+  static TreeSnapshot of(Path root) throws IOException {
+    Instant recent = Instant.now().minus(RESOLUTION);
+    Map<Path, FileTime> directories = new TreeMap<>();
+    Map<Path, Entry> files = new TreeMap<>();
+    for (Path p : walk(root)) {
+      Path relative = root.relativize(p);
+      BasicFileAttributes attrs =
+          Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      if (attrs.isDirectory()) {
+        directories.put(relative, attrs.lastModifiedTime());
+        continue;
+      }
+
+      byte[] contents = Files.readAllBytes(p);
+      FileTime time = attrs.lastModifiedTime();
+      files.put(
+          relative,
+          new Entry(
+              contents,
+              sha256(contents),
+              time,
+              time.toInstant().isAfter(recent) && time.toInstant().getNano() == 0,
+              statusChangeTime(p)));
+    }
+
+    return new TreeSnapshot(root, directories, files);
+  }
+
+  /**
+   * Restores the contents of the directory to their state when this snapshot was taken.
+   *
+   * @return the number of files that were written or deleted
+   */
+  int restore() throws IOException {
+    int changes = 0;
+    // Children first, so that extra directories are empty when deleted
+    List<Path> existing = walk(root);
+    existing.sort(Comparator.reverseOrder());
+    for (Path p : existing) {
+      Path relative = root.relativize(p);
+      if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+        if (!directories.containsKey(relative)) {
+          Files.delete(p);
+        }
+      } else if (!files.containsKey(relative)) {
+        Files.delete(p);
+        changes++;
+      }
+    }
+
+    for (Path d : directories.keySet()) {
+      Files.createDirectories(root.resolve(d));
+    }
+
+    for (Map.Entry<Path, Entry> f : files.entrySet()) {
+      Path p = root.resolve(f.getKey());
+      Entry entry = f.getValue();
+      if (!entry.matches(p)) {
+        Files.write(p, entry.contents);
+        Files.setLastModifiedTime(p, entry.modificationTime);
+        entry.statusChangeTime = statusChangeTime(p);
+        changes++;
+      }
+    }
+
+    // Last, as adding or removing files changes the modification time of their directory
+    for (Map.Entry<Path, FileTime> d : directories.entrySet()) {
+      Path p = root.resolve(d.getKey());
+      if (!Files.getLastModifiedTime(p).equals(d.getValue())) {
+        Files.setLastModifiedTime(p, d.getValue());
+      }
+    }
+
+    return changes;
+  }
+
+  private static List<Path> walk(Path root) throws IOException {
+    try (Stream<Path> paths = Files.walk(root)) {
+      return paths.filter(p -> !p.equals(root)).collect(Collectors.toList());
+    }
+  }
+
+  // The time of the last change of a file or of its attributes, when the file system exposes it
+  private static Optional<FileTime> statusChangeTime(Path p) throws IOException {
+    try {
+      return Optional.of((FileTime) Files.getAttribute(p, "unix:ctime", LinkOption.NOFOLLOW_LINKS));
+    } catch (UnsupportedOperationException | IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static byte[] sha256(byte[] contents) {
+    return Digests.digest("SHA-256", contents);
+  }
+
+  private static class Entry {
+    final byte[] contents;
+    final byte[] hash;
+    final FileTime modificationTime;
+    // Whether a write could leave the modification time unchanged, which times without a
+    // fraction of a second just before the snapshot suggest
+    final boolean recent;
+    Optional<FileTime> statusChangeTime;
+
+    Entry(
+        byte[] contents,
+        byte[] hash,
+        FileTime modificationTime,
+        boolean recent,
+        Optional<FileTime> statusChangeTime) {
+      this.contents = contents;
+      this.hash = hash;
+      this.modificationTime = modificationTime;
+      this.recent = recent;
+      this.statusChangeTime = statusChangeTime;
+    }
+
+    boolean matches(Path p) throws IOException {
+      if (!Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS)) {
+        return false;
+      }
+
+      BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+      if (attrs.size() != contents.length || !attrs.lastModifiedTime().equals(modificationTime)) {
+        return false;
+      }
+
+      if (!recent && statusChangeTime.isPresent() && statusChangeTime.equals(statusChangeTime(p))) {
+        return true;
+      }
+
+      return Arrays.equals(hash, sha256(Files.readAllBytes(p)));
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.nikodoko.packagetest.scaling;
+
+import com.nikodoko.packagetest.Module;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The size of a generated fixture, one point of the sweep of a {@link ScalingHarness}.
+ *
+ * <p>Fixtures are made of {@code modules} modules named {@code module0}, {@code module1}... each
+ * containing {@code filesPerModule} classes of a {@code fixture.moduleN} package. Each module
+ * depends on each previous one with probability {@code dependencyDensity}, and its first class
+ * imports a class of each of its dependencies. Fixtures are generated from a fixed seed, so a same
+ * size always gives the same fixture.
+ */
+public class FixtureSize {
+  private final int modules;
+  private final int filesPerModule;
+  private final double dependencyDensity;
+
+  private FixtureSize(int modules, int filesPerModule, double dependencyDensity) {
+    this.modules = modules;
+    this.filesPerModule = filesPerModule;
+    this.dependencyDensity = dependencyDensity;
+  }
+
+  /**
+   * Returns a size of {@code modules} modules of {@code filesPerModule} files, each module
+   * depending on each previous one with probability {@code dependencyDensity}.
+   *
+   * @throws IllegalArgumentException if {@code modules} or {@code filesPerModule} is not positive,
+   *     or {@code dependencyDensity} is not between 0 and 1
+   */
+  public static FixtureSize of(int modules, int filesPerModule, double dependencyDensity) {
+    if (modules < 1 || filesPerModule < 1) {
+      throw new IllegalArgumentException(
+          String.format("invalid size: %d modules of %d files", modules, filesPerModule));
+    }
+
+    if (!(dependencyDensity >= 0 && dependencyDensity <= 1)) {
+      throw new IllegalArgumentException("invalid dependency density: " + dependencyDensity);
+    }
+
+    return new FixtureSize(modules, filesPerModule, dependencyDensity);
+  }
+
+  public int modules() {
+    return modules;
+  }
+
+  public int filesPerModule() {
+    return filesPerModule;
+  }
+
+  public double dependencyDensity() {
+    return dependencyDensity;
+  }
+
+  /** The total number of files of the fixture. */
+  public int files() {
+    return modules * filesPerModule;
+  }
+
+  /** Generates the modules of the fixture, dependencies first. */
+  public List<Module> generate() {
+    Random random = new Random(0);
+    List<Module> generated = new ArrayList<>();
+    for (int i = 0; i < modules; i++) {
+      List<Module> dependencies = new ArrayList<>();
+      StringBuilder imports = new StringBuilder();
+      for (int j = 0; j < i; j++) {
+        if (random.nextDouble() < dependencyDensity) {
+          dependencies.add(generated.get(j));
+          imports.append(String.format("import fixture.module%d.C0;\n", j));
+        }
+      }
+
+      Module module = Module.named("module" + i);
+      for (int j = 0; j < filesPerModule; j++) {
+        module = module.withFile(Module.file(path(i, j), contents(i, j, j == 0 ? imports : "")));
+      }
+
+      generated.add(module.dependingOn(dependencies.toArray(new Module[0])));
+    }
+
+    return generated;
+  }
+
+  private static String path(int module, int file) {
+    return String.format("fixture/module%d/C%d.java", module, file);
+  }
+
+  private static String contents(int module, int file, CharSequence imports) {
+    return String.format(
+        "package fixture.module%d;\n\n%s\npublic class C%d {\n"
+            + "  int value() {\n    return %d;\n  }\n}\n",
+        module, imports, file, file);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d modules of %d files, dependency density %s",
+        modules, filesPerModule, dependencyDensity);
+  }
+}
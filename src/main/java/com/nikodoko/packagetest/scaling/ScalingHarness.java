@@ -0,0 +1,167 @@
+package com.nikodoko.packagetest.scaling;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Measures how the time taken by a tool grows with the size of the projects it runs on.
+ *
+ * <p>The harness exports a fixture of each size of its sweep, then runs the tool on it a number of
+ * times to warm up, and a number of times to measure. The resulting {@link ScalingReport} fits the
+ * median times to a power of the size, and tells whether the tool scales linearly:
+ *
+ * <pre>
+ * ScalingHarness.builder(BuildSystem.MAVEN)
+ *     .sizes(FixtureSize.of(10, 10, 0.1), FixtureSize.of(20, 10, 0.1), FixtureSize.of(40, 10, 0.1))
+ *     .build()
+ *     .run(project -&gt; myTool.analyze(project.root()))
+ *     .assertAtMostLinear();
+ * </pre>
+ *
+ * <p>Each fixture is exported once and shared by all the runs of the tool on it, so the tool
+ * should not modify it.
+ */
+public class ScalingHarness {
+  /** A tool run on exported fixtures. */
+  @FunctionalInterface
+  public interface Tool {
+    void run(Exported exported) throws Exception;
+  }
+
+  private final BuildSystem buildSystem;
+  private final List<FixtureSize> sizes;
+  private final Export.Options options;
+  private final int warmup;
+  private final int repetitions;
+  private final ToDoubleFunction<FixtureSize> scale;
+
+  private ScalingHarness(Builder builder) {
+    this.buildSystem = builder.buildSystem;
+    this.sizes = List.copyOf(builder.sizes);
+    this.options = builder.options;
+    this.warmup = builder.warmup;
+    this.repetitions = builder.repetitions;
+    this.scale = builder.scale;
+  }
+
+  public static Builder builder(BuildSystem buildSystem) {
+    return new Builder(buildSystem);
+  }
+
+  /**
+   * Runs {@code tool} on a fixture of each size, and reports the times it took.
+   *
+   * @throws Exception if exporting a fixture fails, or if {@code tool} throws
+   */
+  public ScalingReport run(Tool tool) throws Exception {
+    List<ScalingReport.Sample> samples = new ArrayList<>();
+    for (FixtureSize size : sizes) {
+      Exported exported = Export.of(buildSystem, List.of(), size.generate(), options);
+      try {
+        for (int i = 0; i < warmup; i++) {
+          tool.run(exported);
+        }
+
+        long[] nanos = new long[repetitions];
+        for (int i = 0; i < repetitions; i++) {
+          long start = System.nanoTime();
+          tool.run(exported);
+          nanos[i] = System.nanoTime() - start;
+        }
+
+        samples.add(new ScalingReport.Sample(size, scale.applyAsDouble(size), nanos));
+      } finally {
+        exported.cleanup();
+      }
+    }
+
+    return new ScalingReport(samples);
+  }
+
+  public static class Builder {
+    private final BuildSystem buildSystem;
+    private List<FixtureSize> sizes = new ArrayList<>();
+    private Export.Options options = Export.Options.defaults();
+    private int warmup = 3;
+    private int repetitions = 5;
+    private ToDoubleFunction<FixtureSize> scale = FixtureSize::files;
+
+    private Builder(BuildSystem buildSystem) {
+      this.buildSystem = buildSystem;
+    }
+
+    public Builder sizes(FixtureSize... sizes) {
+      return sizes(Arrays.asList(sizes));
+    }
+
+    public Builder sizes(List<FixtureSize> sizes) {
+      this.sizes = sizes;
+      return this;
+    }
+
+    public Builder options(Export.Options options) {
+      this.options = options;
+      return this;
+    }
+
+    /**
+     * Sets the number of runs of the tool on each fixture before measuring (3 by default).
+     *
+     * @throws IllegalArgumentException if {@code warmup} is negative
+     */
+    public Builder warmup(int warmup) {
+      if (warmup < 0) {
+        throw new IllegalArgumentException("invalid number of warmup runs: " + warmup);
+      }
+
+      this.warmup = warmup;
+      return this;
+    }
+
+    /**
+     * Sets the number of measured runs of the tool on each fixture (5 by default).
+     *
+     * @throws IllegalArgumentException if {@code repetitions} is not positive
+     */
+    public Builder repetitions(int repetitions) {
+      if (repetitions < 1) {
+        throw new IllegalArgumentException("invalid number of repetitions: " + repetitions);
+      }
+
+      this.repetitions = repetitions;
+      return this;
+    }
+
+    /**
+     * Sets the measure of the size of fixtures that times are fitted against (the total number of
+     * files by default), such as {@link FixtureSize#modules}.
+     */
+    public Builder scalingWith(ToDoubleFunction<FixtureSize> scale) {
+      this.scale = scale;
+      return this;
+    }
+
+    /**
+     * Returns the harness.
+     *
+     * @throws IllegalArgumentException if the sweep has less than two different sizes, or a size
+     *     whose measure is not positive
+     */
+    public ScalingHarness build() {
+      if (sizes.stream().mapToDouble(scale).anyMatch(s -> !(s > 0))) {
+        throw new IllegalArgumentException("sizes must have a positive measure");
+      }
+
+      if (sizes.stream().mapToDouble(scale).distinct().count() < 2) {
+        throw new IllegalArgumentException("at least two different sizes are needed");
+      }
+
+      return new ScalingHarness(this);
+    }
+  }
+}
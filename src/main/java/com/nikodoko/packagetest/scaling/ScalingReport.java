@@ -0,0 +1,171 @@
+package com.nikodoko.packagetest.scaling;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The times taken by a tool over a sweep of fixture sizes, as measured by a {@link ScalingHarness}.
+ *
+ * <p>Median times are fitted to {@code c * size^k} by least squares on their logarithms, {@code k}
+ * being the {@link #exponent}: about 1 for a tool scaling linearly, 2 for a quadratic one. Small
+ * sweeps and noisy measures move the exponent around, so growth only counts as superlinear past a
+ * tolerance.
+ */
+public class ScalingReport {
+  /** The default tolerance over a linear exponent, see {@link #isSuperlinear()}. */
+  public static final double DEFAULT_TOLERANCE = 0.2;
+
+  private final List<Sample> samples;
+  private final double exponent;
+
+  ScalingReport(List<Sample> samples) {
+    this.samples = List.copyOf(samples);
+    this.exponent = fit(this.samples);
+  }
+
+  /** The times measured on a fixture of a given size. */
+  public static class Sample {
+    private final FixtureSize size;
+    private final double scale;
+    private final long[] nanos;
+
+    Sample(FixtureSize size, double scale, long[] nanos) {
+      this.size = size;
+      this.scale = scale;
+      this.nanos = nanos.clone();
+      Arrays.sort(this.nanos);
+    }
+
+    public FixtureSize size() {
+      return size;
+    }
+
+    /** The measure of the size that times are fitted against. */
+    public double scale() {
+      return scale;
+    }
+
+    /** The time of each measured run, in nanoseconds and increasing order. */
+    public long[] nanos() {
+      return nanos.clone();
+    }
+
+    public long medianNanos() {
+      return nanos[nanos.length / 2];
+    }
+
+    public long minNanos() {
+      return nanos[0];
+    }
+
+    public long maxNanos() {
+      return nanos[nanos.length - 1];
+    }
+  }
+
+  // The slope of the least squares line through (log scale, log median)
+  private static double fit(List<Sample> samples) {
+    double n = samples.size();
+    double sumX = 0;
+    double sumY = 0;
+    double sumXX = 0;
+    double sumXY = 0;
+    for (Sample s : samples) {
+      double x = Math.log(s.scale());
+      double y = Math.log(Math.max(1, s.medianNanos()));
+      sumX += x;
+      sumY += y;
+      sumXX += x * x;
+      sumXY += x * y;
+    }
+
+    return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+  }
+
+  /** The samples, in the order of the sweep. */
+  public List<Sample> samples() {
+    return samples;
+  }
+
+  /** The exponent of the size in the fitted curve. */
+  public double exponent() {
+    return exponent;
+  }
+
+  /** Whether times grow faster than linearly, beyond {@link #DEFAULT_TOLERANCE}. */
+  public boolean isSuperlinear() {
+    return exponent > 1 + DEFAULT_TOLERANCE;
+  }
+
+  /**
+   * Checks that times grow at most linearly, beyond {@link #DEFAULT_TOLERANCE}.
+   *
+   * @throws AssertionError if they grow faster
+   */
+  public void assertAtMostLinear() {
+    assertExponentAtMost(1 + DEFAULT_TOLERANCE);
+  }
+
+  /**
+   * Checks that the fitted exponent is at most {@code max}.
+   *
+   * @throws AssertionError if it is greater
+   */
+  public void assertExponentAtMost(double max) {
+    if (exponent > max) {
+      throw new AssertionError(
+          String.format(
+              Locale.ROOT,
+              "times grow as size^%.2f, expected at most size^%.2f:%n%s",
+              exponent,
+              max,
+              toCsv()));
+    }
+  }
+
+  /** The samples as CSV, with a header line. */
+  public String toCsv() {
+    StringBuilder csv =
+        new StringBuilder(
+            "modules,files_per_module,dependency_density,scale,median_nanos,min_nanos,max_nanos\n");
+    for (Sample s : samples) {
+      csv.append(
+          String.format(
+              Locale.ROOT,
+              "%d,%d,%s,%s,%d,%d,%d%n",
+              s.size().modules(),
+              s.size().filesPerModule(),
+              s.size().dependencyDensity(),
+              s.scale(),
+              s.medianNanos(),
+              s.minNanos(),
+              s.maxNanos()));
+    }
+
+    return csv.toString();
+  }
+
+  /** The fitted exponent and the samples as a JSON object. */
+  public String toJson() {
+    StringBuilder json = new StringBuilder();
+    json.append(String.format(Locale.ROOT, "{\"exponent\":%s,\"samples\":[", exponent));
+    for (int i = 0; i < samples.size(); i++) {
+      Sample s = samples.get(i);
+      json.append(i == 0 ? "" : ",")
+          .append(
+              String.format(
+                  Locale.ROOT,
+                  "{\"modules\":%d,\"filesPerModule\":%d,\"dependencyDensity\":%s,\"scale\":%s,",
+                  s.size().modules(),
+                  s.size().filesPerModule(),
+                  s.size().dependencyDensity(),
+                  s.scale()))
+          .append("\"nanos\":")
+          .append(Arrays.toString(s.nanos).replace(" ", ""))
+          .append('}');
+    }
+
+    return json.append("]}").toString();
+  }
+}
@@ -0,0 +1,149 @@
+package com.nikodoko.packagetest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SubmissionPublisher;
+import org.junit.After;
+import org.junit.Test;
+
+public class AsyncExportTest {
+  ExecutorService executor = Executors.newSingleThreadExecutor();
+  Exported out;
+
+  @After
+  public void cleanup() throws Exception {
+    executor.shutdownNow();
+    if (out != null) {
+      out.cleanup();
+    }
+  }
+
+  @Test
+  public void testOfAsync() throws Exception {
+    Module a = Module.named("a.module").containing(Module.file("A.java", "package a.module;"));
+    Module b = Module.named("b.module").containing(Module.file("B.java", "package b.module;"));
+
+    AsyncExport export =
+        Export.ofAsync(BuildSystem.MAVEN, List.of(), List.of(a, b), Export.Options.defaults());
+    Path fileA = export.file("a.module", "A.java").join();
+    assertThat(new String(Files.readAllBytes(fileA), UTF_8)).isEqualTo("package a.module;");
+    export.module("b.module").join();
+
+    out = export.join();
+    assertThat((Object) out.file("a.module", "A.java").get()).isEqualTo(fileA);
+    // Also available after the export is done
+    assertThat((Object) export.file("b.module", "B.java").join())
+        .isEqualTo(out.file("b.module", "B.java").get());
+    try {
+      export.file("b.module", "C.java").join();
+      throw new AssertionError("expected an exception");
+    } catch (CompletionException e) {
+      assertThat(e.getCause()).isInstanceOf(NoSuchElementException.class);
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    List<Module> modules = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      modules.add(
+          Module.named("module" + i).containing(Module.file("A.java", "package module" + i + ";")));
+    }
+
+    // Block the executor until the export is cancelled
+    CountDownLatch cancelled = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          try {
+            cancelled.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    Export.Options options = Export.Options.defaults();
+    AsyncExport export = Export.ofAsync(BuildSystem.MAVEN, List.of(), modules, options, executor);
+    CompletableFuture<Path> file = export.file("module19", "A.java");
+    assertThat(export.cancel(true)).isTrue();
+    cancelled.countDown();
+
+    try {
+      file.join();
+      throw new AssertionError("expected an exception");
+    } catch (CancellationException | CompletionException expected) {
+    }
+
+    assertThat(Files.exists(options.root())).isFalse();
+  }
+
+  @Test
+  public void testOfPublisher() throws Exception {
+    Export.Options options = Export.Options.defaults();
+    AsyncExport export;
+    try (SubmissionPublisher<Module> publisher = new SubmissionPublisher<>(executor, 1)) {
+      export = Export.ofPublisher(BuildSystem.BAZEL, List.of(), publisher, options);
+      publisher.submit(module(0));
+      // Written before the next module is even published
+      export.module("module0").join();
+      assertThat(export.isDone()).isFalse();
+      for (int i = 1; i < 10; i++) {
+        publisher.submit(module(i));
+      }
+    }
+
+    out = export.join();
+    assertThat((Object) out.file("module9", "A.java").get())
+        .isEqualTo(options.root().resolve("module9/src/main/java/module9/A.java"));
+    assertThat(out.file("", "MODULE.bazel").isPresent()).isTrue();
+  }
+
+  @Test
+  public void testOfPublisherFailure() throws Exception {
+    Export.Options options = Export.Options.defaults();
+    SubmissionPublisher<Module> publisher = new SubmissionPublisher<>(executor, 1);
+    AsyncExport export = Export.ofPublisher(BuildSystem.BAZEL, List.of(), publisher, options);
+    publisher.submit(module(0));
+    export.module("module0").join();
+    publisher.closeExceptionally(new IllegalStateException("no more modules"));
+
+    try {
+      export.join();
+      throw new AssertionError("expected an exception");
+    } catch (CompletionException e) {
+      assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+    }
+
+    assertThat(Files.exists(options.root())).isFalse();
+  }
+
+  @Test
+  public void testOfPublisherCancel() throws Exception {
+    Export.Options options = Export.Options.defaults();
+    SubmissionPublisher<Module> publisher = new SubmissionPublisher<>(executor, 1);
+    AsyncExport export = Export.ofPublisher(BuildSystem.BAZEL, List.of(), publisher, options);
+    publisher.submit(module(0));
+    export.module("module0").join();
+    assertThat(export.cancel(true)).isTrue();
+
+    assertThat(Files.exists(options.root())).isFalse();
+    // The subscription is cancelled too
+    publisher.submit(module(1));
+    assertThat(publisher.hasSubscribers()).isFalse();
+    publisher.close();
+  }
+
+  private static Module module(int i) {
+    return Module.named("module" + i).containing(Module.file("A.java", "package module" + i + ";"));
+  }
+}
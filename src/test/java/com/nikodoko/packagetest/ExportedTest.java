@@ -0,0 +1,103 @@
+package com.nikodoko.packagetest;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+
+public class ExportedTest {
+  static final Module BASE =
+      Module.named("a.base.module")
+          .containing(Module.file("Base.java", "package a.base.module; public class Base {}"));
+  static final Module TOP =
+      Module.named("a.top.module")
+          .containing(
+              Module.file(
+                  "Top.java", "package a.top.module; class Top extends a.base.module.Base {}"))
+          .dependingOn(BASE);
+
+  Exported out;
+
+  @After
+  public void cleanup() throws Exception {
+    out.cleanup();
+  }
+
+  @Test
+  public void testAttach() throws Exception {
+    Export.Options options = Export.Options.builder().withTestTargets().build();
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(BASE, TOP), options);
+
+    Exported attached = Exported.attach(out.root()).get();
+    assertThat((Object) attached.root()).isEqualTo(out.root());
+    assertThat(attached.file("a.top.module", "Top.java"))
+        .isEqualTo(out.file("a.top.module", "Top.java"));
+    assertThat(attached.file("", "MODULE.bazel")).isEqualTo(out.file("", "MODULE.bazel"));
+    assertThat(attached.file("a.top.module", "BUILD.bazel"))
+        .isEqualTo(out.file("a.top.module", "BUILD.bazel"));
+    assertThat(attached.compile().succeeded()).isTrue();
+
+    assertThat(Exported.attach(out.root(), BuildSystem.BAZEL, options).isPresent()).isTrue();
+    assertThat(Exported.attach(out.root(), BuildSystem.MAVEN, options).isEmpty()).isTrue();
+    Export.Options other = Export.Options.defaults();
+    assertThat(Exported.attach(out.root(), BuildSystem.BAZEL, other).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testAttachChanged() throws Exception {
+    out = Export.of(BuildSystem.MAVEN, BASE);
+    Path base = out.file("a.base.module", "Base.java").get();
+
+    // Touched but unchanged
+    Files.setLastModifiedTime(base, FileTime.fromMillis(0));
+    assertThat(Exported.attach(out.root()).isPresent()).isTrue();
+
+    // Same size, different contents
+    Files.write(base, "package a.base.module; public class Bose {}".getBytes(UTF_8));
+    assertThat(Exported.attach(out.root()).isEmpty()).isTrue();
+
+    Files.delete(base);
+    assertThat(Exported.attach(out.root()).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testAttachWithoutManifest() throws Exception {
+    out = new Exported(Files.createTempDirectory("packagetest"), Map.of());
+    assertThat(Exported.attach(out.root()).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testAttachThrowaway() throws Exception {
+    Export.Options options = Export.Options.builder().withThrowawayProjects().build();
+    out = Export.of(BuildSystem.MAVEN, List.of(), List.of(BASE, TOP), options);
+
+    assertThat(Files.exists(out.file("a.top.module", "Top.java").get())).isTrue();
+    assertThat(Files.exists(out.root().resolve(".packagetest-manifest"))).isFalse();
+    assertThat(Exported.attach(out.root()).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testCleanupPreferringMemoryStorage() throws Exception {
+    Path shm = Path.of("/dev/shm");
+    boolean available = Files.isDirectory(shm) && Files.getFileStore(shm).type().equals("tmpfs");
+    Export.Options options = Export.Options.builder().preferringMemoryStorage(1024).build();
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(BASE), options);
+
+    Path root = out.root();
+    Path tmp = Path.of(System.getProperty("java.io.tmpdir"));
+    assertThat((Object) root.getParent()).isEqualTo(available ? shm : tmp);
+    out.cleanup();
+    assertThat(Files.exists(root)).isFalse();
+
+    // Too large for any storage
+    options = Export.Options.builder().preferringMemoryStorage(Long.MAX_VALUE).build();
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(BASE), options);
+    assertThat((Object) out.root().getParent()).isEqualTo(tmp);
+  }
+}
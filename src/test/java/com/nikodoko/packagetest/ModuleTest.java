@@ -0,0 +1,53 @@
+package com.nikodoko.packagetest;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ModuleTest {
+  @Test
+  public void testVariantsLeaveOriginalUntouched() {
+    Module base =
+        Module.named("a.module")
+            .containing(Module.file("B.java", "b"), Module.file("A.java", "a"))
+            .dependingOn(Module.dependency("my.dependency", "a-dependency", "1.0"));
+
+    Module variant =
+        base.withFile(Module.file("C.java", "c"))
+            .withoutFile("B.java")
+            .withFile(Module.file("A.java", "changed"))
+            .withDependency(Module.dependency("my.dependency", "another-dependency", "2.0"))
+            .withDependency(Module.named("an.other.module"));
+
+    assertThat(fragments(base)).containsExactly("A.java", "B.java").inOrder();
+    assertThat(base.file("A.java").get().contents()).isEqualTo("a");
+    assertThat(base.dependencies()).hasSize(1);
+    assertThat(base.moduleDependencies()).isEmpty();
+
+    assertThat(fragments(variant)).containsExactly("A.java", "C.java").inOrder();
+    assertThat(variant.file("A.java").get().contents()).isEqualTo("changed");
+    assertThat(variant.dependencies())
+        .containsExactly(
+            Module.dependency("my.dependency", "a-dependency", "1.0"),
+            Module.dependency("my.dependency", "another-dependency", "2.0"))
+        .inOrder();
+    assertThat(variant.moduleDependencies()).hasSize(1);
+  }
+
+  @Test
+  public void testWithoutMissingFile() {
+    Module base = Module.named("a.module").containing(Module.file("A.java", "a"));
+    assertThat(base.withoutFile("B.java")).isSameInstanceAs(base);
+  }
+
+  private static List<String> fragments(Module module) {
+    List<String> fragments = new ArrayList<>();
+    for (Module.File f : module.files()) {
+      fragments.add(f.fragment());
+    }
+
+    return fragments;
+  }
+}
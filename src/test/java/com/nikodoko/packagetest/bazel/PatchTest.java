@@ -0,0 +1,184 @@
+package com.nikodoko.packagetest.bazel;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import com.nikodoko.packagetest.fs.ShapedFileSystem;
+import com.nikodoko.packagetest.fs.StorageProfile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class PatchTest {
+  static final Module BASE =
+      Module.named("base")
+          .containing(Module.file("Base.java", "package base;"))
+          .dependingOn(Module.dependency("com.google.guava", "guava", "33.0.0-jre"));
+  static final Module TOP =
+      Module.named("top").containing(Module.file("Top.java", "package top;")).dependingOn(BASE);
+
+  Exported out;
+
+  @After
+  public void cleanup() throws Exception {
+    out.cleanup();
+  }
+
+  static void write(Path file, String... lines) throws Exception {
+    Files.write(file, String.join("\n", lines).getBytes(UTF_8));
+  }
+
+  static String read(Path file) throws Exception {
+    return new String(Files.readAllBytes(file), UTF_8);
+  }
+
+  @Test
+  public void testAddAndRemoveDeps() throws Exception {
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(TOP, BASE));
+    Path buildFile = out.file("top", "BUILD.bazel").get();
+    write(
+        buildFile,
+        "# Handwritten",
+        "java_library(",
+        "    name = \"top\",",
+        "    srcs = glob([\"src/main/java/**/*.java\"]),",
+        "    deps = [",
+        "        \"//base\",",
+        "        \"//other\",",
+        "    ],",
+        ")",
+        "java_library(name = \"other\", deps = [\":top\", \"//base\"])",
+        "");
+
+    int changed =
+        Patch.of(out)
+            .removeDeps("//top", "//base:base")
+            .addDeps("//top", "@maven//:com_google_guava_guava", "//other")
+            .removeDeps("//top:other", "//top:top")
+            .apply();
+
+    assertThat(changed).isEqualTo(1);
+    assertThat(read(buildFile))
+        .isEqualTo(
+            String.join(
+                "\n",
+                "# Handwritten",
+                "java_library(",
+                "    name = \"top\",",
+                "    srcs = glob([\"src/main/java/**/*.java\"]),",
+                "    deps = [",
+                "        \"//other\",",
+                "        \"@maven//:com_google_guava_guava\",",
+                "    ],",
+                ")",
+                "java_library(name = \"other\", deps = [\"//base\"])",
+                ""));
+  }
+
+  @Test
+  public void testAddDepsToRuleWithout() throws Exception {
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(BASE));
+    Path buildFile = out.file("base", "BUILD.bazel").get();
+    write(
+        buildFile,
+        "java_library(",
+        "    name = \"base\",",
+        ")",
+        "java_library(name = \"other\", deps = [\"//a\", \"//b\"])",
+        "");
+
+    Patch.of(out).addDeps("//base", "//other").removeDeps("//base:other", "//a", "//b").apply();
+
+    assertThat(read(buildFile))
+        .isEqualTo(
+            String.join(
+                "\n",
+                "java_library(",
+                "    name = \"base\",",
+                "    deps = [\"//other\"],",
+                ")",
+                "java_library(name = \"other\", deps = [])",
+                ""));
+  }
+
+  @Test
+  public void testArtifacts() throws Exception {
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(TOP, BASE));
+
+    int changed =
+        Patch.of(out)
+            .removeArtifacts("com.google.guava:guava")
+            .addArtifacts("junit:junit:4.13.2", "com.google.truth:truth:1.4.2")
+            .apply();
+
+    assertThat(changed).isEqualTo(1);
+    TargetGraph graph = TargetGraph.of(out);
+    assertThat(graph.contains("@maven//:junit_junit")).isTrue();
+    assertThat(graph.contains("@maven//:com_google_truth_truth")).isTrue();
+    // Still a dependency of //base
+    assertThat(graph.rdeps("@maven//:com_google_guava_guava"))
+        .containsExactly("@maven//:com_google_guava_guava", "//base:base", "//top:top");
+    assertThat(read(out.root().resolve("MODULE.bazel"))).doesNotContain("guava:33.0.0-jre");
+  }
+
+  @Test
+  public void testBumpArtifact() throws Exception {
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(TOP, BASE));
+    Path moduleFile = out.root().resolve("MODULE.bazel");
+    String before = read(moduleFile);
+
+    int changed = Patch.of(out).addArtifacts("com.google.guava:guava:33.1.0-jre").apply();
+
+    assertThat(changed).isEqualTo(1);
+    assertThat(read(moduleFile))
+        .isEqualTo(
+            before.replace(
+                "\"com.google.guava:guava:33.0.0-jre\"", "\"com.google.guava:guava:33.1.0-jre\""));
+  }
+
+  @Test
+  public void testOtherFileSystem() throws Exception {
+    ShapedFileSystem fs = ShapedFileSystem.ofDefault(StorageProfile.unshaped());
+    out =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(),
+            List.of(TOP, BASE),
+            Export.Options.builder().usingFileSystem(fs).build());
+
+    int changed = Patch.of(out).removeDeps("//top", "//base").apply();
+
+    assertThat(changed).isEqualTo(1);
+    assertThat(TargetGraph.of(out).deps("//top", 1)).containsExactly("//top:top");
+  }
+
+  @Test
+  public void testNothingToChange() throws Exception {
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(TOP, BASE));
+    Path buildFile = out.file("top", "BUILD.bazel").get();
+    String before = read(buildFile);
+
+    int changed = Patch.of(out).addDeps("//top", "//base:base").removeDeps("//top", "//x").apply();
+
+    assertThat(changed).isEqualTo(0);
+    assertThat(read(buildFile)).isEqualTo(before);
+  }
+
+  @Test
+  public void testUnknownTarget() throws Exception {
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(BASE));
+
+    try {
+      Patch.of(out).addDeps("//base:nothing", "//base").apply();
+      fail("expected unknown targets to be rejected");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.nikodoko.packagetest.bazel;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class TargetGraphTest {
+  static final Module BASE =
+      Module.named("base")
+          .containing(Module.file("Base.java", "package base;"))
+          .dependingOn(Module.dependency("com.google.guava", "guava", "33.0.0-jre"));
+  static final Module MIDDLE =
+      Module.named("middle")
+          .containing(
+              Module.file("Middle.java", "package middle;"),
+              Module.file("MiddleTest.java", "package middle;"))
+          .dependingOn(BASE);
+  static final Module TOP =
+      Module.named("top")
+          .containing(Module.file("Top.java", "package top;"))
+          .dependingOn(MIDDLE, BASE);
+  static final Module UNRELATED =
+      Module.named("unrelated")
+          .containing(Module.file("U.java", "package unrelated;"))
+          .dependingOn(Module.dependency("junit", "junit", "4.13.2"));
+
+  Exported out;
+
+  @After
+  public void cleanup() throws Exception {
+    if (out != null) {
+      out.cleanup();
+    }
+  }
+
+  @Test
+  public void testQueries() throws Exception {
+    out =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(),
+            List.of(TOP, MIDDLE, BASE, UNRELATED),
+            Export.Options.builder().withTestTargets().build());
+
+    TargetGraph graph = TargetGraph.of(out);
+
+    assertThat(graph.contains("//top")).isTrue();
+    assertThat(graph.contains("//middle:middle.MiddleTest")).isTrue();
+    assertThat(graph.deps("//top:top"))
+        .containsExactly(
+            "//top:top", "//middle:middle", "//base:base", "@maven//:com_google_guava_guava")
+        .inOrder();
+    assertThat(graph.deps("//top", 1))
+        .containsExactly("//top:top", "//middle:middle", "//base:base");
+    assertThat(graph.rdeps("@maven//:com_google_guava_guava"))
+        .containsExactly(
+            "@maven//:com_google_guava_guava",
+            "//base:base",
+            "//middle:middle",
+            "//top:top",
+            "//middle:middle.MiddleTest",
+            "//middle:tests");
+    assertThat(graph.rdeps("//unrelated")).containsExactly("//unrelated:unrelated");
+    assertThat(graph.somepath("//middle:tests", "@maven//:com_google_guava_guava"))
+        .containsExactly(
+            "//middle:tests",
+            "//middle:middle.MiddleTest",
+            "//base:base",
+            "@maven//:com_google_guava_guava")
+        .inOrder();
+    assertThat(graph.somepath("//base", "//top")).isEmpty();
+    assertThat(graph.allpaths("//top", "//base"))
+        .containsExactly("//top:top", "//middle:middle", "//base:base");
+    assertThat(graph.allpaths("//unrelated", "//base")).isEmpty();
+
+    try {
+      graph.deps("//nothing");
+      fail("expected unknown targets to be rejected");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void testCanonical() {
+    assertThat(TargetGraph.canonical("a/b", ":c")).isEqualTo("//a/b:c");
+    assertThat(TargetGraph.canonical("a/b", "c")).isEqualTo("//a/b:c");
+    assertThat(TargetGraph.canonical("a/b", "//d")).isEqualTo("//d:d");
+    assertThat(TargetGraph.canonical("a/b", "//d/e:f")).isEqualTo("//d/e:f");
+    assertThat(TargetGraph.canonical("a/b", "@maven//:g")).isEqualTo("@maven//:g");
+    assertThat(TargetGraph.canonical("a/b", "@foo//bar")).isEqualTo("@foo//bar:bar");
+    assertThat(TargetGraph.canonical("a/b", "@foo")).isEqualTo("@foo//:foo");
+    assertThat(TargetGraph.canonical("a/b", "@@foo")).isEqualTo("@@foo//:foo");
+  }
+
+  @Test
+  public void testReadsChangedBuildFiles() throws Exception {
+    out = Export.of(BuildSystem.BAZEL, List.of(), List.of(BASE, UNRELATED));
+    Files.write(
+        out.file("unrelated", "BUILD.bazel").get(),
+        String.join(
+                "\n",
+                "java_library(",
+                "    name = \"unrelated\",",
+                "    srcs = glob([\"src/main/java/**/*.java\"]),",
+                "    deps = [\"//base\", \":other\"],",
+                ")",
+                "java_library(name = \"other\")",
+                "")
+            .getBytes(UTF_8));
+
+    TargetGraph graph = TargetGraph.of(out);
+
+    assertThat(graph.deps("//unrelated", 1))
+        .containsExactly("//unrelated:unrelated", "//base:base", "//unrelated:other");
+    // Still listed in MODULE.bazel
+    assertThat(graph.rdeps("@maven//:junit_junit")).containsExactly("@maven//:junit_junit");
+  }
+}
@@ -0,0 +1,93 @@
+package com.nikodoko.packagetest.fs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+
+public class ShapedFileSystemTest {
+  static final Module MODULE =
+      Module.named("an.awesome.module")
+          .containing(Module.file("A.java", "package an.awesome.module;"));
+
+  Exported out;
+
+  @After
+  public void cleanup() throws Exception {
+    if (out != null) {
+      out.cleanup();
+    }
+  }
+
+  @Test
+  public void testExport() throws Exception {
+    ShapedFileSystem fs = ShapedFileSystem.ofDefault(StorageProfile.unshaped());
+    Export.Options options = Export.Options.builder().usingFileSystem(fs).build();
+    out = Export.of(BuildSystem.MAVEN, List.of(), List.of(MODULE), options);
+
+    Path a = out.file("an.awesome.module", "A.java").get();
+    assertThat(a.getFileSystem()).isSameInstanceAs(fs);
+    assertThat(fs.calls(ShapedFileSystem.Operation.OPEN)).isGreaterThan(0L);
+    assertThat(fs.calls(ShapedFileSystem.Operation.CREATE_DIRECTORY)).isGreaterThan(0L);
+    assertThat(fs.bytesWritten()).isAtLeast(Files.size(a));
+
+    fs.resetCounters();
+    assertThat(new String(Files.readAllBytes(a), UTF_8)).isEqualTo("package an.awesome.module;");
+    assertThat(fs.calls(ShapedFileSystem.Operation.OPEN)).isEqualTo(1L);
+    assertThat(fs.bytesRead()).isEqualTo(Files.size(a));
+
+    Path root = out.root();
+    out.cleanup();
+    assertThat(fs.calls(ShapedFileSystem.Operation.DELETE)).isGreaterThan(0L);
+    assertThat(Files.exists(root)).isFalse();
+  }
+
+  @Test
+  public void testFailures() throws Exception {
+    Path root = Files.createTempDirectory("packagetest");
+    out = new Exported(root, Map.of());
+    ShapedFileSystem fs =
+        ShapedFileSystem.ofDefault(StorageProfile.builder().failureRate(1).build());
+
+    try {
+      Files.write(fs.wrap(root).resolve("A.java"), new byte[] {1});
+      throw new AssertionError("expected an exception");
+    } catch (IOException expected) {
+    }
+
+    assertThat(fs.failures()).isEqualTo(1L);
+    assertThat(Files.exists(root.resolve("A.java"))).isFalse();
+  }
+
+  @Test
+  public void testLatencyAndBandwidth() throws Exception {
+    Path root = Files.createTempDirectory("packagetest");
+    out = new Exported(root, Map.of());
+    ShapedFileSystem fs =
+        ShapedFileSystem.ofDefault(
+            StorageProfile.builder()
+                .latency(ShapedFileSystem.Operation.OPEN, Duration.ofMillis(50))
+                .bandwidth(1_000_000)
+                .build());
+
+    long start = System.nanoTime();
+    Files.write(fs.wrap(root).resolve("A"), new byte[100_000]);
+    Files.write(fs.wrap(root).resolve("B"), new byte[100_000]);
+    Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+    // Two opens, and 200KB at 1MB/s
+    assertThat(elapsed).isAtLeast(Duration.ofMillis(300));
+    assertThat(fs.bytesWritten()).isEqualTo(200_000L);
+  }
+}
@@ -4,6 +4,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.fail;
 
+import com.nikodoko.packagetest.BuildCache;
 import com.nikodoko.packagetest.BuildSystem;
 import com.nikodoko.packagetest.Export;
 import com.nikodoko.packagetest.Exported;
@@ -11,12 +12,17 @@ import com.nikodoko.packagetest.Module;
 import com.nikodoko.packagetest.Repository;
 import com.nikodoko.packagetest.internal.bazel.BuildFile;
 import com.nikodoko.packagetest.internal.bazel.ModuleFile;
+import java.io.ByteArrayOutputStream;
 import java.io.PushbackReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import org.junit.After;
 import org.junit.Test;
 
@@ -39,7 +45,9 @@ public class BazelExporterTest {
             .containing(
                 Module.file("a/A.java", "package an.awesome.module.a;"),
                 Module.file("a/ATest.java", "package an.awesome.module.a;"),
-                Module.file("b/B.java", "package an.awesome.module.b;"))
+                Module.file("a/messages.properties", "hello=world"),
+                Module.file("b/B.java", "package an.awesome.module.b;"),
+                Module.file("c/data.txt", "data"))
             .dependingOn(anOtherModule);
     Repository repo = Repository.named("local").at("file:///Users/nicolas.couvrat/.m2/repository");
     Repository repoCentral = Repository.named("central").at("https://repo1.maven.org/maven2");
@@ -91,6 +99,464 @@ public class BazelExporterTest {
             "file:///Users/nicolas.couvrat/.m2/repository", "https://repo1.maven.org/maven2"));
   }
 
+  @Test
+  public void testExportStream() throws Exception {
+    // Modules are generated lazily, and their dependencies only gathered for MODULE.bazel
+    Stream<Module> modules =
+        IntStream.range(0, 3)
+            .mapToObj(
+                i ->
+                    Module.named("module" + i)
+                        .containing(Module.file("A.java", "package module" + i + ";"))
+                        .dependingOn(Module.dependency("com.mycompany.app", "dep" + i, "1.0")));
+
+    out = Export.of(BuildSystem.BAZEL, List.of(), modules, Export.Options.defaults());
+
+    checkWritten(out, "module0", "A.java", "module0/src/main/java/module0/A.java");
+    checkWritten(out, "module2", "BUILD.bazel", "module2/BUILD.bazel");
+    checkContent(out, "module1", "A.java", "package module1;");
+    checkBuildContent(out, "module1", checkBuildDeps("@maven//:com_mycompany_app_dep1"));
+    checkModuleContent(
+        out,
+        checkModuleDeps(
+            "com.mycompany.app:dep0:1.0",
+            "com.mycompany.app:dep1:1.0",
+            "com.mycompany.app:dep2:1.0"));
+  }
+
+  @Test
+  public void testExportStreamFailure() throws Exception {
+    Path root = Files.createTempDirectory("packagetest");
+    Stream<Module> modules =
+        IntStream.range(0, 3)
+            .mapToObj(
+                i -> {
+                  if (i == 2) {
+                    throw new IllegalStateException("no more modules");
+                  }
+
+                  return Module.named("module" + i)
+                      .containing(Module.file("A.java", "package module" + i + ";"));
+                });
+
+    try {
+      Export.of(
+          BuildSystem.BAZEL, List.of(), modules, Export.Options.builder().usingRoot(root).build());
+      fail("expected the export to fail");
+    } catch (IllegalStateException expected) {
+    }
+
+    // Files already written are removed, but not the root as it was given
+    try (Stream<Path> files = Files.list(root)) {
+      assertThat(files.count()).isEqualTo(0L);
+    }
+
+    Files.delete(root);
+  }
+
+  @Test
+  public void testExportWithBuildCache() throws Exception {
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .containing(Module.file("A.java", "package an.awesome.module;"));
+    Path cache = Files.createTempDirectory("packagetest-cache");
+    Files.delete(cache);
+
+    out =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(),
+            List.of(anAwesomeModule),
+            Export.Options.builder().withBuildCache(BuildCache.in(cache).jobs(3)).build());
+
+    checkWritten(out, "", ".bazelrc", ".bazelrc");
+    checkContent(
+        out,
+        "",
+        ".bazelrc",
+        String.join(
+            "\n",
+            "# Caches shared by all builds of exported projects",
+            "build --disk_cache=" + cache.resolve("bazel-disk-cache"),
+            "common --repository_cache=" + cache.resolve("bazel-repository-cache"),
+            "build --jobs=3",
+            ""));
+  }
+
+  @Test
+  public void testExportWithPackageTargets() throws Exception {
+    Module anOtherModule =
+        Module.named("an.other.module")
+            .containing(
+                Module.file("C.java", "package an.other.module;"),
+                Module.file("d/D.java", "package an.other.module.d;"));
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .containing(
+                Module.file(
+                    "a/A.java", "package an.awesome.module.a;\n\nimport an.awesome.module.b.B;"),
+                Module.file("a/ATest.java", "package an.awesome.module.a;"),
+                Module.file("a/messages.properties", "hello=world"),
+                Module.file("b/B.java", "package an.awesome.module.b;"),
+                Module.file("c/data.txt", "data"))
+            .dependingOn(anOtherModule)
+            .dependingOn(Module.dependency("com.mycompany.app", "another-dependency", "1.0"));
+
+    out =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(),
+            List.of(anAwesomeModule, anOtherModule),
+            Export.Options.builder().withPackageTargets().build());
+
+    checkWritten(
+        out,
+        "an.awesome.module",
+        "src/main/java/an/awesome/module/a/BUILD.bazel",
+        "anawesomemodule/src/main/java/an/awesome/module/a/BUILD.bazel");
+    checkWritten(
+        out,
+        "an.awesome.module",
+        "src/main/java/an/awesome/module/b/BUILD.bazel",
+        "anawesomemodule/src/main/java/an/awesome/module/b/BUILD.bazel");
+    checkWritten(
+        out,
+        "an.other.module",
+        "src/main/java/an/other/module/BUILD.bazel",
+        "anothermodule/src/main/java/an/other/module/BUILD.bazel");
+    checkWritten(
+        out,
+        "an.other.module",
+        "src/main/java/an/other/module/d/BUILD.bazel",
+        "anothermodule/src/main/java/an/other/module/d/BUILD.bazel");
+    checkPackageBuildContent(
+        out,
+        "an.awesome.module",
+        "src/main/java/an/awesome/module/a/BUILD.bazel",
+        "an.awesome.module.a",
+        checkBuildSrcs("A.java"),
+        checkBuildDeps(
+            "@maven//:com_mycompany_app_another_dependency",
+            "//anothermodule/src/main/java/an/other/module:an.other.module",
+            "//anothermodule/src/main/java/an/other/module/d:an.other.module.d",
+            "//anawesomemodule/src/main/java/an/awesome/module/b:an.awesome.module.b"));
+    checkPackageBuildContent(
+        out,
+        "an.awesome.module",
+        "src/main/java/an/awesome/module/b/BUILD.bazel",
+        "an.awesome.module.b",
+        checkBuildSrcs("B.java"),
+        checkBuildDeps(
+            "@maven//:com_mycompany_app_another_dependency",
+            "//anothermodule/src/main/java/an/other/module:an.other.module",
+            "//anothermodule/src/main/java/an/other/module/d:an.other.module.d"));
+    checkPackageBuildContent(
+        out,
+        "an.other.module",
+        "src/main/java/an/other/module/d/BUILD.bazel",
+        "an.other.module.d",
+        checkBuildSrcs("D.java"));
+    // Only Java sources make packages
+    assertThat(out.file("an.awesome.module", "src/main/java/an/awesome/module/c/BUILD.bazel"))
+        .isEqualTo(Optional.empty());
+  }
+
+  @Test
+  public void testExportWithTestTargets() throws Exception {
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .containing(
+                Module.file("a/A.java", "package an.awesome.module.a;"),
+                Module.file("a/ATest.java", "package an.awesome.module.a;"),
+                Module.file("BTest.java", "package an.awesome.module;"))
+            // Both versions have the same label
+            .dependingOn(
+                Module.dependency("junit", "junit", "4.13.2"),
+                Module.dependency("junit", "junit", "4.12"));
+
+    out =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(),
+            List.of(anAwesomeModule),
+            Export.Options.builder()
+                .withTestTargets()
+                .testShardCount(4)
+                .testSize("medium")
+                .build());
+
+    List<String> deps = List.of("//anawesomemodule:an.awesome.module", "@maven//:junit_junit");
+    BuildFile expected =
+        BuildFile.builder()
+            .targetName("an.awesome.module")
+            .srcs("src/main/java/**/*.java")
+            .srcsGlob()
+            .deps("@maven//:junit_junit")
+            // Files are sorted by fragment
+            .test(
+                BuildFile.JavaTest.builder()
+                    .targetName("an.awesome.module.BTest")
+                    .srcs("src/test/java/an/awesome/module/BTest.java")
+                    .testClass("an.awesome.module.BTest")
+                    .size("medium")
+                    .shardCount(4)
+                    .deps(deps)
+                    .build())
+            .test(
+                BuildFile.JavaTest.builder()
+                    .targetName("an.awesome.module.a.ATest")
+                    .srcs("src/test/java/an/awesome/module/a/ATest.java")
+                    .testClass("an.awesome.module.a.ATest")
+                    .size("medium")
+                    .shardCount(4)
+                    .deps(deps)
+                    .build())
+            .build();
+    checkBuildFile(out, "an.awesome.module", "BUILD.bazel", expected);
+  }
+
+  @Test
+  public void testExportWithPackageAndTestTargets() throws Exception {
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .containing(
+                Module.file("a/A.java", "package an.awesome.module.a;"),
+                Module.file("a/ATest.java", "package an.awesome.module.a;"));
+
+    out =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(),
+            List.of(anAwesomeModule),
+            Export.Options.builder().withPackageTargets().withTestTargets().build());
+
+    BuildFile expected =
+        BuildFile.builder()
+            .withoutLibrary()
+            .test(
+                BuildFile.JavaTest.builder()
+                    .targetName("an.awesome.module.a.ATest")
+                    .srcs("src/test/java/an/awesome/module/a/ATest.java")
+                    .testClass("an.awesome.module.a.ATest")
+                    .deps(
+                        List.of(
+                            "//anawesomemodule/src/main/java/an/awesome/module/a"
+                                + ":an.awesome.module.a"))
+                    .build())
+            .build();
+    checkBuildFile(out, "an.awesome.module", "BUILD.bazel", expected);
+  }
+
+  @Test
+  public void testExportWithExplicitSources() throws Exception {
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .containing(
+                Module.file("b/B.java", "package an.awesome.module.b;"),
+                Module.file("a/ATest.java", "package an.awesome.module.a;"),
+                Module.file("a/A.java", "package an.awesome.module.a;"),
+                Module.file("a/messages.properties", "hello=world"));
+
+    out =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(),
+            List.of(anAwesomeModule),
+            Export.Options.builder().withExplicitSources().withTestTargets().build());
+
+    BuildFile expected =
+        BuildFile.builder()
+            .targetName("an.awesome.module")
+            .srcs(
+                "src/main/java/an/awesome/module/a/A.java",
+                "src/main/java/an/awesome/module/b/B.java")
+            .deps(List.of())
+            .test(
+                BuildFile.JavaTest.builder()
+                    .targetName("an.awesome.module.a.ATest")
+                    .srcs("src/test/java/an/awesome/module/a/ATest.java")
+                    .testClass("an.awesome.module.a.ATest")
+                    .deps(List.of("//anawesomemodule:an.awesome.module"))
+                    .build())
+            .build();
+    checkBuildFile(out, "an.awesome.module", "BUILD.bazel", expected);
+  }
+
+  @Test
+  public void testExportWithReproducibleOutput() throws Exception {
+    Module anOtherModule =
+        Module.named("an.other.module")
+            .containing(Module.file("C.java", "package an.other.module;"))
+            .dependingOn(
+                Module.dependency("org.b", "b", "1.0"), Module.dependency("org.a", "a", "1.0"));
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .containing(Module.file("a/A.java", "package an.awesome.module.a;"))
+            .dependingOn(Module.dependency("org.c", "c", "1.0"))
+            .dependingOn(anOtherModule);
+    Instant time = Instant.parse("2000-01-01T00:00:00Z");
+    Export.Options options = Export.Options.builder().withReproducibleOutput(time).build();
+    List<Module> modules = List.of(anAwesomeModule, anOtherModule);
+
+    out = Export.of(BuildSystem.BAZEL, List.of(), modules, options);
+    // Each export gets its own temporary root
+    Exported again =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(),
+            modules,
+            Export.Options.builder().withReproducibleOutput(time).build());
+
+    Path module = getFile(out, "", "MODULE.bazel");
+    ModuleFile file = ModuleFile.builder().build();
+    file.read(new PushbackReader(Files.newBufferedReader(module)));
+    assertThat(file.artifacts())
+        .containsExactly("org.a:a:1.0", "org.b:b:1.0", "org.c:c:1.0")
+        .inOrder();
+    BuildFile build = BuildFile.builder().srcsGlob().build();
+    Path buildFile = getFile(out, "an.awesome.module", "BUILD.bazel");
+    build.read(new PushbackReader(Files.newBufferedReader(buildFile)));
+    assertThat(build.deps())
+        .containsExactly("//anothermodule:an.other.module", "@maven//:org_c_c")
+        .inOrder();
+
+    List<Path> files;
+    try (Stream<Path> paths = Files.walk(out.root())) {
+      files = paths.map(out.root()::relativize).sorted().toList();
+    }
+
+    for (Path relative : files) {
+      Path first = out.root().resolve(relative);
+      Path second = again.root().resolve(relative);
+      assertThat(Files.getLastModifiedTime(first).toInstant()).isEqualTo(time);
+      assertThat(Files.getLastModifiedTime(second).toInstant()).isEqualTo(time);
+      if (Files.isRegularFile(first)) {
+        assertThat(Files.readAllBytes(second)).isEqualTo(Files.readAllBytes(first));
+      }
+    }
+
+    again.cleanup();
+  }
+
+  @Test
+  public void testExportDeduplicatesDependencies() throws Exception {
+    Module anOtherModule =
+        Module.named("an.other.module")
+            .dependingOn(
+                Module.dependency("com.google.guava", "guava", "28.0-jre"),
+                Module.dependency("junit", "junit", "4.13.2"));
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .dependingOn(
+                Module.dependency("com.google.guava", "guava", "31.1-jre"),
+                Module.dependency("junit", "junit", "4.13.2"));
+
+    out = Export.of(BuildSystem.BAZEL, anOtherModule, anAwesomeModule);
+
+    checkModuleContent(
+        out, checkModuleDeps("com.google.guava:guava:31.1-jre", "junit:junit:4.13.2"));
+  }
+
+  @Test
+  public void testExportFailsOnConflictingDependencies() throws Exception {
+    Module anOtherModule =
+        Module.named("an.other.module")
+            .dependingOn(Module.dependency("com.google.guava", "guava", "28.0-jre"));
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .dependingOn(Module.dependency("com.google.guava", "guava", "31.1-jre"));
+
+    Export.Options options =
+        Export.Options.builder()
+            .resolvingConflicts(Export.Options.ConflictResolution.FAIL)
+            .build();
+    try {
+      Export.of(BuildSystem.BAZEL, List.of(), List.of(anOtherModule, anAwesomeModule), options);
+      fail("expected conflicting versions to be rejected");
+    } catch (IllegalArgumentException expected) {
+    } finally {
+      options.root().toFile().delete();
+    }
+  }
+
+  @Test
+  public void testExportWithPinnedDependencies() throws Exception {
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .dependingOn(
+                Module.dependency("com.google.guava", "guava", "31.1-jre"),
+                Module.dependency("my.dependency", "unversioned"));
+    Repository repoCentral = Repository.named("central").at("https://repo1.maven.org/maven2");
+
+    out =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(repoCentral),
+            List.of(anAwesomeModule),
+            Export.Options.builder().withPinnedDependencies().build());
+
+    checkWritten(out, "", "BUILD.bazel", "BUILD.bazel");
+    checkWritten(out, "", "maven_install.json", "maven_install.json");
+    String lockFile = new String(Files.readAllBytes(getFile(out, "", "maven_install.json")), UTF_8);
+    assertThat(lockFile).contains("\"com.google.guava:guava\": {");
+    assertThat(lockFile).contains("\"version\": \"31.1-jre\"");
+    assertThat(lockFile).contains("\"https://repo1.maven.org/maven2/\": [");
+    assertThat(lockFile).doesNotContain("unversioned");
+
+    ModuleFile file = ModuleFile.builder().lockFile("//:maven_install.json").build();
+    file.read(new PushbackReader(Files.newBufferedReader(getFile(out, "", "MODULE.bazel"))));
+    assertThat(file.lockFile().get()).isEqualTo("//:maven_install.json");
+    assertThat(file.artifacts()).contains("com.google.guava:guava:31.1-jre");
+  }
+
+  @Test
+  public void testExportWithLocalRepository() throws Exception {
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .dependingOn(
+                Module.dependency("com.google.guava", "guava", "31.1-jre"),
+                Module.dependency("my.dependency", "unversioned"));
+    Repository repoCentral = Repository.named("central").at("https://repo1.maven.org/maven2");
+
+    out =
+        Export.of(
+            BuildSystem.BAZEL,
+            List.of(repoCentral),
+            List.of(anAwesomeModule),
+            Export.Options.builder().withLocalRepository().withPinnedDependencies().build());
+
+    String directory = "local-repository/com/google/guava/guava/31.1-jre/";
+    for (String f :
+        List.of("guava-31.1-jre.jar", "guava-31.1-jre-sources.jar", "guava-31.1-jre.pom")) {
+      checkWritten(out, "", directory + f, directory + f);
+      checkWritten(out, "", directory + f + ".sha1", directory + f + ".sha1");
+      checkWritten(out, "", directory + f + ".md5", directory + f + ".md5");
+    }
+
+    byte[] jar = Files.readAllBytes(getFile(out, "", directory + "guava-31.1-jre.jar"));
+    checkContent(out, "", directory + "guava-31.1-jre.jar.sha1", hex("SHA-1", jar));
+    assertThat(Files.exists(out.root().resolve("local-repository/my"))).isFalse();
+
+    String url = out.root().toAbsolutePath().toUri() + "local-repository";
+    ModuleFile file = ModuleFile.builder().lockFile("//:maven_install.json").build();
+    file.read(new PushbackReader(Files.newBufferedReader(getFile(out, "", "MODULE.bazel"))));
+    assertThat(file.repositories())
+        .containsExactly(url, "https://repo1.maven.org/maven2")
+        .inOrder();
+
+    String lockFile = new String(Files.readAllBytes(getFile(out, "", "maven_install.json")), UTF_8);
+    assertThat(lockFile).contains("\"jar\": \"" + hex("SHA-256", jar) + "\"");
+  }
+
+  private static String hex(String algorithm, byte[] contents) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : MessageDigest.getInstance(algorithm).digest(contents)) {
+      sb.append(String.format("%02x", b));
+    }
+
+    return sb.toString();
+  }
+
   private void checkContent(Exported result, String module, String fragment, String expected)
       throws Exception {
     Path written = getFile(result, module, fragment);
@@ -118,6 +584,32 @@ public class BazelExporterTest {
     }
   }
 
+  private void checkBuildFile(Exported result, String module, String fragment, BuildFile expected)
+      throws Exception {
+    ByteArrayOutputStream want = new ByteArrayOutputStream();
+    expected.write(want);
+    Path written = getFile(result, module, fragment);
+    assertThat(new String(Files.readAllBytes(written), UTF_8))
+        .isEqualTo(new String(want.toByteArray(), UTF_8));
+  }
+
+  private void checkPackageBuildContent(
+      Exported result,
+      String module,
+      String fragment,
+      String target,
+      Consumer<BuildFile>... checkers)
+      throws Exception {
+    Path written = getFile(result, module, fragment);
+    BuildFile file = BuildFile.builder().build();
+    file.read(new PushbackReader(Files.newBufferedReader(written)));
+
+    assertThat(file.name()).isEqualTo(target);
+    for (Consumer<BuildFile> checker : checkers) {
+      checker.accept(file);
+    }
+  }
+
   private void checkModuleContent(Exported result, Consumer<ModuleFile>... checkers)
       throws Exception {
     Path written = getFile(result, "", "MODULE.bazel");
@@ -6,13 +6,16 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.fail;
 
 import com.google.common.truth.Correspondence;
+import com.nikodoko.packagetest.BuildCache;
 import com.nikodoko.packagetest.BuildSystem;
 import com.nikodoko.packagetest.Export;
 import com.nikodoko.packagetest.Exported;
 import com.nikodoko.packagetest.Module;
+import com.nikodoko.packagetest.Repository;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -91,6 +94,255 @@ public class MavenExporterTest {
         checkProperties("another-dependency.version", "1.0"));
   }
 
+  @Test
+  public void testExportWithModuleDependencies() throws Exception {
+    Module anOtherModule =
+        Module.named("an.other.module")
+            .containing(Module.file("C.java", "package an.other.module;"));
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .containing(Module.file("A.java", "package an.awesome.module;"))
+            .dependingOn(anOtherModule)
+            .dependingOn(Module.dependency("my.dependency", "a-dependency"));
+
+    out = Export.of(BuildSystem.MAVEN, anAwesomeModule, anOtherModule);
+
+    checkWritten(out, "", "pom.xml", "pom.xml");
+    Model root = new DefaultModelReader().read(getFile(out, "", "pom.xml").toFile(), null);
+    assertThat(root.getPackaging()).isEqualTo("pom");
+    assertThat(root.getModules()).containsExactly("anawesomemodule", "anothermodule").inOrder();
+    checkPomContent(
+        out,
+        "an.awesome.module",
+        checkDependencies(
+            "packagetest.maven",
+            "an-other-module",
+            "1.0.0",
+            "my.dependency",
+            "a-dependency",
+            null));
+  }
+
+  @Test
+  public void testExportWithReproducibleOutput() throws Exception {
+    Module anOtherModule = Module.named("an.other.module");
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .dependingOn(
+                Module.dependency("org.b", "b", "1.0"), Module.dependency("org.a", "a", "1.0"));
+
+    out =
+        Export.of(
+            BuildSystem.MAVEN,
+            List.of(),
+            List.of(anOtherModule, anAwesomeModule),
+            Export.Options.builder().withReproducibleOutput().build());
+
+    Model root = new DefaultModelReader().read(getFile(out, "", "pom.xml").toFile(), null);
+    assertThat(root.getModules()).containsExactly("anawesomemodule", "anothermodule").inOrder();
+    Model pom =
+        new DefaultModelReader().read(getFile(out, "an.awesome.module", "pom.xml").toFile(), null);
+    assertThat(pom.getDependencies().stream().map(Dependency::getArtifactId).toList())
+        .containsExactly("a", "b")
+        .inOrder();
+    assertThat(Files.getLastModifiedTime(getFile(out, "", "pom.xml")).toInstant())
+        .isEqualTo(Instant.parse("1980-02-01T00:00:00Z"));
+  }
+
+  @Test
+  public void testExportPropertiesWithReproducibleOutput() throws Exception {
+    List<String> artifacts = List.of("zeta", "eta", "alpha", "theta", "beta", "iota", "gamma");
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .dependingOn(
+                artifacts.stream()
+                    .map(a -> Module.dependency("org." + a, a, "1.0"))
+                    .toArray(Module.Dependency[]::new));
+
+    out =
+        Export.of(
+            BuildSystem.MAVEN,
+            List.of(),
+            List.of(anAwesomeModule),
+            Export.Options.builder().withReproducibleOutput().build());
+
+    // Properties are written in the order of their names, not in hash order
+    String pom =
+        new String(Files.readAllBytes(getFile(out, "an.awesome.module", "pom.xml")), UTF_8);
+    List<Integer> positions =
+        artifacts.stream().sorted().map(a -> pom.indexOf("<" + a + ".version>")).toList();
+    assertThat(positions).doesNotContain(-1);
+    assertThat(positions).isInOrder();
+  }
+
+  @Test
+  public void testExportWithParentPom() throws Exception {
+    Module anOtherModule =
+        Module.named("an.other.module")
+            .dependingOn(Module.dependency("my.dependency", "a-dependency", "1.0"));
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .dependingOn(anOtherModule)
+            .dependingOn(
+                Module.dependency("my.dependency", "a-dependency", "1.2"),
+                Module.dependency("my.dependency", "another-dependency"));
+    Repository repoCentral = Repository.named("central").at("https://repo1.maven.org/maven2");
+
+    out =
+        Export.of(
+            BuildSystem.MAVEN,
+            List.of(repoCentral),
+            List.of(anAwesomeModule, anOtherModule),
+            Export.Options.builder().withParentPom().build());
+
+    // Versions are only declared once, in the root pom
+    checkPomContent(
+        out,
+        "",
+        checkDependencyManagement(
+            "my.dependency", "a-dependency", "${my.dependency.a-dependency.version}"),
+        checkProperties("my.dependency.a-dependency.version", "1.2"),
+        checkRepositories("central", "https://repo1.maven.org/maven2"));
+    checkPomContent(
+        out,
+        "an.awesome.module",
+        model -> {
+          assertThat(model.getParent().getArtifactId()).isEqualTo("packagetest-root");
+          assertThat(model.getDependencyManagement()).isNull();
+          assertThat(model.getProperties()).isEmpty();
+          assertThat(model.getRepositories()).isEmpty();
+        },
+        checkDependencies(
+            "packagetest.maven",
+            "an-other-module",
+            "1.0.0",
+            "my.dependency",
+            "a-dependency",
+            null,
+            "my.dependency",
+            "another-dependency",
+            null));
+  }
+
+  @Test
+  public void testExportWithParentPomAndSameArtifactIds() throws Exception {
+    Module anOtherModule =
+        Module.named("an.other.module").dependingOn(Module.dependency("com.a", "core", "1.0"));
+    Module anAwesomeModule =
+        Module.named("an.awesome.module").dependingOn(Module.dependency("com.b", "core", "2.0"));
+
+    out =
+        Export.of(
+            BuildSystem.MAVEN,
+            List.of(),
+            List.of(anAwesomeModule, anOtherModule),
+            Export.Options.builder().withParentPom().build());
+
+    checkPomContent(
+        out,
+        "",
+        checkProperties("com.b.core.version", "2.0", "com.a.core.version", "1.0"),
+        checkDependencyManagement(
+            "com.b", "core", "${com.b.core.version}", "com.a", "core", "${com.a.core.version}"));
+  }
+
+  @Test
+  public void testExportWithBuildCache() throws Exception {
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .containing(Module.file("A.java", "package an.awesome.module;"));
+    Path cache = Files.createTempDirectory("packagetest-cache");
+    Files.delete(cache);
+
+    out =
+        Export.of(
+            BuildSystem.MAVEN,
+            List.of(),
+            List.of(anAwesomeModule),
+            Export.Options.builder()
+                .withBuildCache(BuildCache.in(cache).jobs(2).offline())
+                .build());
+
+    checkWritten(out, "", ".mvn/maven.config", ".mvn/maven.config");
+    checkContent(
+        out,
+        "",
+        ".mvn/maven.config",
+        String.join(
+            "\n",
+            "--threads=2",
+            "--offline",
+            "-Dmaven.repo.local=" + cache.resolve("maven-repository"),
+            "-Dmaven.build.cache.location=" + cache.resolve("maven-build-cache"),
+            ""));
+    checkWritten(out, "", ".mvn/jvm.config", ".mvn/jvm.config");
+    assertThat(new String(Files.readAllBytes(getFile(out, "", ".mvn/extensions.xml")), UTF_8))
+        .contains("<artifactId>maven-build-cache-extension</artifactId>");
+    // Settings return new caches, leaving the ones given to options untouched
+    BuildCache base = BuildCache.in(cache).jobs(4);
+    assertThat(base.jobs(2).offline().jobs()).isEqualTo(2);
+    assertThat(base.jobs()).isEqualTo(4);
+    assertThat(base.isOffline()).isFalse();
+  }
+
+  @Test
+  public void testExportWithLocalRepository() throws Exception {
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .dependingOn(Module.dependency("my.dependency", "another-dependency", "1.0"));
+    Repository repoCentral = Repository.named("central").at("https://repo1.maven.org/maven2");
+
+    out =
+        Export.of(
+            BuildSystem.MAVEN,
+            List.of(repoCentral),
+            List.of(anAwesomeModule),
+            Export.Options.builder().withLocalRepository().build());
+
+    String pom = "local-repository/my/dependency/another-dependency/1.0/another-dependency-1.0.pom";
+    checkWritten(out, "", pom, pom);
+    Model stub = new DefaultModelReader().read(getFile(out, "", pom).toFile(), null);
+    assertThat(stub.getArtifactId()).isEqualTo("another-dependency");
+    assertThat(stub.getVersion()).isEqualTo("1.0");
+
+    String url = out.root().toAbsolutePath().toUri() + "local-repository";
+    checkPomContent(
+        out,
+        "an.awesome.module",
+        checkRepositories("packagetest-local", url, "central", "https://repo1.maven.org/maven2"));
+  }
+
+  @Test
+  public void testExportWithLocalRepositoryAndDifferentVersions() throws Exception {
+    Module anOtherModule =
+        Module.named("an.other.module")
+            .dependingOn(Module.dependency("my.dependency", "a-dependency", "1.0"));
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .dependingOn(Module.dependency("my.dependency", "a-dependency", "1.2"));
+
+    // Each module pom declares its own version, so there is no conflict to resolve
+    out =
+        Export.of(
+            BuildSystem.MAVEN,
+            List.of(),
+            List.of(anAwesomeModule, anOtherModule),
+            Export.Options.builder()
+                .withLocalRepository()
+                .resolvingConflicts(Export.Options.ConflictResolution.FAIL)
+                .build());
+
+    for (String version : List.of("1.0", "1.2")) {
+      String pom =
+          String.format(
+              "local-repository/my/dependency/a-dependency/%s/a-dependency-%s.pom",
+              version, version);
+      checkWritten(out, "", pom, pom);
+    }
+
+    checkPomContent(out, "an.other.module", checkProperties("a-dependency.version", "1.0"));
+  }
+
   private void checkContent(Exported result, String module, String fragment, String expected)
       throws Exception {
     Path written = getFile(result, module, fragment);
@@ -131,6 +383,18 @@ public class MavenExporterTest {
             .containsExactlyElementsIn(dependenciesFromParams(params));
   }
 
+  private Consumer<Model> checkRepositories(String... params) {
+    return model -> {
+      List<String> got = new ArrayList<>();
+      for (org.apache.maven.model.Repository r : model.getRepositories()) {
+        got.add(r.getId());
+        got.add(r.getUrl());
+      }
+
+      assertThat(got).containsExactlyElementsIn(params).inOrder();
+    };
+  }
+
   private Consumer<Model> checkProperties(String... properties) {
     return model -> {
       Properties props = model.getProperties();
@@ -0,0 +1,168 @@
+package com.nikodoko.packagetest.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Compilation;
+import com.nikodoko.packagetest.CompilationCache;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import org.junit.After;
+import org.junit.Test;
+
+public class ModuleCompilerTest {
+  Exported out;
+  Path cacheDirectory;
+
+  @After
+  public void cleanup() throws Exception {
+    out.cleanup();
+    if (cacheDirectory != null) {
+      try (Stream<Path> files = Files.walk(cacheDirectory)) {
+        files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  public void testCompile() throws Exception {
+    Module base =
+        Module.named("a.base.module")
+            .containing(
+                Module.file("Base.java", "package a.base.module; public class Base {}"),
+                // Test files are not compiled
+                Module.file("BaseTest.java", "package a.base.module; class BaseTest { Junk j; }"));
+    Module middle =
+        Module.named("a.middle.module")
+            .containing(
+                Module.file(
+                    "b/Middle.java",
+                    "package a.middle.module.b; public class Middle extends a.base.module.Base {}"))
+            .dependingOn(base);
+    Module top =
+        Module.named("a.top.module")
+            .containing(
+                Module.file(
+                    "Top.java",
+                    "package a.top.module; class Top { a.base.module.Base b ="
+                        + " new a.middle.module.b.Middle(); }"))
+            .dependingOn(middle, base);
+    Module alone =
+        Module.named("an.independent.module")
+            .containing(Module.file("Alone.java", "package an.independent.module; class A {}"));
+
+    out = Export.of(BuildSystem.BAZEL, base, middle, top, alone);
+    Compilation result = out.compile();
+
+    assertThat(result.succeeded()).isTrue();
+    assertThat(result.modules())
+        .containsExactly(
+            "a.base.module", "a.middle.module", "a.top.module", "an.independent.module");
+    assertThat(result.status("a.top.module")).isEqualTo(Compilation.Status.SUCCEEDED);
+  }
+
+  @Test
+  public void testCompileWithErrors() throws Exception {
+    Module broken =
+        Module.named("a.broken.module")
+            .containing(
+                Module.file(
+                    "Broken.java", "package a.broken.module;\npublic class Broken { X x; }"));
+    Module dependent =
+        Module.named("a.dependent.module")
+            .containing(
+                Module.file(
+                    "D.java", "package a.dependent.module; class D { a.broken.module.Broken b; }"))
+            .dependingOn(broken);
+    Module fine =
+        Module.named("a.fine.module")
+            .containing(Module.file("F.java", "package a.fine.module; class F {}"));
+
+    out = Export.of(BuildSystem.BAZEL, broken, dependent, fine);
+    Compilation result = out.compile();
+
+    assertThat(result.succeeded()).isFalse();
+    assertThat(result.status("a.broken.module")).isEqualTo(Compilation.Status.FAILED);
+    assertThat(result.status("a.dependent.module")).isEqualTo(Compilation.Status.SKIPPED);
+    assertThat(result.status("a.fine.module")).isEqualTo(Compilation.Status.SUCCEEDED);
+
+    List<Diagnostic<? extends JavaFileObject>> diagnostics =
+        result.diagnostics("a.broken.module");
+    assertThat(diagnostics).hasSize(1);
+    assertThat(diagnostics.get(0).getKind()).isEqualTo(Diagnostic.Kind.ERROR);
+    assertThat(diagnostics.get(0).getLineNumber()).isEqualTo(2L);
+    assertThat(diagnostics.get(0).getSource().getName()).endsWith("Broken.java");
+  }
+
+  @Test
+  public void testCompileWithCache() throws Exception {
+    cacheDirectory = Files.createTempDirectory("packagetest-cache");
+    CompilationCache cache = CompilationCache.in(cacheDirectory);
+    Module base =
+        Module.named("a.base.module")
+            .containing(Module.file("Base.java", "package a.base.module; public class Base {}"));
+    Module top =
+        Module.named("a.top.module")
+            .containing(
+                Module.file(
+                    "Top.java", "package a.top.module; class Top extends a.base.module.Base {}"))
+            .dependingOn(base);
+
+    out = Export.of(BuildSystem.BAZEL, base, top);
+    assertThat(out.compile(List.of(), cache).succeeded()).isTrue();
+    assertThat(entries(cacheDirectory)).hasSize(2);
+    out.cleanup();
+
+    // Same modules, exported elsewhere
+    out = Export.of(BuildSystem.BAZEL, base, top);
+    assertThat(out.compile(List.of(), cache).succeeded()).isTrue();
+    assertThat(entries(cacheDirectory)).hasSize(2);
+    out.cleanup();
+
+    // Changing a module also invalidates the modules depending on it
+    Module changed =
+        Module.named("a.base.module")
+            .containing(
+                Module.file("Base.java", "package a.base.module; public class Base { int i; }"));
+    Module sameTop =
+        Module.named("a.top.module")
+            .containing(
+                Module.file(
+                    "Top.java", "package a.top.module; class Top extends a.base.module.Base {}"))
+            .dependingOn(changed);
+    out = Export.of(BuildSystem.BAZEL, changed, sameTop);
+    assertThat(out.compile(List.of(), cache).succeeded()).isTrue();
+    assertThat(entries(cacheDirectory)).hasSize(4);
+  }
+
+  @Test
+  public void testCompileWithFullCache() throws Exception {
+    cacheDirectory = Files.createTempDirectory("packagetest-cache");
+    CompilationCache unbounded = CompilationCache.in(cacheDirectory).maxSize(Long.MAX_VALUE);
+    CompilationCache cache = unbounded.maxSize(0);
+    // Bounding a cache returns a new one
+    assertThat(unbounded.maxSize()).isEqualTo(Long.MAX_VALUE);
+    assertThat(cache.maxSize()).isEqualTo(0L);
+    Module base =
+        Module.named("a.base.module")
+            .containing(Module.file("Base.java", "package a.base.module; public class Base {}"));
+
+    out = Export.of(BuildSystem.BAZEL, base);
+    assertThat(out.compile(List.of(), cache).succeeded()).isTrue();
+    assertThat(entries(cacheDirectory)).isEmpty();
+  }
+
+  private static List<Path> entries(Path directory) throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.toList();
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.nikodoko.packagetest.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+public class PersistentSortedMapTest {
+  @Test
+  public void testPutAndRemoveLikeTreeMap() {
+    Random random = new Random(42);
+    TreeMap<Integer, String> expected = new TreeMap<>();
+    PersistentSortedMap<Integer, String> got = PersistentSortedMap.empty();
+    for (int i = 0; i < 2000; i++) {
+      int key = random.nextInt(500);
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        got = got.remove(key);
+      } else {
+        expected.put(key, "v" + i);
+        got = got.put(key, "v" + i);
+      }
+    }
+
+    assertThat(got.size()).isEqualTo(expected.size());
+    assertThat(entries(got)).containsExactlyElementsIn(entries(expected.entrySet())).inOrder();
+    for (int key = 0; key < 500; key++) {
+      assertThat(got.get(key).orElse(null)).isEqualTo(expected.get(key));
+    }
+  }
+
+  @Test
+  public void testUpdatesLeaveOriginalUntouched() {
+    PersistentSortedMap<String, Integer> original = PersistentSortedMap.empty();
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      keys.add("k" + i);
+    }
+
+    Collections.shuffle(keys, new Random(42));
+    for (String k : keys) {
+      original = original.put(k, 0);
+    }
+
+    PersistentSortedMap<String, Integer> updated = original.put("k50", 1).remove("k10");
+    assertThat(original.get("k50").get()).isEqualTo(0);
+    assertThat(original.get("k10").isPresent()).isTrue();
+    assertThat(updated.get("k50").get()).isEqualTo(1);
+    assertThat(updated.get("k10").isPresent()).isFalse();
+    assertThat(updated.size()).isEqualTo(99);
+    assertThat(original.remove("missing")).isSameInstanceAs(original);
+  }
+
+  private static List<String> entries(Iterable<Map.Entry<Integer, String>> entries) {
+    List<String> all = new ArrayList<>();
+    for (Map.Entry<Integer, String> e : entries) {
+      all.add(e.getKey() + "=" + e.getValue());
+    }
+
+    return all;
+  }
+}
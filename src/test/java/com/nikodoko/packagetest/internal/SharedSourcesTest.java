@@ -0,0 +1,73 @@
+package com.nikodoko.packagetest.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+
+public class SharedSourcesTest {
+  Map<BuildSystem, Exported> out = Map.of();
+
+  @After
+  public void cleanup() throws Exception {
+    for (Exported exported : out.values()) {
+      exported.cleanup();
+    }
+  }
+
+  @Test
+  public void testExportToAllBuildSystems() throws Exception {
+    Module anAwesomeModule =
+        Module.named("an.awesome.module")
+            .containing(
+                Module.file("a/A.java", "package an.awesome.module.a;"),
+                Module.file("a/ATest.java", "package an.awesome.module.a;"));
+
+    out =
+        Export.ofAll(
+            EnumSet.of(BuildSystem.MAVEN, BuildSystem.BAZEL), List.of(), List.of(anAwesomeModule));
+
+    Exported maven = out.get(BuildSystem.MAVEN);
+    Exported bazel = out.get(BuildSystem.BAZEL);
+    assertThat(maven.root().getFileName().toString()).isEqualTo("maven");
+    assertThat(bazel.root().getFileName().toString()).isEqualTo("bazel");
+    assertThat(maven.file("an.awesome.module", "pom.xml").isPresent()).isTrue();
+    assertThat(bazel.file("an.awesome.module", "BUILD.bazel").isPresent()).isTrue();
+    assertThat(bazel.file("", "MODULE.bazel").isPresent()).isTrue();
+
+    Path mavenSource = maven.file("an.awesome.module", "a/A.java").get();
+    Path bazelSource = bazel.file("an.awesome.module", "a/A.java").get();
+    assertThat(Files.isSameFile(mavenSource, bazelSource)).isTrue();
+    assertThat(new String(Files.readAllBytes(bazelSource), UTF_8))
+        .isEqualTo("package an.awesome.module.a;");
+
+    // Sources remain available when a single build system is cleaned up
+    Path parent = bazel.root().getParent();
+    maven.cleanup();
+    assertThat(Files.exists(bazelSource)).isTrue();
+    assertThat(Files.exists(parent)).isTrue();
+
+    bazel.cleanup();
+    assertThat(Files.exists(parent)).isFalse();
+  }
+
+  @Test
+  public void testExportToNoBuildSystem() throws Exception {
+    try {
+      Export.ofAll(EnumSet.noneOf(BuildSystem.class), List.of(), List.of());
+      fail("expected an empty set of build systems to be rejected");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.nikodoko.packagetest.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.nikodoko.packagetest.ArchiveFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class TarSinkTest {
+  @Test
+  public void testWrite() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (Sink sink = Sink.archive(ArchiveFormat.TAR, out)) {
+      try (OutputStream entry = sink.newOutputStream(Paths.get("a", "A.java"))) {
+        entry.write("package a;".getBytes(UTF_8));
+      }
+    }
+
+    byte[] tar = out.toByteArray();
+    // One header block, one content block and two end of archive blocks
+    assertThat(tar.length).isEqualTo(4 * 512);
+    assertThat(field(tar, 0, 100)).isEqualTo("a/A.java");
+    assertThat(field(tar, 124, 12)).isEqualTo("00000000012");
+    assertThat(field(tar, 257, 6)).isEqualTo("ustar");
+    assertThat(field(tar, 512, 10)).isEqualTo("package a;");
+    assertThat(checksum(tar)).isEqualTo(Long.parseLong(field(tar, 148, 6), 8));
+  }
+
+  @Test
+  public void testWriteLongName() throws Exception {
+    String directory = "d".repeat(120);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (Sink sink = Sink.archive(ArchiveFormat.TAR, out)) {
+      Path path = Paths.get(directory, "A.java");
+      try (OutputStream entry = sink.newOutputStream(path)) {
+        entry.write("package a;".getBytes(UTF_8));
+      }
+    }
+
+    byte[] tar = out.toByteArray();
+    assertThat(field(tar, 0, 100)).isEqualTo("A.java");
+    assertThat(field(tar, 345, 155)).isEqualTo(directory);
+  }
+
+  private static String field(byte[] tar, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && tar[end] != 0) {
+      end++;
+    }
+
+    return new String(Arrays.copyOfRange(tar, offset, end), UTF_8);
+  }
+
+  private static long checksum(byte[] tar) {
+    long checksum = 0;
+    for (int i = 0; i < 512; i++) {
+      checksum += (i >= 148 && i < 156) ? ' ' : tar[i] & 0xff;
+    }
+
+    return checksum;
+  }
+}
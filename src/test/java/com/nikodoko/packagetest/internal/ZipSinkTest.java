@@ -0,0 +1,81 @@
+package com.nikodoko.packagetest.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.nikodoko.packagetest.ArchiveFormat;
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.Test;
+
+public class ZipSinkTest {
+  private static final Module MODULE =
+      Module.named("an.awesome.module")
+          .containing(
+              Module.file("a/A.java", "package an.awesome.module.a;"),
+              Module.file("a/ATest.java", "package an.awesome.module.a;"));
+
+  @Test
+  public void testExportToZip() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Exported exported =
+        Export.toArchive(BuildSystem.BAZEL, List.of(), List.of(MODULE), ArchiveFormat.ZIP, out);
+
+    Map<String, String> entries = entries(out.toByteArray());
+    assertThat(entries.keySet())
+        .containsExactly(
+            "anawesomemodule/BUILD.bazel",
+            "anawesomemodule/src/main/java/an/awesome/module/a/A.java",
+            "anawesomemodule/src/test/java/an/awesome/module/a/ATest.java",
+            // Written last, as it depends on all modules
+            "MODULE.bazel")
+        .inOrder();
+    assertThat(entries.get("anawesomemodule/src/main/java/an/awesome/module/a/A.java"))
+        .isEqualTo("package an.awesome.module.a;");
+    assertThat((Object) exported.file("an.awesome.module", "a/A.java").get())
+        .isEqualTo(Paths.get("anawesomemodule/src/main/java/an/awesome/module/a/A.java"));
+  }
+
+  @Test
+  public void testExportToJar() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Export.toArchive(BuildSystem.MAVEN, List.of(), List.of(MODULE), ArchiveFormat.JAR, out);
+
+    List<String> names = new ArrayList<>(entries(out.toByteArray()).keySet());
+    assertThat(names.get(0)).isEqualTo("META-INF/MANIFEST.MF");
+    assertThat(names).contains("anawesomemodule/pom.xml");
+  }
+
+  @Test
+  public void testExportIsReproducible() throws Exception {
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    Export.toArchive(BuildSystem.BAZEL, List.of(), List.of(MODULE), ArchiveFormat.ZIP, first);
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    Export.toArchive(BuildSystem.BAZEL, List.of(), List.of(MODULE), ArchiveFormat.ZIP, second);
+
+    assertThat(first.toByteArray()).isEqualTo(second.toByteArray());
+  }
+
+  private static Map<String, String> entries(byte[] archive) throws Exception {
+    Map<String, String> entries = new LinkedHashMap<>();
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+      ZipEntry entry;
+      while ((entry = in.getNextEntry()) != null) {
+        entries.put(entry.getName(), new String(in.readAllBytes(), UTF_8));
+      }
+    }
+
+    return entries;
+  }
+}
@@ -0,0 +1,38 @@
+package com.nikodoko.packagetest.internal.bazel.grammar;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.PushbackReader;
+import java.io.StringReader;
+import org.junit.Test;
+
+public class BzlIntegerTest {
+  @Test
+  public void testRead() throws Exception {
+    PushbackReader sr = new PushbackReader(new StringReader("42,"));
+    BzlInteger i = new BzlInteger();
+    i.read(sr);
+
+    assertThat(i.value()).isEqualTo(42);
+    assertThat((char) sr.read()).isEqualTo(',');
+  }
+
+  @Test
+  public void testReadWithWhitespace() throws Exception {
+    PushbackReader sr = new PushbackReader(new StringReader("   \n 7"));
+    BzlInteger i = new BzlInteger();
+    i.read(sr);
+
+    assertThat(i.value()).isEqualTo(7);
+  }
+
+  @Test
+  public void testReadAtEndOfInput() throws Exception {
+    PushbackReader sr = new PushbackReader(new StringReader("42"));
+    BzlInteger i = new BzlInteger();
+    i.read(sr);
+
+    assertThat(i.value()).isEqualTo(42);
+    assertThat(sr.read()).isEqualTo(-1);
+  }
+}
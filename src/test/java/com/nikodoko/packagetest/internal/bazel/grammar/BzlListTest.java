@@ -31,4 +31,13 @@ public class BzlListTest {
     assertThat(l.elements().get(0).value()).isEqualTo("//pkg1:target1");
     assertThat(l.elements().get(1).value()).isEqualTo("//pkg2:target2");
   }
+
+  @Test
+  public void testReadEmpty() throws Exception {
+    PushbackReader sr = new PushbackReader(new StringReader("[ ]"));
+    BzlList<BzlString> l = new BzlList(BzlString.factory());
+    l.read(sr);
+
+    assertThat(l.elements()).isEmpty();
+  }
 }
@@ -0,0 +1,57 @@
+package com.nikodoko.packagetest.internal.bazel.grammar;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+
+public class BzlScannerTest {
+  @Test
+  public void testScan() throws Exception {
+    String code =
+        String.join(
+            "\n",
+            "load(\"@rules_java//java:defs.bzl\", \"java_library\")",
+            "# A comment",
+            "maven = use_extension(\"@rules_jvm_external//:extensions.bzl\", 'maven')",
+            "java_library(",
+            "    name = \"a\",",
+            "    srcs = glob([\"src/**/*.java\"]) + [\"A.java\"],",
+            "    deps = [\"//b\", \":c\"],  # trailing comment",
+            "    javacopts = {\"x\": (1, 2)},",
+            ")",
+            "");
+
+    List<BzlScanner.Call> calls = BzlScanner.scan(code.getBytes(UTF_8));
+
+    assertThat(calls).hasSize(3);
+    assertThat(calls.get(0).function()).isEqualTo("load");
+    assertThat(calls.get(1).function()).isEqualTo("use_extension");
+    assertThat(calls.get(1).arguments().get(1).string()).isEqualTo(Optional.of("maven"));
+    BzlScanner.Call library = calls.get(2);
+    assertThat(library.function()).isEqualTo("java_library");
+    assertThat(library.string("name")).isEqualTo(Optional.of("a"));
+    assertThat(library.strings("deps")).containsExactly("//b", ":c").inOrder();
+    assertThat(library.strings("srcs")).isEmpty();
+    assertThat(library.keyword("visibility").isPresent()).isFalse();
+
+    BzlScanner.Value deps = library.keyword("deps").get();
+    assertThat(code.substring(deps.start(), deps.end())).isEqualTo("[\"//b\", \":c\"]");
+    assertThat(code.substring(library.start(), library.end())).startsWith("java_library(");
+    assertThat(code.substring(library.start(), library.end())).endsWith("},\n)");
+  }
+
+  @Test
+  public void testScanInvalid() {
+    for (String code : List.of("a(b = [", "a(\"b)", "a(b c)")) {
+      try {
+        BzlScanner.scan(code.getBytes(UTF_8));
+        fail("expected " + code + " to be rejected");
+      } catch (BzlSyntaxError expected) {
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.nikodoko.packagetest.internal.bazel.grammar;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.Test;
+
+public class BzlTemplateTest {
+  private static final BzlSlot<BzlString> NAME = new BzlSlot<>("name");
+  private static final BzlSlot<BzlList<BzlString>> DEPS = new BzlSlot<>("deps");
+
+  @Test
+  public void testWrite() throws Exception {
+    BzlTemplate template = BzlTemplate.compile(javaLibrary(NAME, DEPS));
+    BzlString name = new BzlString("my.module");
+    BzlList<BzlString> deps =
+        new BzlList<>(
+            BzlString.factory(),
+            List.of(new BzlString("//pkg1:target1"), new BzlString("//pkg2:target2")));
+
+    ByteArrayOutputStream got = new ByteArrayOutputStream();
+    template.write(got, template.values().set(NAME, name).set(DEPS, deps));
+
+    StringWriter expected = new StringWriter();
+    for (BzlStatement s : javaLibrary(name, deps)) {
+      s.write(expected);
+    }
+
+    assertThat(new String(got.toByteArray(), UTF_8)).isEqualTo(expected.toString());
+  }
+
+  @Test
+  public void testWriteWithMissingValue() throws Exception {
+    BzlTemplate template = BzlTemplate.compile(javaLibrary(NAME, DEPS));
+    try {
+      template.write(
+          new ByteArrayOutputStream(), template.values().set(NAME, new BzlString("my.module")));
+      fail("expected missing slot value to be rejected");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  private static List<BzlStatement> javaLibrary(BzlExpression name, BzlExpression deps) {
+    return List.of(
+        new BzlStatement(
+            new BzlFunctionCall(
+                "java_library",
+                new BzlAssignmentExpression("name", name),
+                new BzlAssignmentExpression(
+                    "srcs",
+                    new BzlFunctionCall(
+                        "glob",
+                        new BzlList<>(
+                            BzlString.factory(),
+                            List.of(new BzlString("src/main/java/**/*.java"))))),
+                new BzlAssignmentExpression("deps", deps))));
+  }
+}
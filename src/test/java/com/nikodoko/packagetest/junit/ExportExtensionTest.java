@@ -0,0 +1,33 @@
+package com.nikodoko.packagetest.junit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Module;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+
+public class ExportExtensionTest {
+  @Test
+  public void testLifecycle() throws Exception {
+    Module module =
+        Module.named("a.module").containing(Module.file("A.java", "package a.module;"));
+    ExportExtension extension =
+        ExportExtension.of(Fixture.builder(BuildSystem.BAZEL).modules(module).build());
+
+    // The extension does not use its context
+    extension.beforeAll(null);
+    Path root = extension.exported().root();
+    Path a = extension.exported().file("a.module", "A.java").get();
+
+    extension.beforeEach(null);
+    Files.write(a, "changed".getBytes(UTF_8));
+    extension.afterEach(null);
+    assertThat(new String(Files.readAllBytes(a), UTF_8)).isEqualTo("package a.module;");
+
+    extension.afterAll(null);
+    assertThat(Files.exists(root)).isFalse();
+  }
+}
@@ -0,0 +1,213 @@
+package com.nikodoko.packagetest.junit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+public class ExportRuleTest {
+  private static final Module MODULE =
+      Module.named("a.module")
+          .containing(
+              Module.file("A.java", "package a.module; class A {}"),
+              Module.file("b/B.java", "package a.module.b; class B {}"));
+
+  @Test
+  public void testExportOnceAndResetAfterEach() throws Throwable {
+    ExportRule rule = ExportRule.of(Fixture.builder(BuildSystem.MAVEN).modules(MODULE).build());
+    List<Path> roots = new ArrayList<>();
+    List<Statement> tests =
+        List.of(
+            statement(
+                () -> {
+                  Path root = rule.exported().root();
+                  roots.add(root);
+                  Path a = rule.exported().file("a.module", "A.java").get();
+                  Files.write(a, "changed".getBytes(UTF_8));
+                  Files.delete(rule.exported().file("a.module", "b/B.java").get());
+                  Files.createDirectories(root.resolve("extra/dir"));
+                  Files.write(root.resolve("extra/dir/C.java"), "c".getBytes(UTF_8));
+                }),
+            statement(
+                () -> {
+                  Path root = rule.exported().root();
+                  roots.add(root);
+                  Path a = rule.exported().file("a.module", "A.java").get();
+                  assertThat(new String(Files.readAllBytes(a), UTF_8))
+                      .isEqualTo("package a.module; class A {}");
+                  assertThat(Files.exists(rule.exported().file("a.module", "b/B.java").get()))
+                      .isTrue();
+                  assertThat(Files.exists(root.resolve("extra"))).isFalse();
+                  // Same size and modification time, but different contents
+                  FileTime time = Files.getLastModifiedTime(a);
+                  Files.write(a, "package a.module; class Z {}".getBytes(UTF_8));
+                  Files.setLastModifiedTime(a, time);
+                }),
+            statement(
+                () -> {
+                  Path a = rule.exported().file("a.module", "A.java").get();
+                  assertThat(new String(Files.readAllBytes(a), UTF_8))
+                      .isEqualTo("package a.module; class A {}");
+                }));
+
+    Statement all =
+        rule.apply(
+            statement(
+                () -> {
+                  for (Statement t : tests) {
+                    rule.resetAfterEach().apply(t, Description.EMPTY).evaluate();
+                  }
+                }),
+            Description.EMPTY);
+    all.evaluate();
+
+    assertThat((Object) roots.get(0)).isEqualTo(roots.get(1));
+    assertThat(Files.exists(roots.get(0))).isFalse();
+  }
+
+  @Test
+  public void testResetKeepsModificationTimes() throws Throwable {
+    Fixture fixture =
+        Fixture.builder(BuildSystem.MAVEN)
+            .modules(MODULE)
+            .options(Export.Options.builder().withReproducibleOutput().build())
+            .build();
+    ExportRule rule = ExportRule.of(fixture);
+    List<FileTime> times = new ArrayList<>();
+    Statement test =
+        statement(
+            () -> {
+              Path a = rule.exported().file("a.module", "A.java").get();
+              times.add(Files.getLastModifiedTime(a));
+              times.add(Files.getLastModifiedTime(a.getParent()));
+              assertThat(Exported.attach(rule.exported().root()).isPresent()).isTrue();
+              Files.write(a, "changed".getBytes(UTF_8));
+              Files.write(a.resolveSibling("Extra.java"), "extra".getBytes(UTF_8));
+            });
+    rule.apply(
+            statement(
+                () -> {
+                  for (int i = 0; i < 2; i++) {
+                    rule.resetAfterEach().apply(test, Description.EMPTY).evaluate();
+                  }
+                }),
+            Description.EMPTY)
+        .evaluate();
+
+    FileTime reproducible = FileTime.from(Instant.parse("1980-02-01T00:00:00Z"));
+    assertThat(times).containsExactly(reproducible, reproducible, reproducible, reproducible);
+  }
+
+  @Test
+  public void testExportAgainWithDefaultOptions() throws Throwable {
+    ExportRule rule = ExportRule.of(Fixture.builder(BuildSystem.MAVEN).modules(MODULE).build());
+    List<Path> roots = new ArrayList<>();
+    Statement test =
+        statement(
+            () -> {
+              roots.add(rule.exported().root());
+              assertThat(Files.exists(rule.exported().file("a.module", "A.java").get()))
+                  .isTrue();
+            });
+    rule.apply(test, Description.EMPTY).evaluate();
+    rule.apply(test, Description.EMPTY).evaluate();
+
+    assertThat(roots).hasSize(2);
+    assertThat(Files.exists(roots.get(0))).isFalse();
+    assertThat(Files.exists(roots.get(1))).isFalse();
+  }
+
+  @Test
+  public void testReadOnly() throws Throwable {
+    ExportRule rule =
+        ExportRule.of(Fixture.builder(BuildSystem.MAVEN).modules(MODULE).readOnly().build());
+    List<Path> roots = new ArrayList<>();
+    rule.apply(
+            statement(
+                () -> {
+                  roots.add(rule.exported().root());
+                  Path a = rule.exported().file("a.module", "A.java").get();
+                  assertThat(Files.getPosixFilePermissions(a))
+                      .doesNotContain(PosixFilePermission.OWNER_WRITE);
+                  assertThat(Files.getPosixFilePermissions(a.getParent()))
+                      .doesNotContain(PosixFilePermission.OWNER_WRITE);
+                }),
+            Description.EMPTY)
+        .evaluate();
+
+    assertThat(Files.exists(roots.get(0))).isFalse();
+  }
+
+  @Test
+  public void testNotExported() {
+    ExportRule rule = ExportRule.of(Fixture.builder(BuildSystem.MAVEN).modules(MODULE).build());
+    try {
+      rule.exported();
+      throw new AssertionError("expected an exception");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void testRetryFailedExport() throws Throwable {
+    Path root = Files.createTempFile("packagetest", "");
+    Fixture fixture =
+        Fixture.builder(BuildSystem.MAVEN)
+            .modules(MODULE)
+            .options(Export.Options.builder().usingRoot(root.resolve("project")).build())
+            .build();
+    ExportRule rule = ExportRule.of(fixture);
+    try {
+      rule.apply(statement(() -> {}), Description.EMPTY).evaluate();
+      throw new AssertionError("expected the export to fail");
+    } catch (IOException expected) {
+    }
+
+    Files.delete(root);
+    List<Path> roots = new ArrayList<>();
+    rule.apply(statement(() -> roots.add(rule.exported().root())), Description.EMPTY).evaluate();
+
+    assertThat(roots).hasSize(1);
+    Files.deleteIfExists(root);
+  }
+
+  @Test
+  public void testAfterFailedBeforeTest() throws Throwable {
+    Fixture fixture = Fixture.builder(BuildSystem.MAVEN).modules(MODULE).build();
+    try {
+      fixture.beforeTest();
+      throw new AssertionError("expected an exception");
+    } catch (IllegalStateException expected) {
+    }
+
+    // Does not hide the failure with one of its own
+    fixture.afterTest();
+  }
+
+  interface Body {
+    void run() throws Throwable;
+  }
+
+  private static Statement statement(Body body) {
+    return new Statement() {
+      @Override
+      public void evaluate() throws Throwable {
+        body.run();
+      }
+    };
+  }
+}
@@ -0,0 +1,149 @@
+package com.nikodoko.packagetest.perf;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Export;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import com.nikodoko.packagetest.fs.ShapedFileSystem;
+import com.nikodoko.packagetest.fs.StorageProfile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Test;
+
+/**
+ * Exports reference fixtures of fixed sizes and checks that the allocations, file operations and
+ * wall time of the export stay within the budgets of {@code export-budgets.properties}.
+ *
+ * <p>Not run with the other tests, but with {@code mvn test -Pperf}. Allocations are the bytes
+ * allocated by the exporting thread, which do not depend on the garbage collector, and file
+ * operations are counted through a {@link ShapedFileSystem}, so both are stable from one machine to
+ * another; only wall time budgets leave room for slow machines. Measurements are printed, so that
+ * budgets can be updated when a change is expected to move them.
+ */
+public class ExportBudgets {
+  static final int WARMUP = 5;
+  static final int RUNS = 7;
+
+  static final List<Module> SMALL = fixture(10, 10);
+  static final List<Module> LARGE = fixture(50, 40);
+
+  static final Properties BUDGETS = budgets();
+
+  static Properties budgets() {
+    Properties budgets = new Properties();
+    try (InputStream in = ExportBudgets.class.getResourceAsStream("export-budgets.properties")) {
+      budgets.load(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return budgets;
+  }
+
+  @Test
+  public void testMavenSmall() throws Exception {
+    check("maven.small", BuildSystem.MAVEN, SMALL);
+  }
+
+  @Test
+  public void testMavenLarge() throws Exception {
+    check("maven.large", BuildSystem.MAVEN, LARGE);
+  }
+
+  @Test
+  public void testBazelSmall() throws Exception {
+    check("bazel.small", BuildSystem.BAZEL, SMALL);
+  }
+
+  @Test
+  public void testBazelLarge() throws Exception {
+    check("bazel.large", BuildSystem.BAZEL, LARGE);
+  }
+
+  // Modules depending on the three previous ones, each file importing a class of the first one
+  static List<Module> fixture(int modules, int files) {
+    List<Module> fixture = new ArrayList<>();
+    for (int i = 0; i < modules; i++) {
+      Module module = Module.named("module" + i);
+      for (int j = 0; j < files; j++) {
+        String pkg = "fixture.module" + i;
+        String imported = i == 0 ? "" : String.format("import fixture.module%d.C0;\n\n", i - 1);
+        String contents =
+            String.format(
+                "package %s;\n\n%spublic class C%d {\n  int value() {\n    return %d;\n  }\n}\n",
+                pkg, imported, j, j);
+        module = module.withFile(Module.file(pkg.replace('.', '/') + "/C" + j + ".java", contents));
+      }
+
+      module =
+          module.dependingOn(
+              Module.dependency("com.google.guava", "guava", "33.0.0-jre"),
+              Module.dependency("junit", "junit", "4.13.2"));
+      for (int k = Math.max(0, i - 3); k < i; k++) {
+        module = module.dependingOn(fixture.get(k));
+      }
+
+      fixture.add(module);
+    }
+
+    return fixture;
+  }
+
+  void check(String scenario, BuildSystem system, List<Module> fixture) throws Exception {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    for (int i = 0; i < WARMUP; i++) {
+      export(system, fixture, Export.Options.defaults()).cleanup();
+    }
+
+    long allocated = Long.MAX_VALUE;
+    long[] wallNanos = new long[RUNS];
+    for (int i = 0; i < RUNS; i++) {
+      long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+      long start = System.nanoTime();
+      Exported out = export(system, fixture, Export.Options.defaults());
+      wallNanos[i] = System.nanoTime() - start;
+      allocated = Math.min(allocated, threads.getCurrentThreadAllocatedBytes() - allocatedBefore);
+      out.cleanup();
+    }
+
+    Arrays.sort(wallNanos);
+    long wallMillis = wallNanos[RUNS / 2] / 1_000_000;
+
+    ShapedFileSystem fs = ShapedFileSystem.ofDefault(StorageProfile.unshaped());
+    Exported out = export(system, fixture, Export.Options.builder().usingFileSystem(fs).build());
+    long opened = fs.calls(ShapedFileSystem.Operation.OPEN);
+    long directories = fs.calls(ShapedFileSystem.Operation.CREATE_DIRECTORY);
+    long writes = fs.calls(ShapedFileSystem.Operation.WRITE);
+    out.cleanup();
+
+    System.out.printf(
+        "%s: allocatedBytes=%d opened=%d createdDirectories=%d writes=%d wallMillis=%d%n",
+        scenario, allocated, opened, directories, writes, wallMillis);
+    assertWithinBudget(scenario, "allocatedBytes", allocated);
+    assertWithinBudget(scenario, "opened", opened);
+    assertWithinBudget(scenario, "createdDirectories", directories);
+    assertWithinBudget(scenario, "writes", writes);
+    assertWithinBudget(scenario, "wallMillis", wallMillis);
+  }
+
+  static Exported export(BuildSystem system, List<Module> fixture, Export.Options options)
+      throws Exception {
+    return Export.of(system, List.of(), fixture, options);
+  }
+
+  static void assertWithinBudget(String scenario, String measure, long actual) {
+    String key = scenario + "." + measure;
+    String budget = BUDGETS.getProperty(key);
+    assertWithMessage("no budget for " + key).that(budget).isNotNull();
+    assertWithMessage(key + " over budget").that(actual).isAtMost(Long.parseLong(budget.trim()));
+  }
+}
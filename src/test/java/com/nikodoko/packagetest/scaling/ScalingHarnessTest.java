@@ -0,0 +1,121 @@
+package com.nikodoko.packagetest.scaling;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.nikodoko.packagetest.BuildSystem;
+import com.nikodoko.packagetest.Exported;
+import com.nikodoko.packagetest.Module;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+public class ScalingHarnessTest {
+  static final FixtureSize[] SWEEP = {
+    FixtureSize.of(2, 5, 0.5), FixtureSize.of(4, 5, 0.5), FixtureSize.of(8, 5, 0.5)
+  };
+
+  // Sleeps for a time growing as files^exponent, 200ms for the largest fixture
+  static ScalingHarness.Tool sleeping(double exponent) {
+    return project -> {
+      long files;
+      try (Stream<?> paths = Files.walk(project.root())) {
+        files = paths.filter(p -> p.toString().endsWith(".java")).count();
+      }
+
+      Thread.sleep(Math.round(200 * Math.pow(files / 40.0, exponent)));
+    };
+  }
+
+  static ScalingHarness harness() {
+    return ScalingHarness.builder(BuildSystem.MAVEN).sizes(SWEEP).warmup(1).repetitions(3).build();
+  }
+
+  static int modules(Exported project) {
+    int modules = 0;
+    while (project.file("module" + modules, "fixture/module" + modules + "/C0.java").isPresent()) {
+      modules++;
+    }
+
+    return modules;
+  }
+
+  @Test
+  public void testLinearTool() throws Exception {
+    ScalingReport report = harness().run(sleeping(1));
+
+    assertThat(report.exponent()).isWithin(0.2).of(1);
+    assertThat(report.isSuperlinear()).isFalse();
+    report.assertAtMostLinear();
+  }
+
+  @Test
+  public void testQuadraticTool() throws Exception {
+    ScalingReport report = harness().run(sleeping(2));
+
+    assertThat(report.exponent()).isWithin(0.3).of(2);
+    assertThat(report.isSuperlinear()).isTrue();
+    try {
+      report.assertAtMostLinear();
+      fail("expected quadratic growth to be flagged");
+    } catch (AssertionError expected) {
+    }
+  }
+
+  @Test
+  public void testRuns() throws Exception {
+    List<Integer> modules = new ArrayList<>();
+    ScalingReport report =
+        ScalingHarness.builder(BuildSystem.BAZEL)
+            .sizes(SWEEP)
+            .warmup(2)
+            .repetitions(3)
+            .scalingWith(FixtureSize::modules)
+            .build()
+            .run(project -> modules.add(modules(project)));
+
+    assertThat(modules).isEqualTo(List.of(2, 2, 2, 2, 2, 4, 4, 4, 4, 4, 8, 8, 8, 8, 8));
+    assertThat(report.samples()).hasSize(3);
+    assertThat(report.samples().get(2).scale()).isEqualTo(8.0);
+    assertThat(report.samples().get(2).nanos()).hasLength(3);
+    assertThat(report.toCsv())
+        .startsWith(
+            "modules,files_per_module,dependency_density,scale,median_nanos,min_nanos,max_nanos\n"
+                + "2,5,0.5,2.0,");
+    assertThat(report.toJson())
+        .containsMatch(
+            "^\\{\"exponent\":[-0-9.E]+,\"samples\":\\[\\{\"modules\":2,\"filesPerModule\":5,"
+                + "\"dependencyDensity\":0.5,\"scale\":2.0,\"nanos\":\\[\\d+,\\d+,\\d+\\]\\},");
+  }
+
+  static List<String> dependencies(Module module) {
+    List<String> names = new ArrayList<>();
+    module.moduleDependencies().forEach(m -> names.add(m.name()));
+    return names;
+  }
+
+  @Test
+  public void testGenerate() {
+    List<Module> modules = FixtureSize.of(20, 3, 1).generate();
+
+    assertThat(modules).hasSize(20);
+    assertThat(modules.get(19).files()).hasSize(3);
+    assertThat(modules.get(19).moduleDependencies()).hasSize(19);
+    assertThat(FixtureSize.of(20, 3, 0).generate().get(19).moduleDependencies()).isEmpty();
+    assertThat(dependencies(FixtureSize.of(20, 3, 0.3).generate().get(19)))
+        .isEqualTo(dependencies(FixtureSize.of(20, 3, 0.3).generate().get(19)));
+  }
+
+  @Test
+  public void testInvalidSweep() {
+    try {
+      ScalingHarness.builder(BuildSystem.MAVEN)
+          .sizes(FixtureSize.of(2, 5, 0), FixtureSize.of(5, 2, 1))
+          .build();
+      fail("expected sweeps of a single size to be rejected");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}